@@ -0,0 +1,80 @@
+package me.ryanhamshire.PopulationDensity;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.RejectedExecutionException;
+
+//pre-scans a region from the world's region files in a background thread (see AnvilRegionScanner)
+//then hands the results (or null, if the region files weren't enough) to the RegionPreScanner on the main thread
+//cancelled by RegionPreScanner.shutdown() when the plugin is disabled, after which nothing is handed back
+class AnvilPreScanTask extends Thread
+{
+	private RegionCoordinates region;
+	private File worldFolder;
+	private int height;
+	private int minY;
+	private volatile boolean cancelled = false;
+
+	AnvilPreScanTask(RegionCoordinates region, File worldFolder, int height, int minY)
+	{
+		this.region = region;
+		this.worldFolder = worldFolder;
+		this.height = height;
+		this.minY = minY;
+
+		//doesn't keep the server running if it's stuck reading
+		this.setName("PopulationDensity Region File Pre-Scan");
+		this.setPriority(Thread.MIN_PRIORITY);
+		this.setDaemon(true);
+	}
+
+	void cancel()
+	{
+		this.cancelled = true;
+		this.interrupt();
+	}
+
+	@Override
+	public void run()
+	{
+		ScanResults results = null;
+		long start = System.currentTimeMillis();
+		try
+		{
+			AnvilRegionScanner scanner = new AnvilRegionScanner(this.worldFolder, this.height, this.minY,
+					PopulationDensity.instance.config_scanThreads > 1 ? PopulationDensity.instance.getScanPool() : null);
+			results = scanner.scan(this.region);
+			if(results == null)
+			{
+				PopulationDensity.AddLogEntry("Region \"" + this.region.toString() + "\" has " + scanner.getMissingChunks() + " chunks which haven't been generated yet, so it can't be pre-scanned from region files.");
+			}
+			else if(!this.cancelled)
+			{
+				long millis = System.currentTimeMillis() - start;
+				PopulationDensity.AddLogEntry("Read region \"" + this.region.toString() + "\" from region files in " + millis + "ms.");
+				PopulationDensity.instance.dataStore.getScanHistory().add(this.region, results, millis);
+			}
+		}
+		catch(IOException e)
+		{
+			PopulationDensity.AddLogEntry("Unable to pre-scan region \"" + this.region.toString() + "\" from region files: " + e.getMessage());
+		}
+		catch(RejectedExecutionException e)
+		{
+			//the parallel scan threads are shut down in onDisable
+			PopulationDensity.AddLogEntry("Unable to pre-scan region \"" + this.region.toString() + "\" from region files because the scan threads have been shut down.");
+		}
+		catch(RuntimeException e)
+		{
+			//read errors on the parallel scan threads come back wrapped, and the region still gets a live pre-scan
+			Throwable cause = e.getCause() != null ? e.getCause() : e;
+			PopulationDensity.AddLogEntry("Unable to pre-scan region \"" + this.region.toString() + "\" from region files: " + cause.toString());
+			results = null;
+		}
+
+		if(this.cancelled || !PopulationDensity.instance.isEnabled()) return;
+
+		PreScanResultsTask resultsTask = new PreScanResultsTask(this.region, results);
+		PopulationDensity.instance.getServer().getScheduler().scheduleSyncDelayedTask(PopulationDensity.instance, resultsTask, 1L);
+	}
+}
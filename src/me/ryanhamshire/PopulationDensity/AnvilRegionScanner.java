@@ -0,0 +1,482 @@
+package me.ryanhamshire.PopulationDensity;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+//scores regions straight from the world's region/*.mca (anvil format) files, without loading any chunks into the server
+//region files are memory mapped, and chunks are decompressed and summarized on worker threads (see ChunkScanSummary),
+//so the counts are exactly what ScanRegionTask finds for the same blocks
+//chunks which were never generated aren't in the files, so regions with any of those still need a live scan
+//NOTE: the files only have what the server last saved, so recent changes to loaded chunks may be missing
+//also runs from the command line, against a copy of a world folder (see main())
+class AnvilRegionScanner
+{
+	private static final int CHUNK_SIZE = RegionScanner.CHUNK_SIZE;
+	private static final int CHUNKS_PER_FILE = 32;
+	private static final int SECTOR_SIZE = 4096;
+	private static final int SECTION_HEIGHT = 16;
+	private static final int SECTION_VOLUME = CHUNK_SIZE * CHUNK_SIZE * SECTION_HEIGHT;
+
+	//chunk compression types
+	private static final int GZIP = 1;
+	private static final int ZLIB = 2;
+
+	//NBT tag types
+	private static final byte TAG_END = 0;
+	private static final byte TAG_BYTE = 1;
+	private static final byte TAG_SHORT = 2;
+	private static final byte TAG_INT = 3;
+	private static final byte TAG_LONG = 4;
+	private static final byte TAG_FLOAT = 5;
+	private static final byte TAG_DOUBLE = 6;
+	private static final byte TAG_BYTE_ARRAY = 7;
+	private static final byte TAG_STRING = 8;
+	private static final byte TAG_LIST = 9;
+	private static final byte TAG_COMPOUND = 10;
+	private static final byte TAG_INT_ARRAY = 11;
+	private static final byte TAG_LONG_ARRAY = 12;
+
+	private final File regionFolder;
+	private final int height;
+	private final int minY;
+	private final ForkJoinPool pool;
+
+	//region files mapped for the current scan, by RegionCoordinates.toKey(file x, file z)
+	private LongHashMap<ByteBuffer> files;
+
+	private int missingChunks = 0;
+
+	//pool may be null, to read every chunk on the calling thread
+	AnvilRegionScanner(File worldFolder, int height, int minY, ForkJoinPool pool)
+	{
+		this.regionFolder = findRegionFolder(worldFolder);
+		this.height = height;
+		this.minY = minY;
+		this.pool = pool;
+	}
+
+	//the nether and the end keep their region files in a subfolder
+	private static File findRegionFolder(File worldFolder)
+	{
+		String [] candidates = { "region", "DIM-1" + File.separator + "region", "DIM1" + File.separator + "region" };
+		for(String candidate : candidates)
+		{
+			File folder = new File(worldFolder, candidate);
+			if(folder.isDirectory()) return folder;
+		}
+
+		return new File(worldFolder, candidates[0]);
+	}
+
+	//number of chunks the last scan couldn't find in the region files
+	int getMissingChunks()
+	{
+		return this.missingChunks;
+	}
+
+	//returns null if any of the region's chunks haven't been generated
+	ScanResults scan(RegionCoordinates region) throws IOException
+	{
+		int lesserChunkX = RegionCoordinates.lesserChunk(region.x);
+		int lesserChunkZ = RegionCoordinates.lesserChunk(region.z);
+		int sizeX = RegionCoordinates.greaterChunk(region.x) - lesserChunkX + 1;
+		int sizeZ = RegionCoordinates.greaterChunk(region.z) - lesserChunkZ + 1;
+
+		//map every region file the scan touches (usually 1 to 4)
+		this.files = new LongHashMap<ByteBuffer>();
+		for(int chunkX = lesserChunkX; chunkX < lesserChunkX + sizeX; chunkX++)
+		{
+			for(int chunkZ = lesserChunkZ; chunkZ < lesserChunkZ + sizeZ; chunkZ++)
+			{
+				int fileX = Math.floorDiv(chunkX, CHUNKS_PER_FILE);
+				int fileZ = Math.floorDiv(chunkZ, CHUNKS_PER_FILE);
+				long key = RegionCoordinates.toKey(fileX, fileZ);
+				if(this.files.containsKey(key)) continue;
+
+				File file = new File(this.regionFolder, "r." + fileX + "." + fileZ + ".mca");
+				if(!file.exists()) continue;
+
+				RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+				try
+				{
+					FileChannel channel = randomAccessFile.getChannel();
+					this.files.put(key, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+				}
+				finally
+				{
+					//the mapping stays valid after the file is closed
+					randomAccessFile.close();
+				}
+			}
+		}
+
+		ChunkScanSummary [][] summaries = new ChunkScanSummary[sizeX][sizeZ];
+		AtomicInteger missing = new AtomicInteger();
+		int chunkCount = sizeX * sizeZ;
+		if(this.pool != null && this.pool.getParallelism() > 1)
+		{
+			try
+			{
+				this.pool.invoke(new ReadTask(summaries, lesserChunkX, lesserChunkZ, 0, chunkCount, Math.max(1, chunkCount / (this.pool.getParallelism() * 4)), missing));
+			}
+			catch(RuntimeException e)
+			{
+				if(e.getCause() instanceof IOException) throw (IOException)e.getCause();
+				throw e;
+			}
+		}
+		else
+		{
+			new ChunkReader().readRange(summaries, lesserChunkX, lesserChunkZ, 0, chunkCount, missing);
+		}
+
+		this.files = null;
+		this.missingChunks = missing.get();
+		if(this.missingChunks > 0) return null;
+
+		return ChunkScanSummary.merge(summaries, this.height);
+	}
+
+	//reads a range of chunks (by index x * sizeZ + z), splitting it in half until the pieces are small enough
+	private class ReadTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+		private final ChunkScanSummary [][] summaries;
+		private final int lesserChunkX;
+		private final int lesserChunkZ;
+		private final int from;
+		private final int to;
+		private final int piece;
+		private final AtomicInteger missing;
+
+		ReadTask(ChunkScanSummary [][] summaries, int lesserChunkX, int lesserChunkZ, int from, int to, int piece, AtomicInteger missing)
+		{
+			this.summaries = summaries;
+			this.lesserChunkX = lesserChunkX;
+			this.lesserChunkZ = lesserChunkZ;
+			this.from = from;
+			this.to = to;
+			this.piece = piece;
+			this.missing = missing;
+		}
+
+		@Override
+		protected void compute()
+		{
+			if(this.to - this.from <= this.piece)
+			{
+				try
+				{
+					new ChunkReader().readRange(this.summaries, this.lesserChunkX, this.lesserChunkZ, this.from, this.to, this.missing);
+				}
+				catch(IOException e)
+				{
+					throw new RuntimeException(e);
+				}
+				return;
+			}
+
+			int middle = (this.from + this.to) >>> 1;
+			invokeAll(new ReadTask(this.summaries, this.lesserChunkX, this.lesserChunkZ, this.from, middle, this.piece, this.missing),
+					new ReadTask(this.summaries, this.lesserChunkX, this.lesserChunkZ, middle, this.to, this.piece, this.missing));
+		}
+	}
+
+	//decompresses and summarizes chunks, one thread at a time
+	private class ChunkReader
+	{
+		private final ChunkScanSummary.Scratch scratch = new ChunkScanSummary.Scratch(height);
+		private final Inflater inflater = new Inflater();
+		private byte [] compressed = new byte[1 << 16];
+		private final byte [] blocks = new byte[SECTION_VOLUME];
+		private final byte [] add = new byte[SECTION_VOLUME / 2];
+
+		void readRange(ChunkScanSummary [][] summaries, int lesserChunkX, int lesserChunkZ, int from, int to, AtomicInteger missing) throws IOException
+		{
+			int sizeZ = summaries[0].length;
+			try
+			{
+				for(int i = from; i < to; i++)
+				{
+					int x = i / sizeZ;
+					int z = i % sizeZ;
+					summaries[x][z] = this.read(x + lesserChunkX, z + lesserChunkZ);
+					if(summaries[x][z] == null) missing.incrementAndGet();
+				}
+			}
+			finally
+			{
+				this.inflater.end();
+			}
+		}
+
+		//returns null if the chunk isn't in its region file
+		private ChunkScanSummary read(int chunkX, int chunkZ) throws IOException
+		{
+			ByteBuffer file = files.get(RegionCoordinates.toKey(Math.floorDiv(chunkX, CHUNKS_PER_FILE), Math.floorDiv(chunkZ, CHUNKS_PER_FILE)));
+			if(file == null) return null;
+			file = file.duplicate();
+
+			//the header has the chunk's location in 4KB sectors: 3 bytes of offset and 1 byte of length
+			int location = file.getInt((Math.floorMod(chunkX, CHUNKS_PER_FILE) + Math.floorMod(chunkZ, CHUNKS_PER_FILE) * CHUNKS_PER_FILE) * 4);
+			int offset = (location >>> 8) * SECTOR_SIZE;
+			if(offset == 0 || (location & 0xFF) == 0) return null;
+			if(offset + 5 > file.limit()) throw new IOException("Chunk " + chunkX + "," + chunkZ + " is past the end of its region file.");
+
+			//then the chunk is a 4 byte length, a compression type, and the compressed NBT
+			int length = file.getInt(offset) - 1;
+			int compression = file.get(offset + 4);
+			if(length <= 0 || offset + 5 + length > file.limit()) throw new IOException("Chunk " + chunkX + "," + chunkZ + " has a bad length.");
+			if(this.compressed.length < length) this.compressed = new byte[Integer.highestOneBit(length) << 1];
+			file.position(offset + 5);
+			file.get(this.compressed, 0, length);
+
+			InputStream compressedStream = new ByteArrayInputStream(this.compressed, 0, length);
+			InputStream stream;
+			if(compression == ZLIB)
+			{
+				this.inflater.reset();
+				stream = new InflaterInputStream(compressedStream, this.inflater);
+			}
+			else if(compression == GZIP)
+			{
+				stream = new GZIPInputStream(compressedStream);
+			}
+			else
+			{
+				throw new IOException("Chunk " + chunkX + "," + chunkZ + " has unknown compression type " + compression + ".");
+			}
+
+			Arrays.fill(this.scratch.typeIDs, (short)0);
+			//closing the stream frees a gzip stream's native memory right away, and leaves the shared inflater alone
+			DataInputStream in = new DataInputStream(new BufferedInputStream(stream, 8192));
+			try
+			{
+				if(in.readByte() != TAG_COMPOUND) throw new IOException("Chunk " + chunkX + "," + chunkZ + " isn't an NBT compound.");
+				skipFully(in, in.readUnsignedShort());
+				this.readRoot(in);
+			}
+			finally
+			{
+				in.close();
+			}
+
+			return ChunkScanSummary.compute(this.scratch, height, minY);
+		}
+
+		//everything of interest is in Level.Sections
+		private void readRoot(DataInputStream in) throws IOException
+		{
+			byte type;
+			while((type = in.readByte()) != TAG_END)
+			{
+				String name = in.readUTF();
+				if(type == TAG_COMPOUND && name.equals("Level")) this.readLevel(in);
+				else skipTag(in, type);
+			}
+		}
+
+		private void readLevel(DataInputStream in) throws IOException
+		{
+			byte type;
+			while((type = in.readByte()) != TAG_END)
+			{
+				String name = in.readUTF();
+				if(type == TAG_LIST && name.equals("Sections"))
+				{
+					byte elementType = in.readByte();
+					int count = in.readInt();
+					for(int i = 0; i < count; i++)
+					{
+						if(elementType == TAG_COMPOUND) this.readSection(in);
+						else skipTag(in, elementType);
+					}
+				}
+				else
+				{
+					skipTag(in, type);
+				}
+			}
+		}
+
+		//a 16 block tall slice of the chunk, with block IDs in (y * 16 + z) * 16 + x order
+		//IDs above 255 keep their extra 4 bits in the "Add" nibble array
+		private void readSection(DataInputStream in) throws IOException
+		{
+			int sectionY = -1;
+			boolean hasBlocks = false;
+			boolean hasAdd = false;
+			byte type;
+			while((type = in.readByte()) != TAG_END)
+			{
+				String name = in.readUTF();
+				if(type == TAG_BYTE && name.equals("Y"))
+				{
+					sectionY = in.readByte();
+				}
+				else if(type == TAG_BYTE_ARRAY && name.equals("Blocks"))
+				{
+					hasBlocks = this.readByteArray(in, this.blocks);
+				}
+				else if(type == TAG_BYTE_ARRAY && name.equals("Add"))
+				{
+					hasAdd = this.readByteArray(in, this.add);
+				}
+				else
+				{
+					skipTag(in, type);
+				}
+			}
+
+			if(!hasBlocks || sectionY < 0 || sectionY * SECTION_HEIGHT >= height) return;
+
+			short [] typeIDs = this.scratch.typeIDs;
+			int baseY = sectionY * SECTION_HEIGHT;
+			int sectionTop = Math.min(SECTION_HEIGHT, height - baseY);
+			for(int i = 0; i < sectionTop * CHUNK_SIZE * CHUNK_SIZE; i++)
+			{
+				int typeID = this.blocks[i] & 0xFF;
+				if(hasAdd) typeID |= ((this.add[i >> 1] >> ((i & 1) << 2)) & 0xF) << 8;
+
+				int y = baseY + (i >> 8);
+				int z = (i >> 4) & 0xF;
+				int x = i & 0xF;
+				typeIDs[(x * CHUNK_SIZE + z) * height + y] = (short)typeID;
+			}
+		}
+
+		//reads a byte array tag's content if it's the expected size, otherwise skips it and returns false
+		private boolean readByteArray(DataInputStream in, byte [] destination) throws IOException
+		{
+			int length = in.readInt();
+			if(length != destination.length)
+			{
+				skipFully(in, length);
+				return false;
+			}
+
+			in.readFully(destination);
+			return true;
+		}
+	}
+
+	private static void skipTag(DataInputStream in, byte type) throws IOException
+	{
+		switch(type)
+		{
+			case TAG_BYTE: skipFully(in, 1); break;
+			case TAG_SHORT: skipFully(in, 2); break;
+			case TAG_INT: case TAG_FLOAT: skipFully(in, 4); break;
+			case TAG_LONG: case TAG_DOUBLE: skipFully(in, 8); break;
+			case TAG_BYTE_ARRAY: skipFully(in, in.readInt()); break;
+			case TAG_STRING: skipFully(in, in.readUnsignedShort()); break;
+			case TAG_INT_ARRAY: skipFully(in, in.readInt() * 4L); break;
+			case TAG_LONG_ARRAY: skipFully(in, in.readInt() * 8L); break;
+			case TAG_LIST:
+			{
+				byte elementType = in.readByte();
+				int count = in.readInt();
+				for(int i = 0; i < count; i++) skipTag(in, elementType);
+				break;
+			}
+			case TAG_COMPOUND:
+			{
+				byte elementType;
+				while((elementType = in.readByte()) != TAG_END)
+				{
+					skipFully(in, in.readUnsignedShort());
+					skipTag(in, elementType);
+				}
+				break;
+			}
+			default: throw new IOException("Unknown NBT tag type " + type + ".");
+		}
+	}
+
+	private static void skipFully(DataInputStream in, long count) throws IOException
+	{
+		while(count > 0)
+		{
+			long skipped = in.skip(count);
+			if(skipped <= 0)
+			{
+				if(in.read() < 0) throw new EOFException();
+				skipped = 1;
+			}
+			count -= skipped;
+		}
+	}
+
+	//offline scoring of a copied world folder, which needs the server jar on the class path for block types:
+	//  java -cp <server jar>:PopulationDensity.jar me.ryanhamshire.PopulationDensity.AnvilRegionScanner <world folder> <minimum region post y> <region x> <region z> [<region x> <region z>...]
+	//  java -cp <server jar>:PopulationDensity.jar me.ryanhamshire.PopulationDensity.AnvilRegionScanner <world folder> <minimum region post y> spiral <number of regions>
+	public static void main(String [] args) throws IOException
+	{
+		if(args.length < 4 || (!args[2].equalsIgnoreCase("spiral") && args.length % 2 != 0))
+		{
+			System.err.println("Usage: <world folder> <minimum region post y> <region x> <region z> [<region x> <region z>...]");
+			System.err.println("   or: <world folder> <minimum region post y> spiral <number of regions>");
+			System.exit(1);
+		}
+
+		File worldFolder = new File(args[0]);
+		int minY = Integer.parseInt(args[1]) - 20;
+
+		RegionCoordinates [] regions;
+		if(args[2].equalsIgnoreCase("spiral"))
+		{
+			RegionSpiral spiral = new RegionSpiral();
+			regions = new RegionCoordinates[Integer.parseInt(args[3])];
+			for(int i = 0; i < regions.length; i++)
+			{
+				regions[i] = new RegionCoordinates(spiral.x, spiral.z);
+				spiral.advance();
+			}
+		}
+		else
+		{
+			regions = new RegionCoordinates[(args.length - 2) / 2];
+			for(int i = 0; i < regions.length; i++)
+			{
+				regions[i] = new RegionCoordinates(Integer.parseInt(args[2 + i * 2]), Integer.parseInt(args[3 + i * 2]));
+			}
+		}
+
+		ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+		AnvilRegionScanner scanner = new AnvilRegionScanner(worldFolder, 256, minY, pool);
+		long totalStart = System.currentTimeMillis();
+		for(RegionCoordinates region : regions)
+		{
+			long start = System.currentTimeMillis();
+			ScanResults results = scanner.scan(region);
+			long millis = System.currentTimeMillis() - start;
+			if(results == null)
+			{
+				System.out.println(region.toString() + ": " + scanner.getMissingChunks() + " chunks haven't been generated (" + millis + "ms)");
+			}
+			else
+			{
+				System.out.println(region.toString() + ": wood " + results.woodCount + ", coal " + results.coalCount + ", iron " + results.ironCount +
+						", gold " + results.goldCount + ", redstone " + results.redstoneCount + ", diamond " + results.diamondCount +
+						", player blocks " + results.playerBlocks + ", resource score " + results.resourceScore() + " (" + millis + "ms)");
+			}
+		}
+		System.out.println("Scanned " + regions.length + " regions in " + (System.currentTimeMillis() - totalStart) + "ms.");
+		pool.shutdown();
+	}
+}
@@ -22,8 +22,8 @@ import java.util.Arrays;
 import java.util.List;
 
 import org.bukkit.ChatColor;
-import org.bukkit.Location;
 import org.bukkit.Material;
+import org.bukkit.World;
 import org.bukkit.block.Block;
 import org.bukkit.block.BlockFace;
 import org.bukkit.block.BlockState;
@@ -65,20 +65,15 @@ public class BlockEventHandler implements Listener
 		//if the player is not in managed world, do nothing (let vanilla code and other plugins do whatever)
 		if(!player.getWorld().equals(PopulationDensity.ManagedWorld)) return;
 		
-		//otherwise figure out which region that block is in
-		Location blockLocation = block.getLocation();
-		
 		//region posts are at sea level at the lowest, so no need to check build permissions under that
-		if(blockLocation.getBlockY() < PopulationDensity.instance.minimumRegionPostY) return;
+		if(block.getY() < PopulationDensity.instance.minimumRegionPostY) return;
 		
 		//whitelist for blocks which can always be broken (grass cutting, tree chopping)
 		if(BlockEventHandler.alwaysBreakableMaterials.contains(block.getType())) return;
 		
-		RegionCoordinates blockRegion = RegionCoordinates.fromLocation(blockLocation); 
-		
 		//if too close to (or above) region post, send an error message
 		//note the ONLY way to edit around a region post is to have special permission
-		if(!player.hasPermission("populationdensity.buildbreakanywhere") && this.nearRegionPost(blockLocation, blockRegion, PopulationDensity.instance.postProtectionRadius))
+		if(!player.hasPermission("populationdensity.buildbreakanywhere") && this.nearRegionPost(block, PopulationDensity.instance.postProtectionRadius))
 		{
 			if(PopulationDensity.instance.buildRegionPosts)
 			    PopulationDensity.sendMessage(player, TextMode.Err, Messages.NoBreakPost);
@@ -89,28 +84,52 @@ public class BlockEventHandler implements Listener
 		}
 	}
 	
-	private Location lastLocation = null;
-	private Boolean lastResult = null;
+	//once nothing has cancelled a block change, the next scan of that chunk needs to redo it
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onBlockBreakMonitor(BlockBreakEvent breakEvent)
+	{
+		Block block = breakEvent.getBlock();
+		if(!block.getWorld().equals(PopulationDensity.ManagedWorld)) return;
+		
+		PopulationDensity.instance.dataStore.getScanCache().markDirty(block);
+	}
+	
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onBlockPlaceMonitor(BlockPlaceEvent placeEvent)
+	{
+		Block block = placeEvent.getBlock();
+		if(!block.getWorld().equals(PopulationDensity.ManagedWorld)) return;
+		
+		PopulationDensity.instance.dataStore.getScanCache().markDirty(block);
+	}
+	
+	//remembers the last liquid flow source checked, since the same block usually flows several ways in a row
+	private World lastWorld = null;
+	private int lastX, lastY, lastZ;
+	private boolean lastResult = false;
 	@EventHandler(ignoreCancelled = true, priority = EventPriority.HIGHEST)
 	public void onBlockFromTo(BlockFromToEvent event)
 	{
 	    if(event.getFace() == BlockFace.DOWN) return;
 	    
-	    Location from = event.getBlock().getLocation();
-	    if(lastLocation != null && from.equals(lastLocation))
+		Block from = event.getBlock();
+		World world = from.getWorld();
+		int x = from.getX();
+		int y = from.getY();
+		int z = from.getZ();
+		if(lastWorld != null && x == lastX && y == lastY && z == lastZ && world.equals(lastWorld))
 	    {
 	        event.setCancelled(lastResult);
 	        return;
 	    }
 	    
 	    //if not in managed world, do nothing
-        if(!from.getWorld().equals(PopulationDensity.ManagedWorld)) return;
+		if(!world.equals(PopulationDensity.ManagedWorld)) return;
         
         //region posts are at sea level at the lowest, so no need to check build permissions under that
-        if(from.getY() < PopulationDensity.instance.minimumRegionPostY) return;
+		if(y < PopulationDensity.instance.minimumRegionPostY) return;
         
-        RegionCoordinates blockRegion = RegionCoordinates.fromLocation(from);
-        if(this.nearRegionPost(from, blockRegion, PopulationDensity.instance.postProtectionRadius + 1))
+		if(this.nearRegionPost(x, y, z, RegionCoordinates.fromBlock(x), RegionCoordinates.fromBlock(z), PopulationDensity.instance.postProtectionRadius + 1))
         {
             event.setCancelled(true);
             lastResult = true;
@@ -120,7 +139,10 @@ public class BlockEventHandler implements Listener
             lastResult = false;
         }
         
-        lastLocation = from;
+		lastWorld = world;
+		lastX = x;
+		lastY = y;
+		lastZ = z;
 	}
 	
 	//when a player places a block
@@ -136,15 +158,11 @@ public class BlockEventHandler implements Listener
 		//if not in managed world, do nothing
 		if(!player.getWorld().equals(PopulationDensity.ManagedWorld)) return;
 		
-		Location blockLocation = block.getLocation();
-		
 		//region posts are at sea level at the lowest, so no need to check build permissions under that
-		if(blockLocation.getBlockY() < PopulationDensity.instance.minimumRegionPostY) return;
-		
-		RegionCoordinates blockRegion = RegionCoordinates.fromLocation(blockLocation); 
+		if(block.getY() < PopulationDensity.instance.minimumRegionPostY) return;
 		
 		//if too close to (or above) region post, send an error message
-		if(!player.hasPermission("populationdensity.buildbreakanywhere") && this.nearRegionPost(blockLocation, blockRegion, PopulationDensity.instance.postProtectionRadius))
+		if(!player.hasPermission("populationdensity.buildbreakanywhere") && this.nearRegionPost(block, PopulationDensity.instance.postProtectionRadius))
 		{
 			if(PopulationDensity.instance.buildRegionPosts)
 				PopulationDensity.sendMessage(player, TextMode.Err, Messages.NoBuildPost);
@@ -182,7 +200,7 @@ public class BlockEventHandler implements Listener
 			PlayerData playerData = PopulationDensity.instance.dataStore.getPlayerData(player);
 			if(playerData.advertisedMoveInThisSession) return;
 			
-			if(!playerData.homeRegion.equals(blockRegion))
+			if(!playerData.homeRegion.containsBlock(block.getX(), block.getZ()))
 			{
 				PopulationDensity.sendMessage(player, TextMode.Warn, Messages.BuildingAwayFromHome);
 				playerData.advertisedMoveInThisSession = true;
@@ -202,7 +220,7 @@ public class BlockEventHandler implements Listener
         //if the player is not in managed world, do nothing
         if(!player.getWorld().equals(PopulationDensity.ManagedWorld)) return;
         
-        if(!this.nearRegionPost(block.getLocation(), RegionCoordinates.fromLocation(block.getLocation()), 1)) return;
+		if(!this.nearRegionPost(block, 1)) return;
         
         PopulationDensity.sendMessage(player, TextMode.Instr, Messages.HelpMessage1, ChatColor.UNDERLINE + "" + ChatColor.AQUA + "http://bit.ly/mcregions");
     }
@@ -214,13 +232,14 @@ public class BlockEventHandler implements Listener
         
         if(!pistonBlock.getWorld().equals(PopulationDensity.ManagedWorld)) return;
         
-        RegionCoordinates pistonRegion = RegionCoordinates.fromLocation(pistonBlock.getLocation());
-        if(this.nearRegionPost(pistonBlock.getLocation(), pistonRegion, PopulationDensity.instance.postProtectionRadius + 6))
+		int regionX = RegionCoordinates.fromBlock(pistonBlock.getX());
+		int regionZ = RegionCoordinates.fromBlock(pistonBlock.getZ());
+		if(this.nearRegionPost(pistonBlock.getX(), pistonBlock.getY(), pistonBlock.getZ(), regionX, regionZ, PopulationDensity.instance.postProtectionRadius + 6))
         {
             List<Block> blocks = event.getBlocks();
             for(Block block : blocks)
             {
-                if(this.nearRegionPost(block.getLocation(), pistonRegion, PopulationDensity.instance.postProtectionRadius + 1))
+				if(this.nearRegionPost(block.getX(), block.getY(), block.getZ(), regionX, regionZ, PopulationDensity.instance.postProtectionRadius + 1))
                 {
                     event.setCancelled(true);
                     return;
@@ -236,13 +255,14 @@ public class BlockEventHandler implements Listener
         
         if(!pistonBlock.getWorld().equals(PopulationDensity.ManagedWorld)) return;
         
-        RegionCoordinates pistonRegion = RegionCoordinates.fromLocation(pistonBlock.getLocation());
-        if(this.nearRegionPost(pistonBlock.getLocation(), pistonRegion, PopulationDensity.instance.postProtectionRadius + 2))
+		int regionX = RegionCoordinates.fromBlock(pistonBlock.getX());
+		int regionZ = RegionCoordinates.fromBlock(pistonBlock.getZ());
+		if(this.nearRegionPost(pistonBlock.getX(), pistonBlock.getY(), pistonBlock.getZ(), regionX, regionZ, PopulationDensity.instance.postProtectionRadius + 2))
         {
             List<Block> blocks = event.getBlocks();
             for(Block block : blocks)
             {
-                if(this.nearRegionPost(block.getLocation(), pistonRegion, PopulationDensity.instance.postProtectionRadius))
+				if(this.nearRegionPost(block.getX(), block.getY(), block.getZ(), regionX, regionZ, PopulationDensity.instance.postProtectionRadius))
                 {
                     event.setCancelled(true);
                     return;
@@ -251,10 +271,46 @@ public class BlockEventHandler implements Listener
         }
     }
 	
+	//pistons change the blocks they push or pull, and the blocks those end up in
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onBlockPistonExtendMonitor(BlockPistonExtendEvent event)
+	{
+		this.markPistonDirty(event.getBlock(), event.getBlocks(), event.getDirection());
+	}
+    
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onBlockPistonRetractMonitor(BlockPistonRetractEvent event)
+	{
+		this.markPistonDirty(event.getBlock(), event.getBlocks(), event.getDirection());
+	}
+    
+	private void markPistonDirty(Block pistonBlock, List<Block> blocks, BlockFace direction)
+	{
+		if(!pistonBlock.getWorld().equals(PopulationDensity.ManagedWorld)) return;
+        
+		ScanCache cache = PopulationDensity.instance.dataStore.getScanCache();
+		cache.markDirty(pistonBlock.getRelative(direction));
+		for(Block block : blocks)
+		{
+			cache.markDirty(block);
+			cache.markDirty(block.getRelative(direction));
+		}
+	}
+	
+	//determines whether or not a block is "near" the post of the region it's in
+	private boolean nearRegionPost(Block block, int howClose)
+	{
+		int x = block.getX();
+		int z = block.getZ();
+		return this.nearRegionPost(x, block.getY(), z, RegionCoordinates.fromBlock(x), RegionCoordinates.fromBlock(z), howClose);
+	}
+	
 	//determines whether or not you're "near" a region post
-	private boolean nearRegionPost(Location location, RegionCoordinates region, int howClose)
+	//works on plain block coordinates, because this runs for nearly every block change near the surface
+	private boolean nearRegionPost(int x, int y, int z, int regionX, int regionZ, int howClose)
 	{
-		Location postLocation = PopulationDensity.getRegionCenter(region, false);
+		int postX = RegionCoordinates.centerBlock(regionX);
+		int postZ = RegionCoordinates.centerBlock(regionZ);
 		
 		//NOTE!  Why not use distance?  Because I want a box to the sky, not a sphere.
 		//Why not round?  Below calculation is cheaper than distance (needed for a cylinder or sphere).
@@ -262,11 +318,11 @@ public class BlockEventHandler implements Listener
 		//Also...  lava from above would be bad.
 		//Why not below?  Because I can't imagine mining beneath a post as an avenue for griefing. 
 		
-		return (	location.getBlockX() >= postLocation.getBlockX() - howClose &&
-					location.getBlockX() <= postLocation.getBlockX() + howClose &&
-					location.getBlockZ() >= postLocation.getBlockZ() - howClose &&
-					location.getBlockZ() <= postLocation.getBlockZ() + howClose &&
-					location.getBlockY() >= PopulationDensity.ManagedWorld.getHighestBlockYAt(postLocation) - 4
+		return (	x >= postX - howClose &&
+					x <= postX + howClose &&
+					z >= postZ - howClose &&
+					z <= postZ + howClose &&
+					y >= PopulationDensity.ManagedWorld.getHighestBlockYAt(postX, postZ) - 4
 				);
 	}
 }
@@ -0,0 +1,164 @@
+package me.ryanhamshire.PopulationDensity;
+
+import java.util.HashMap;
+import java.util.UUID;
+
+import org.bukkit.Chunk;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Animals;
+import org.bukkit.entity.Boat;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.ExperienceOrb;
+import org.bukkit.entity.Item;
+import org.bukkit.entity.Monster;
+import org.bukkit.entity.Player;
+
+//how many entities of each category are in each loaded chunk, so spawn limits and entity thinning can look them up
+//instead of going through the entities themselves
+//kept up to date by EntityIndexEventHandler: chunks are counted when they load and forgotten when they unload,
+//and spawns, deaths, despawns, pickups, explosions and teleports adjust the counts in between
+//the server doesn't say when an entity walks into another chunk or quietly despawns, so counts can drift until the chunk is counted again,
+//which happens when it's reloaded and when entity thinning goes through it, and counts are only trusted for a little while after (see getFreshCount())
+//main thread only
+class ChunkEntityIndex
+{
+	static final int MONSTERS = 0;
+	static final int ANIMALS = 1;
+	static final int ITEMS = 2;
+	static final int EXPERIENCE_ORBS = 3;
+	static final int BOATS = 4;
+	static final int OTHER = 5;
+	static final int CATEGORIES = 6;
+
+	//each row has the counts, then when the chunk was last counted (seconds since the index was created)
+	private static final int COUNTED_AT = CATEGORIES;
+
+	//counts are trusted for this long after a chunk is counted, after which it's counted again before they're used
+	private static final int VERIFY_AFTER_SECONDS = 30;
+
+	//rows by RegionCoordinates.toKey(chunkX, chunkZ), by world
+	private final HashMap<UUID, LongHashMap<int []>> worlds = new HashMap<UUID, LongHashMap<int []>>();
+
+	private final long startMillis = System.currentTimeMillis();
+
+	//the category an entity is counted in, or -1 for players (which aren't counted)
+	static int categoryOf(Entity entity)
+	{
+		if(entity instanceof Monster) return MONSTERS;
+		if(entity instanceof Animals) return ANIMALS;
+		if(entity instanceof Item) return ITEMS;
+		if(entity instanceof ExperienceOrb) return EXPERIENCE_ORBS;
+		if(entity instanceof Boat) return BOATS;
+		if(entity instanceof Player) return -1;
+		return OTHER;
+	}
+
+	private int now()
+	{
+		return (int)((System.currentTimeMillis() - this.startMillis) / 1000);
+	}
+
+	private LongHashMap<int []> rows(World world)
+	{
+		LongHashMap<int []> rows = this.worlds.get(world.getUID());
+		if(rows == null)
+		{
+			rows = new LongHashMap<int []>();
+			this.worlds.put(world.getUID(), rows);
+		}
+
+		return rows;
+	}
+
+	private int [] row(Location location)
+	{
+		return this.rows(location.getWorld()).get(RegionCoordinates.toKey(location.getBlockX() >> 4, location.getBlockZ() >> 4));
+	}
+
+	private int [] row(Chunk chunk)
+	{
+		return this.rows(chunk.getWorld()).get(RegionCoordinates.toKey(chunk.getX(), chunk.getZ()));
+	}
+
+	//counts a chunk's entities from scratch
+	void recount(Chunk chunk)
+	{
+		this.recount(chunk, chunk.getEntities());
+	}
+
+	//counts a chunk's entities from scratch, given its entities (those which have been removed or killed aren't counted)
+	void recount(Chunk chunk, Entity [] entities)
+	{
+		int [] row = new int[CATEGORIES + 1];
+		for(Entity entity : entities)
+		{
+			if(!entity.isValid()) continue;
+			int category = categoryOf(entity);
+			if(category >= 0) row[category]++;
+		}
+		row[COUNTED_AT] = this.now();
+
+		this.rows(chunk.getWorld()).put(RegionCoordinates.toKey(chunk.getX(), chunk.getZ()), row);
+	}
+
+	void unloaded(Chunk chunk)
+	{
+		this.rows(chunk.getWorld()).remove(RegionCoordinates.toKey(chunk.getX(), chunk.getZ()));
+	}
+
+	void added(Entity entity, Location location)
+	{
+		int category = categoryOf(entity);
+		if(category < 0) return;
+
+		int [] row = this.row(location);
+		if(row != null) row[category]++;
+	}
+
+	void removed(Entity entity, Location location)
+	{
+		int category = categoryOf(entity);
+		if(category < 0) return;
+
+		int [] row = this.row(location);
+		if(row != null && row[category] > 0) row[category]--;
+	}
+
+	void moved(Entity entity, Location from, Location to)
+	{
+		if(from.getWorld() == to.getWorld() && from.getBlockX() >> 4 == to.getBlockX() >> 4 && from.getBlockZ() >> 4 == to.getBlockZ() >> 4) return;
+
+		this.removed(entity, from);
+		this.added(entity, to);
+	}
+
+	private boolean isFresh(int [] row)
+	{
+		return row != null && this.now() - row[COUNTED_AT] < VERIFY_AFTER_SECONDS;
+	}
+
+	//how many entities of a category are in the chunk containing a location (which must be loaded)
+	//the chunk is counted again first if it hasn't been counted recently, since entities wandering in aren't heard about,
+	//and a count which has drifted either way would let too much through or turn things away for no reason
+	int getFreshCount(Location location, int category)
+	{
+		int [] row = this.row(location);
+		if(this.isFresh(row)) return row[category];
+
+		Chunk chunk = location.getChunk();
+		this.recount(chunk);
+		return this.row(chunk)[category];
+	}
+
+	//whether entity thinning (see ThinEntitiesTask) could find anything to remove in a chunk
+	//monsters and animals can be removed one at a time, but items, orbs and boats only once there are more than so many of one kind
+	//counts which haven't been checked recently aren't trusted, and the chunk is gone through anyway
+	boolean mightNeedThinning(Chunk chunk)
+	{
+		int [] row = this.row(chunk);
+		if(!this.isFresh(row)) return true;
+
+		return row[MONSTERS] > 0 || row[ANIMALS] > 0 || row[ITEMS] > ThinEntitiesTask.MAX_ITEMS || row[EXPERIENCE_ORBS] > ThinEntitiesTask.MAX_EXPERIENCE_ORBS || row[BOATS] > ThinEntitiesTask.MAX_BOATS;
+	}
+}
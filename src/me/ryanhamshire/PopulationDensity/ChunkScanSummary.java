@@ -0,0 +1,629 @@
+package me.ryanhamshire.PopulationDensity;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.bukkit.ChunkSnapshot;
+
+//what a region scan needs to know about one chunk, so unchanged chunks don't have to be loaded and scanned again
+//within the chunk, the open (pass-through) blocks are split into connected components, and each counted block
+//is recorded against the components it touches.  the blocks on the chunk's four sides are kept (run-length encoded),
+//so merge() can connect components across chunk borders and find out which ones the flood fill actually reaches
+//merging summaries gives exactly the counts a full RegionScanner flood fill would
+class ChunkScanSummary
+{
+	private static final int CHUNK_SIZE = RegionScanner.CHUNK_SIZE;
+
+	//the chunk's sides
+	static final int WEST = 0;   //x == 0
+	static final int EAST = 1;   //x == 15
+	static final int NORTH = 2;  //z == 0
+	static final int SOUTH = 3;  //z == 15
+
+	//what each block is, while computing a summary (counted blocks are COUNTED + their category)
+	private static final byte OTHER = 0;
+	private static final byte OPEN = 1;
+	private static final byte COUNTED = 2;
+
+	//when the chunk was scanned
+	final long timestamp;
+
+	//number of connected components of open blocks, numbered from 1
+	final int componentCount;
+
+	//for each column (x * 16 + z), the component of its top block if that block is air, otherwise 0
+	private final int [] topComponents;
+
+	//(component, category, count) for counted blocks which aren't on a side and touch exactly one component
+	private final int [] componentCounts;
+
+	//all other counted blocks, one by one, as (category, number of components, components...)
+	private final int [] cells;
+	private final int [] cellOffsets;
+
+	//for each side, (value, length) runs over the side's blocks in (position along the side, y) order
+	//value > 0 is an open block's component, value < 0 is -(cell index + 1) for a counted block, 0 is anything else
+	private final int [][] sideRuns;
+
+	private ChunkScanSummary(long timestamp, int componentCount, int [] topComponents, int [] componentCounts, int [] cells, int [][] sideRuns)
+	{
+		this.timestamp = timestamp;
+		this.componentCount = componentCount;
+		this.topComponents = topComponents;
+		this.componentCounts = componentCounts;
+		this.cells = cells;
+		this.sideRuns = sideRuns;
+
+		//index the cells
+		int count = 0;
+		for(int i = 0; i < cells.length; i += 2 + cells[i + 1]) count++;
+		this.cellOffsets = new int[count];
+		int offset = 0;
+		for(int c = 0; c < count; c++)
+		{
+			this.cellOffsets[c] = offset;
+			offset += 2 + cells[offset + 1];
+		}
+	}
+
+	//work space for compute(), reused between chunks to avoid allocating it every time
+	static class Scratch
+	{
+		private final int height;
+		final short [] typeIDs;
+		private final byte [] kinds;
+		private final int [] labels;
+		private final IntQueue queue = new IntQueue(1 << 12);
+		private int [] singleCounts = new int[1024];
+		private final IntList cells = new IntList();
+		private final IntList runs = new IntList();
+
+		Scratch(int height)
+		{
+			this.height = height;
+			this.typeIDs = new short[CHUNK_SIZE * CHUNK_SIZE * height];
+			this.kinds = new byte[CHUNK_SIZE * CHUNK_SIZE * height];
+			this.labels = new int[CHUNK_SIZE * CHUNK_SIZE * height];
+		}
+	}
+
+	//growable list of ints, for building the summary arrays
+	private static class IntList
+	{
+		private int [] elements = new int[256];
+		private int size = 0;
+
+		void add(int value)
+		{
+			if(this.size == this.elements.length)
+			{
+				int [] newElements = new int[this.size * 2];
+				System.arraycopy(this.elements, 0, newElements, 0, this.size);
+				this.elements = newElements;
+			}
+			this.elements[this.size++] = value;
+		}
+
+		void clear()
+		{
+			this.size = 0;
+		}
+
+		int [] toArray()
+		{
+			int [] array = new int[this.size];
+			System.arraycopy(this.elements, 0, array, 0, this.size);
+			return array;
+		}
+	}
+
+	//scans one chunk snapshot
+	@SuppressWarnings("deprecation")
+	static ChunkScanSummary compute(ChunkSnapshot snapshot, int height, int minY, Scratch scratch)
+	{
+		if(scratch.height != height) throw new IllegalArgumentException("Scratch space is for a different world height.");
+		short [] typeIDs = scratch.typeIDs;
+
+		//empty sections are all air, so there's no need to ask the snapshot about each of their blocks
+		boolean [] emptySections = new boolean[height / RegionScanner.SECTION_HEIGHT];
+		for(int section = 0; section < emptySections.length; section++)
+		{
+			emptySections[section] = snapshot.isSectionEmpty(section);
+		}
+
+		for(int x = 0; x < CHUNK_SIZE; x++)
+		{
+			for(int z = 0; z < CHUNK_SIZE; z++)
+			{
+				int column = (x * CHUNK_SIZE + z) * height;
+				for(int y = 0; y < height; y++)
+				{
+					typeIDs[column + y] = emptySections[y / RegionScanner.SECTION_HEIGHT] ? 0 : (short)snapshot.getBlockTypeId(x, y, z);
+				}
+			}
+		}
+
+		return compute(scratch, height, minY);
+	}
+
+	//scans one chunk's block type IDs, already copied into scratch.typeIDs in (x * 16 + z) * height + y order
+	//(see AnvilRegionScanner, which reads them from region files instead of snapshots)
+	static ChunkScanSummary compute(Scratch scratch, int height, int minY)
+	{
+		if(scratch.height != height) throw new IllegalArgumentException("Scratch space is for a different world height.");
+		short [] typeIDs = scratch.typeIDs;
+		byte [] kinds = scratch.kinds;
+		int [] labels = scratch.labels;
+		int [] topComponents = new int[CHUNK_SIZE * CHUNK_SIZE];
+		boolean [] topIsAir = new boolean[CHUNK_SIZE * CHUNK_SIZE];
+
+		//sort out what each block is
+		for(int x = 0; x < CHUNK_SIZE; x++)
+		{
+			for(int z = 0; z < CHUNK_SIZE; z++)
+			{
+				int column = (x * CHUNK_SIZE + z) * height;
+				for(int y = 0; y < height; y++)
+				{
+					labels[column + y] = 0;
+					int typeID = typeIDs[column + y];
+					if(y == height - 1) topIsAir[x * CHUNK_SIZE + z] = typeID == 0;
+
+					byte kind = OTHER;
+					if(y >= minY)
+					{
+						int scanKind = RegionScanner.kindOf(typeID);
+						if(scanKind == RegionScanner.OPEN) kind = OPEN;
+						else if(scanKind != ScanResults.NOT_COUNTED) kind = (byte)(COUNTED + scanKind);
+					}
+					kinds[column + y] = kind;
+				}
+			}
+		}
+
+		//label the connected components of open blocks
+		int componentCount = 0;
+		IntQueue queue = scratch.queue;
+
+		//the all-open layers at the top (usually the sky) make one box-shaped component,
+		//so label them in one go and only spread from the layer under them
+		int boxBottom = height;
+		while(boxBottom > 0 && isOpenLayer(kinds, boxBottom - 1, height)) boxBottom--;
+		if(boxBottom < height)
+		{
+			componentCount = 1;
+			for(int column = 0; column < CHUNK_SIZE * CHUNK_SIZE; column++)
+			{
+				Arrays.fill(labels, column * height + boxBottom, column * height + height, 1);
+				if(boxBottom > 0) label(column * height + boxBottom - 1, 1, kinds, labels, queue);
+			}
+			spread(1, height, kinds, labels, queue);
+		}
+
+		for(int start = 0; start < kinds.length; start++)
+		{
+			if(kinds[start] != OPEN || labels[start] != 0) continue;
+
+			int component = ++componentCount;
+			labels[start] = component;
+			queue.add(start);
+			spread(component, height, kinds, labels, queue);
+		}
+
+		for(int column = 0; column < topComponents.length; column++)
+		{
+			if(topIsAir[column]) topComponents[column] = labels[column * height + height - 1];
+		}
+
+		//record each counted block against the components it touches
+		int [] singleCounts = scratch.singleCounts;
+		int singleCountsSize = (componentCount + 1) * ScanResults.CATEGORY_COUNT;
+		if(singleCounts.length < singleCountsSize)
+		{
+			singleCounts = scratch.singleCounts = new int[Integer.highestOneBit(singleCountsSize) << 1];
+		}
+		Arrays.fill(singleCounts, 0, singleCountsSize, 0);
+
+		IntList cells = scratch.cells;
+		cells.clear();
+		int cellCount = 0;
+		int [] touching = new int[6];
+		for(int index = 0; index < kinds.length; index++)
+		{
+			if(kinds[index] < COUNTED) continue;
+			int category = kinds[index] - COUNTED;
+
+			int y = index % height;
+			int column = index / height;
+			int x = column / CHUNK_SIZE;
+			int z = column % CHUNK_SIZE;
+
+			//find the distinct components around this block
+			int touchingCount = 0;
+			if(x + 1 < CHUNK_SIZE) touchingCount = addTouching(labels[index + CHUNK_SIZE * height], touching, touchingCount);
+			if(x > 0) touchingCount = addTouching(labels[index - CHUNK_SIZE * height], touching, touchingCount);
+			if(z + 1 < CHUNK_SIZE) touchingCount = addTouching(labels[index + height], touching, touchingCount);
+			if(z > 0) touchingCount = addTouching(labels[index - height], touching, touchingCount);
+			if(y + 1 < height) touchingCount = addTouching(labels[index + 1], touching, touchingCount);
+			if(y > 0) touchingCount = addTouching(labels[index - 1], touching, touchingCount);
+
+			boolean onSide = x == 0 || x == CHUNK_SIZE - 1 || z == 0 || z == CHUNK_SIZE - 1;
+			if(!onSide)
+			{
+				//blocks which don't touch any open blocks can never be counted
+				if(touchingCount == 0) continue;
+
+				//the usual case, just add it up
+				if(touchingCount == 1)
+				{
+					singleCounts[touching[0] * ScanResults.CATEGORY_COUNT + category]++;
+					continue;
+				}
+			}
+
+			//otherwise keep it individually
+			//blocks on a side may touch open blocks in the neighbouring chunk, so they're referenced from the side runs
+			cells.add(category);
+			cells.add(touchingCount);
+			for(int i = 0; i < touchingCount; i++) cells.add(touching[i]);
+			if(onSide) labels[index] = -(cellCount + 1);
+			cellCount++;
+		}
+
+		IntList counts = new IntList();
+		for(int component = 1; component <= componentCount; component++)
+		{
+			for(int category = 0; category < ScanResults.CATEGORY_COUNT; category++)
+			{
+				int count = singleCounts[component * ScanResults.CATEGORY_COUNT + category];
+				if(count == 0) continue;
+				counts.add(component);
+				counts.add(category);
+				counts.add(count);
+			}
+		}
+
+		//run-length encode the sides
+		int [][] sideRuns = new int[4][];
+		for(int side = 0; side < 4; side++)
+		{
+			IntList runs = scratch.runs;
+			runs.clear();
+			int runValue = 0;
+			int runLength = 0;
+			for(int position = 0; position < CHUNK_SIZE; position++)
+			{
+				for(int y = 0; y < height; y++)
+				{
+					int value = labels[sideIndex(side, position, y, height)];
+					if(runLength > 0 && value == runValue)
+					{
+						runLength++;
+					}
+					else
+					{
+						if(runLength > 0)
+						{
+							runs.add(runValue);
+							runs.add(runLength);
+						}
+						runValue = value;
+						runLength = 1;
+					}
+				}
+			}
+			runs.add(runValue);
+			runs.add(runLength);
+			sideRuns[side] = runs.toArray();
+		}
+
+		return new ChunkScanSummary(System.currentTimeMillis(), componentCount, topComponents, counts.toArray(), cells.toArray(), sideRuns);
+	}
+
+	//labels everything connected to the queued blocks
+	private static void spread(int component, int height, byte [] kinds, int [] labels, IntQueue queue)
+	{
+		while(!queue.isEmpty())
+		{
+			int index = queue.remove();
+			int y = index % height;
+			int column = index / height;
+			int x = column / CHUNK_SIZE;
+			int z = column % CHUNK_SIZE;
+
+			if(x + 1 < CHUNK_SIZE) label(index + CHUNK_SIZE * height, component, kinds, labels, queue);
+			if(x > 0) label(index - CHUNK_SIZE * height, component, kinds, labels, queue);
+			if(z + 1 < CHUNK_SIZE) label(index + height, component, kinds, labels, queue);
+			if(z > 0) label(index - height, component, kinds, labels, queue);
+			if(y + 1 < height) label(index + 1, component, kinds, labels, queue);
+			if(y > 0) label(index - 1, component, kinds, labels, queue);
+		}
+	}
+
+	private static boolean isOpenLayer(byte [] kinds, int y, int height)
+	{
+		for(int column = 0; column < CHUNK_SIZE * CHUNK_SIZE; column++)
+		{
+			if(kinds[column * height + y] != OPEN) return false;
+		}
+
+		return true;
+	}
+
+	private static void label(int index, int component, byte [] kinds, int [] labels, IntQueue queue)
+	{
+		if(kinds[index] != OPEN || labels[index] != 0) return;
+		labels[index] = component;
+		queue.add(index);
+	}
+
+	private static int addTouching(int label, int [] touching, int touchingCount)
+	{
+		if(label <= 0) return touchingCount;
+		for(int i = 0; i < touchingCount; i++)
+		{
+			if(touching[i] == label) return touchingCount;
+		}
+		touching[touchingCount] = label;
+		return touchingCount + 1;
+	}
+
+	//index of a block on one of the chunk's sides
+	private static int sideIndex(int side, int position, int y, int height)
+	{
+		int x, z;
+		if(side == WEST) { x = 0; z = position; }
+		else if(side == EAST) { x = CHUNK_SIZE - 1; z = position; }
+		else if(side == NORTH) { x = position; z = 0; }
+		else { x = position; z = CHUNK_SIZE - 1; }
+		return (x * CHUNK_SIZE + z) * height + y;
+	}
+
+	//expands one side's runs into one value per block
+	private void decodeSide(int side, int [] values)
+	{
+		int [] runs = this.sideRuns[side];
+		int position = 0;
+		for(int i = 0; i < runs.length; i += 2)
+		{
+			int value = runs[i];
+			int end = position + runs[i + 1];
+			while(position < end) values[position++] = value;
+		}
+	}
+
+	//counts for this chunk on its own, without knowing what the rest of the region's flood fill reaches (see RegionSample)
+	//lower only counts blocks touching open blocks connected to the chunk's own sky, which a region scan reaches whenever it reaches the sky
+	//upper also counts blocks touching open blocks connected to the chunk's sides, and counted blocks on the sides themselves
+	void addLocalCounts(ScanResults lower, ScanResults upper)
+	{
+		boolean [] skyReached = new boolean[this.componentCount + 1];
+		for(int column = 0; column < this.topComponents.length; column++)
+		{
+			skyReached[this.topComponents[column]] = true;
+		}
+		skyReached[0] = false;
+
+		boolean [] sideReached = skyReached.clone();
+		boolean [] onSide = new boolean[this.cellOffsets.length];
+		for(int side = 0; side < 4; side++)
+		{
+			int [] runs = this.sideRuns[side];
+			for(int i = 0; i < runs.length; i += 2)
+			{
+				if(runs[i] > 0) sideReached[runs[i]] = true;
+				else if(runs[i] < 0) onSide[-runs[i] - 1] = true;
+			}
+		}
+
+		for(int i = 0; i < this.componentCounts.length; i += 3)
+		{
+			if(skyReached[this.componentCounts[i]]) lower.add(this.componentCounts[i + 1], this.componentCounts[i + 2]);
+			if(sideReached[this.componentCounts[i]]) upper.add(this.componentCounts[i + 1], this.componentCounts[i + 2]);
+		}
+
+		for(int c = 0; c < this.cellOffsets.length; c++)
+		{
+			int offset = this.cellOffsets[c];
+			boolean lowerCounted = false;
+			boolean upperCounted = onSide[c];
+			for(int i = 0; i < this.cells[offset + 1]; i++)
+			{
+				lowerCounted |= skyReached[this.cells[offset + 2 + i]];
+				upperCounted |= sideReached[this.cells[offset + 2 + i]];
+			}
+			if(lowerCounted) lower.add(this.cells[offset], 1);
+			if(upperCounted) upper.add(this.cells[offset], 1);
+		}
+	}
+
+	//combines the summaries of a grid of chunks into the counts of a flood fill over the whole grid
+	//every entry in the grid must be filled in, and all of them must have been computed with the same height and minimum Y
+	static ScanResults merge(ChunkScanSummary [][] grid, int height)
+	{
+		int sizeX = grid.length;
+		int sizeZ = grid[0].length;
+
+		//number the components of all the chunks together
+		int [][] bases = new int[sizeX][sizeZ];
+		int total = 0;
+		for(int x = 0; x < sizeX; x++)
+		{
+			for(int z = 0; z < sizeZ; z++)
+			{
+				bases[x][z] = total;
+				total += grid[x][z].componentCount;
+			}
+		}
+
+		int [] parents = new int[total];
+		for(int i = 0; i < total; i++) parents[i] = i;
+
+		//connect components which meet across chunk borders
+		int [] here = new int[CHUNK_SIZE * height];
+		int [] there = new int[CHUNK_SIZE * height];
+		for(int x = 0; x < sizeX; x++)
+		{
+			for(int z = 0; z < sizeZ; z++)
+			{
+				if(x + 1 < sizeX) connect(grid[x][z], EAST, bases[x][z], grid[x + 1][z], WEST, bases[x + 1][z], parents, here, there);
+				if(z + 1 < sizeZ) connect(grid[x][z], SOUTH, bases[x][z], grid[x][z + 1], NORTH, bases[x][z + 1], parents, here, there);
+			}
+		}
+
+		//start where the flood fill starts, at the first air block on the top layer
+		int startNode = -1;
+		for(int blockX = 0; blockX < sizeX * CHUNK_SIZE && startNode < 0; blockX++)
+		{
+			for(int blockZ = 0; blockZ < sizeZ * CHUNK_SIZE && startNode < 0; blockZ++)
+			{
+				ChunkScanSummary summary = grid[blockX / CHUNK_SIZE][blockZ / CHUNK_SIZE];
+				int component = summary.topComponents[(blockX % CHUNK_SIZE) * CHUNK_SIZE + blockZ % CHUNK_SIZE];
+				if(component > 0) startNode = bases[blockX / CHUNK_SIZE][blockZ / CHUNK_SIZE] + component - 1;
+			}
+		}
+
+		ScanResults results = new ScanResults();
+		if(startNode < 0) return results;
+
+		//mark which components the flood fill reaches
+		int root = find(parents, startNode);
+		boolean [] reached = new boolean[total];
+		for(int i = 0; i < total; i++)
+		{
+			reached[i] = find(parents, i) == root;
+		}
+
+		//counted blocks on a side which touch a reached open block in the neighbouring chunk
+		boolean [][][] touchedAcrossBorder = new boolean[sizeX][sizeZ][];
+		for(int x = 0; x < sizeX; x++)
+		{
+			for(int z = 0; z < sizeZ; z++)
+			{
+				touchedAcrossBorder[x][z] = new boolean[grid[x][z].cellOffsets.length];
+			}
+		}
+		for(int x = 0; x < sizeX; x++)
+		{
+			for(int z = 0; z < sizeZ; z++)
+			{
+				if(x + 1 < sizeX) markAcrossBorder(grid[x][z], EAST, bases[x][z], touchedAcrossBorder[x][z], grid[x + 1][z], WEST, bases[x + 1][z], touchedAcrossBorder[x + 1][z], reached, here, there);
+				if(z + 1 < sizeZ) markAcrossBorder(grid[x][z], SOUTH, bases[x][z], touchedAcrossBorder[x][z], grid[x][z + 1], NORTH, bases[x][z + 1], touchedAcrossBorder[x][z + 1], reached, here, there);
+			}
+		}
+
+		//add up everything which touches a reached component
+		for(int x = 0; x < sizeX; x++)
+		{
+			for(int z = 0; z < sizeZ; z++)
+			{
+				ChunkScanSummary summary = grid[x][z];
+				int base = bases[x][z] - 1;
+
+				int [] counts = summary.componentCounts;
+				for(int i = 0; i < counts.length; i += 3)
+				{
+					if(reached[base + counts[i]]) results.add(counts[i + 1], counts[i + 2]);
+				}
+
+				int [] cells = summary.cells;
+				for(int c = 0; c < summary.cellOffsets.length; c++)
+				{
+					int offset = summary.cellOffsets[c];
+					boolean counted = touchedAcrossBorder[x][z][c];
+					for(int i = 0; i < cells[offset + 1] && !counted; i++)
+					{
+						counted = reached[base + cells[offset + 2 + i]];
+					}
+					if(counted) results.add(cells[offset], 1);
+				}
+			}
+		}
+
+		return results;
+	}
+
+	private static void connect(ChunkScanSummary a, int sideA, int baseA, ChunkScanSummary b, int sideB, int baseB, int [] parents, int [] valuesA, int [] valuesB)
+	{
+		a.decodeSide(sideA, valuesA);
+		b.decodeSide(sideB, valuesB);
+		for(int i = 0; i < valuesA.length; i++)
+		{
+			if(valuesA[i] > 0 && valuesB[i] > 0)
+			{
+				int rootA = find(parents, baseA + valuesA[i] - 1);
+				int rootB = find(parents, baseB + valuesB[i] - 1);
+				if(rootA != rootB) parents[rootA] = rootB;
+			}
+		}
+	}
+
+	private static void markAcrossBorder(ChunkScanSummary a, int sideA, int baseA, boolean [] touchedA, ChunkScanSummary b, int sideB, int baseB, boolean [] touchedB, boolean [] reached, int [] valuesA, int [] valuesB)
+	{
+		a.decodeSide(sideA, valuesA);
+		b.decodeSide(sideB, valuesB);
+		for(int i = 0; i < valuesA.length; i++)
+		{
+			if(valuesA[i] < 0 && valuesB[i] > 0 && reached[baseB + valuesB[i] - 1]) touchedA[-valuesA[i] - 1] = true;
+			if(valuesB[i] < 0 && valuesA[i] > 0 && reached[baseA + valuesA[i] - 1]) touchedB[-valuesB[i] - 1] = true;
+		}
+	}
+
+	//union-find root, halving the path along the way
+	private static int find(int [] parents, int node)
+	{
+		while(parents[node] != node)
+		{
+			parents[node] = parents[parents[node]];
+			node = parents[node];
+		}
+		return node;
+	}
+
+	void write(DataOutputStream outStream) throws IOException
+	{
+		outStream.writeLong(this.timestamp);
+		outStream.writeInt(this.componentCount);
+		writeInts(outStream, this.topComponents);
+		writeInts(outStream, this.componentCounts);
+		writeInts(outStream, this.cells);
+		for(int side = 0; side < 4; side++)
+		{
+			writeInts(outStream, this.sideRuns[side]);
+		}
+	}
+
+	static ChunkScanSummary read(DataInputStream inStream) throws IOException
+	{
+		long timestamp = inStream.readLong();
+		int componentCount = inStream.readInt();
+		int [] topComponents = readInts(inStream);
+		int [] componentCounts = readInts(inStream);
+		int [] cells = readInts(inStream);
+		int [][] sideRuns = new int[4][];
+		for(int side = 0; side < 4; side++)
+		{
+			sideRuns[side] = readInts(inStream);
+		}
+
+		if(topComponents.length != CHUNK_SIZE * CHUNK_SIZE) throw new IOException("Bad chunk scan summary.");
+		return new ChunkScanSummary(timestamp, componentCount, topComponents, componentCounts, cells, sideRuns);
+	}
+
+	private static void writeInts(DataOutputStream outStream, int [] values) throws IOException
+	{
+		outStream.writeInt(values.length);
+		for(int value : values) outStream.writeInt(value);
+	}
+
+	private static int [] readInts(DataInputStream inStream) throws IOException
+	{
+		int length = inStream.readInt();
+		if(length < 0 || length > 1 << 24) throw new IOException("Bad chunk scan summary.");
+		int [] values = new int[length];
+		for(int i = 0; i < length; i++) values[i] = inStream.readInt();
+		return values;
+	}
+}
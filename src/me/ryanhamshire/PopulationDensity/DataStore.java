@@ -42,14 +42,28 @@ import com.google.common.io.Files;
 public class DataStore implements TabCompleter
 {
 	//in-memory cache for player home region, because it's needed very frequently
-	private HashMap<String, PlayerData> playerNameToPlayerDataMap = new HashMap<String, PlayerData>();
+	//(filled from async pre-login threads as well as the main thread)
+	private ConcurrentHashMap<String, PlayerData> playerNameToPlayerDataMap = new ConcurrentHashMap<String, PlayerData>();
+	
+	//pre-login load statistics (guarded by this)
+	private long preLoginLoads = 0;
+	private long preLoginNewPlayers = 0;
+	private long preLoginLoadNanos = 0;
+	private long preLoginMaxLoadNanos = 0;
+	private long cacheMissLoads = 0;
 	
 	//path information, for where stuff stored on disk is well...  stored
 	private final static String dataLayerFolderPath = "plugins" + File.separator + "PopulationDensityData";
 	private final static String playerDataFolderPath = dataLayerFolderPath + File.separator + "PlayerData";
+	private final static String playerDataJournalFilePath = dataLayerFolderPath + File.separator + "PlayerData.journal";
+	private final static String playerDataMigratedFilePath = dataLayerFolderPath + File.separator + "PlayerData.migrated";
 	private final static String regionDataFolderPath = dataLayerFolderPath + File.separator + "RegionData";
+	private final static String regionIndexFilePath = dataLayerFolderPath + File.separator + "RegionIndex.dat";
+	private final static String scanCacheFolderPath = dataLayerFolderPath + File.separator + "ScanCache";
+	private final static String scanHistoryFilePath = dataLayerFolderPath + File.separator + "ScanHistory.dat";
 	public final static String configFilePath = dataLayerFolderPath + File.separator + "config.yml";
 	final static String messagesFilePath = dataLayerFolderPath + File.separator + "messages.yml";
+	final static String lagLogFilePath = dataLayerFolderPath + File.separator + "LagLevels.log";
 	
     //in-memory cache for messages
     private String [] messages;
@@ -60,27 +74,158 @@ public class DataStore implements TabCompleter
 	//coordinates of the next region which will be opened, if one needs to be opened
 	private RegionCoordinates nextRegionCoordinates;
 	
+	//spiral index of the next region (see RegionSpiral.at()), every region before it in the spiral is taken
+	//saved in the region index, so finding the next region doesn't mean walking the whole spiral
+	private long nextRegionIndex = 0;
+	
 	//region data cache
 	private ConcurrentHashMap<String, RegionCoordinates> nameToCoordsMap = new ConcurrentHashMap<String, RegionCoordinates>();
-	private ConcurrentHashMap<RegionCoordinates, String> coordsToNameMap = new ConcurrentHashMap<RegionCoordinates, String>();
+	
+	//keyed by RegionCoordinates.toKey(), so lookups don't allocate
+	//copy-on-write: never modified once published, so readers on any thread need no locking
+	private volatile LongHashMap<String> coordsToNameMap = new LongHashMap<String>();
+	private RegionIndexFile regionIndexFile = new RegionIndexFile(new File(regionIndexFilePath));
+	
+	//every region, for /RandomRegion
+	private RegionPicker regionPicker = new RegionPicker();
+	
+	//writes player data files in the background
+	private PlayerDataWriteQueue playerDataWriteQueue;
+	
+	//when journal storage is configured, all player data lives here instead of in per-player files
+	private PlayerDataJournal playerDataJournal;
+	
+	//per-chunk region scan results, so rescans only redo chunks which changed
+	private ScanCache scanCache;
+	
+	//every region scan's results
+	private ScanHistory scanHistory;
 	
 	//initialization!
 	public DataStore(List<String> regionNames)
 	{
 		//ensure data folders exist
-		new File(playerDataFolderPath).mkdirs();
-		new File(regionDataFolderPath).mkdirs();
+		new File(dataLayerFolderPath).mkdirs();
+		
+		if(PopulationDensity.instance.config_playerDataJournal)
+		{
+			this.openPlayerDataJournal();
+		}
+		
+		if(this.playerDataJournal == null)
+		{
+			new File(playerDataFolderPath).mkdirs();
+		}
 		
 		this.regionNamesList = regionNames.toArray(new String[]{});
 		
+		this.playerDataWriteQueue = new PlayerDataWriteQueue(this, PopulationDensity.instance.config_playerDataWriteQueueLimit, PopulationDensity.instance.config_playerDataWriteDelayMillis);
+		this.playerDataWriteQueue.start();
+		
 		this.loadMessages();
 		
+		this.scanCache = new ScanCache(new File(scanCacheFolderPath));
+		this.scanHistory = new ScanHistory(new File(scanHistoryFilePath));
+		
+		//without the dirty chunk list, there's no telling which regions changed since they were scanned
+		if(this.scanCache.wasCleared()) this.scanHistory.allRegionsChanged();
+		
+		this.loadRegions();
+		
+		LongHashMap<String> regions = this.coordsToNameMap;
+		for(int i = 0; i < regions.capacity(); i++)
+		{
+			if(regions.valueAt(i) == null) continue;
+			long key = regions.keyAt(i);
+			this.regionPicker.add(RegionCoordinates.of(RegionCoordinates.keyX(key), RegionCoordinates.keyZ(key)));
+		}
+		
+		//study region data and initialize both this.openRegionCoordinates and this.nextRegionCoordinates
+		this.findNextRegion();
+		
+		//if no regions were loaded, create the first one
+		if(nameToCoordsMap.keySet().size() == 0)
+		{
+			PopulationDensity.AddLogEntry("Please be patient while I search for a good new player starting point!");
+			PopulationDensity.AddLogEntry("This initial scan could take a while, especially for worlds where players have already been building.");
+			this.addRegion();			
+		}
+		
+		PopulationDensity.AddLogEntry("Open region: \"" + this.getRegionName(this.getOpenRegion()) + "\" at " + this.getOpenRegion().toString() + ".");		
+	}
+	
+	//loads region names and coordinates from the region index file
+	//or, the first time, from the old one-file-per-region folder (and then writes the index file)
+	private void loadRegions()
+	{
+		long start = System.currentTimeMillis();
+		
+		if(this.regionIndexFile.exists())
+		{
+			RegionIndexFile indexFile = this.regionIndexFile;
+			LongHashMap<String> regions;
+			try
+			{
+				regions = indexFile.load();
+			}
+			catch(IOException e)
+			{
+				//the old folder isn't updated once the index exists, so falling back to it would hand out regions which are already taken
+				//a save cut short between writing the temporary file and moving it into place leaves a complete copy behind, so try that instead
+				//the unreadable file is kept for investigation
+				PopulationDensity.AddLogEntry("Unable to read " + regionIndexFilePath + ": " + e.getMessage());
+				indexFile = new RegionIndexFile(new File(regionIndexFilePath + ".tmp"));
+				try
+				{
+					if(!indexFile.exists()) throw new IOException("there's no " + regionIndexFilePath + ".tmp to recover from.");
+					regions = indexFile.load();
+				}
+				catch(IOException tempException)
+				{
+					String message = "Unable to recover the region index, " + tempException.getMessage() + "  Restore " + regionIndexFilePath + " from a backup, " + 
+							"or delete it to rebuild it from " + regionDataFolderPath + " (which may be missing recently added regions).  PopulationDensity can't start without it.";
+					PopulationDensity.AddLogEntry(message);
+					throw new IllegalStateException(message);
+				}
+				
+				new File(regionIndexFilePath).renameTo(new File(regionIndexFilePath + ".bad"));
+				PopulationDensity.AddLogEntry("Recovered " + regions.size() + " regions from " + regionIndexFilePath + ".tmp.");
+			}
+			
+			this.growRegionCoordinatesCache(regions);
+			for(int i = 0; i < regions.capacity(); i++)
+			{
+				String regionName = regions.valueAt(i);
+				if(regionName == null) continue;
+				long key = regions.keyAt(i);
+				this.nameToCoordsMap.put(regionName.toLowerCase(), RegionCoordinates.of(RegionCoordinates.keyX(key), RegionCoordinates.keyZ(key)));
+			}
+			this.coordsToNameMap = regions;
+			
+			//an index file from an older version (or one which doesn't agree with its regions) gets the spiral walked once, and is saved again
+			//as is one recovered from the temporary file
+			long spiralIndex = indexFile.getSpiralIndex();
+			if(indexFile == this.regionIndexFile && this.isNextRegionIndex(spiralIndex))
+			{
+				this.nextRegionIndex = spiralIndex;
+			}
+			else
+			{
+				this.skipTakenRegions();
+				this.saveRegionIndex();
+			}
+			
+			PopulationDensity.AddLogEntry("Loaded " + this.coordsToNameMap.size() + " regions from " + regionIndexFilePath + " in " + (System.currentTimeMillis() - start) + "ms.");
+			return;
+		}
+		
 		//get a list of all the files in the region data folder
         //some of them are named after region names, others region coordinates
         File regionDataFolder = new File(regionDataFolderPath);
         File [] files = regionDataFolder.listFiles();           
         
-        for(int i = 0; i < files.length; i++)
+		LongHashMap<String> regions = new LongHashMap<String>();
+		for(int i = 0; files != null && i < files.length; i++)
         {               
             if(files[i].isFile())  //avoid any folders
             {
@@ -91,105 +236,102 @@ public class DataStore implements TabCompleter
                     RegionCoordinates regionCoordinates = new RegionCoordinates(files[i].getName());
                     String regionName = Files.readFirstLine(files[i], Charset.forName("UTF-8"));
                     this.nameToCoordsMap.put(regionName.toLowerCase(), regionCoordinates);
-                    this.coordsToNameMap.put(regionCoordinates, regionName);
+					regions.put(regionCoordinates.toKey(), regionName);
                 }
                 
                 //catch for files named after region names
                 catch(Exception e){ }                   
             }
         }
-		
-		//study region data and initialize both this.openRegionCoordinates and this.nextRegionCoordinates
-		this.findNextRegion();
-		
-		//if no regions were loaded, create the first one
-		if(nameToCoordsMap.keySet().size() == 0)
+        
+		this.coordsToNameMap = regions;
+		this.growRegionCoordinatesCache(regions);
+		this.skipTakenRegions();
+		this.saveRegionIndex();
+        
+		PopulationDensity.AddLogEntry("Loaded " + this.coordsToNameMap.size() + " regions from " + regionDataFolderPath + " in " + (System.currentTimeMillis() - start) + "ms, and saved them to " + regionIndexFilePath + ".");
+	}
+	
+	//makes sure every region has a shared RegionCoordinates instance, see RegionCoordinates.of()
+	private void growRegionCoordinatesCache(LongHashMap<String> regions)
+	{
+		int radius = 0;
+		for(int i = 0; i < regions.capacity(); i++)
 		{
-			PopulationDensity.AddLogEntry("Please be patient while I search for a good new player starting point!");
-			PopulationDensity.AddLogEntry("This initial scan could take a while, especially for worlds where players have already been building.");
-			this.addRegion();			
+			if(regions.valueAt(i) == null) continue;
+			long key = regions.keyAt(i);
+			radius = Math.max(radius, Math.max(Math.abs(RegionCoordinates.keyX(key)), Math.abs(RegionCoordinates.keyZ(key))));
 		}
-		
-		PopulationDensity.AddLogEntry("Open region: \"" + this.getRegionName(this.getOpenRegion()) + "\" at " + this.getOpenRegion().toString() + ".");		
+	    
+		RegionCoordinates.growCache(radius);
 	}
 	
-	//used in the spiraling code below (see findNextRegion())
-	private enum Direction { left, right, up, down }	
+	private void saveRegionIndex()
+	{
+		try
+		{
+			this.regionIndexFile.save(this.coordsToNameMap, this.nextRegionIndex);
+		}
+		catch(IOException e)
+		{
+			PopulationDensity.AddLogEntry("Unable to write " + regionIndexFilePath + ": " + e.getMessage());
+		}
+	}
 	
-	//starts at region 0,0 and spirals outward until it finds a region which hasn't been initialized
+	//finds the first region along the spiral out from region 0,0 which hasn't been initialized
 	//sets private variables for openRegion and nextRegion when it's done
-	//this may look like black magic, but seriously, it produces a tight spiral on a grid
-	//coding this made me reminisce about seemingly pointless computer science exercises in college
+	//see RegionSpiral for the black magic which produces a tight spiral on a grid
 	public int findNextRegion()
 	{
-		//spiral out from region coordinates 0, 0 until we find coordinates for an uninitialized region
-		int x = 0; int z = 0;
+		//picks up where the last search left off, since regions are never removed
+		this.skipTakenRegions();
 		
-		//keep count of the regions encountered
-		int regionCount = 0;
-
-		//initialization
-		Direction direction = Direction.down;   //direction to search
-		int sideLength = 1;  					//maximum number of regions to move in this direction before changing directions
-		int side = 0;        					//increments each time we change directions.  this tells us when to add length to each side
-		this.openRegionCoordinates = new RegionCoordinates(0, 0);
-		this.nextRegionCoordinates = new RegionCoordinates(0, 0);
-
-		//while the next region coordinates are taken, walk the spiral
-		while (this.getRegionName(this.nextRegionCoordinates) != null)
+		//the region before that one in the spiral will be the open region
+		this.openRegionCoordinates = this.nextRegionIndex == 0 ? RegionCoordinates.of(0, 0) : RegionSpiral.at(this.nextRegionIndex - 1);
+		this.nextRegionCoordinates = RegionSpiral.at(this.nextRegionIndex);
+		
+		//return total number of regions seen
+		return (int)this.nextRegionIndex;
+	}
+	
+	//moves nextRegionIndex past any taken regions
+	//usually that's just the region which was added last, but a region named with /NameRegion may be in the way too
+	private void skipTakenRegions()
+	{
+		while(this.getRegionName(RegionSpiral.at(this.nextRegionIndex)) != null)
 		{
-			//loop for one side of the spiral
-			for (int i = 0; i < sideLength && this.getRegionName(this.nextRegionCoordinates) != null; i++)
+			this.nextRegionIndex++;
+		}
+	}
+	
+	//whether a saved spiral index is where the spiral's first untaken region is, as far as can be told without walking the spiral
+	private boolean isNextRegionIndex(long index)
+	{
+		if(index < 0) return false;
+		if(this.getRegionName(RegionSpiral.at(index)) != null) return false;
+		return index == 0 || this.getRegionName(RegionSpiral.at(index - 1)) != null;
+	}
+	
+	//lists the regions which addRegion() will add next, in order (the first one is the next region)
+	public ArrayList<RegionCoordinates> getUpcomingRegions(int count)
+	{
+		ArrayList<RegionCoordinates> upcoming = new ArrayList<RegionCoordinates>(count);
+		for(long index = this.nextRegionIndex; upcoming.size() < count; index++)
+		{
+			RegionCoordinates region = RegionSpiral.at(index);
+			if(this.getRegionName(region) == null)
 			{
-				regionCount++;
-				
-				//converts a direction to a change in X or Z
-				if (direction == Direction.down) z++;
-				else if (direction == Direction.left) x--;
-				else if (direction == Direction.up) z--;
-				else x++;
-				
-				this.openRegionCoordinates = this.nextRegionCoordinates;
-				this.nextRegionCoordinates = new RegionCoordinates(x, z);
+				upcoming.add(region);
 			}
-		
-			//after finishing a side, change directions
-			if (direction == Direction.down) direction = Direction.left;
-			else if (direction == Direction.left) direction = Direction.up;
-			else if (direction == Direction.up) direction = Direction.right;
-			else direction = Direction.down;
-			
-			//keep count of the completed sides
-			side++;
-
-			//on even-numbered sides starting with side == 2, increase the length of each side
-			if (side % 2 == 0) sideLength++;
 		}
 		
-		//return total number of regions seen
-		return regionCount;
+		return upcoming;
 	}
 	
-	//picks a region at random (sort of)
+	//picks a region at random (sort of), see RegionPicker
 	public RegionCoordinates getRandomRegion(RegionCoordinates regionToAvoid)
 	{
-		if(this.coordsToNameMap.keySet().size() < 2) return null;
-		
-		//initialize random number generator with a seed based the current time
-		Random randomGenerator = new Random();
-		
-		ArrayList<RegionCoordinates> possibleDestinations = new ArrayList<RegionCoordinates>();
-		for(RegionCoordinates coords : this.coordsToNameMap.keySet())
-		{
-		    if(!coords.equals(regionToAvoid))
-		    {
-		        possibleDestinations.add(coords);
-		    }
-		}
-		
-		//pick one of those regions at random
-		int randomRegion = randomGenerator.nextInt(possibleDestinations.size());			
-		return possibleDestinations.get(randomRegion);			
+		return this.regionPicker.pick(regionToAvoid, PopulationDensity.instance.config_weightedRandomRegions);
 	}
 	
 	public void savePlayerData(OfflinePlayer player, PlayerData data)
@@ -197,11 +339,31 @@ public class DataStore implements TabCompleter
 		//save that data in memory
 		this.playerNameToPlayerDataMap.put(player.getUniqueId().toString(), data);
 		
+		//the file itself is written later by the background writer
+		this.playerDataWriteQueue.enqueue(player.getUniqueId().toString(), player.getName(), data);
+	}
+	
+	//called by the background writer (or on shutdown) to put one player's data on disk
+	void writePlayerDataFile(PlayerDataWriteQueue.PendingWrite data)
+	{
+		if(this.playerDataJournal != null)
+		{
+			try
+			{
+				this.playerDataJournal.write(data.playerID, data.homeRegion, data.lastDisconnect, data.loginPriority);
+			}
+			catch(Exception e)
+			{
+				PopulationDensity.AddLogEntry("PopulationDensity: Unexpected exception saving data for player \"" + data.playerName + "\": " + e.getMessage());
+			}
+			return;
+		}
+		
 		BufferedWriter outStream = null;
 		try
 		{
 			//open the player's file
-			File playerFile = new File(playerDataFolderPath + File.separator + player.getUniqueId().toString());
+			File playerFile = new File(playerDataFolderPath + File.separator + data.playerID);
 			playerFile.createNewFile();
 			outStream = new BufferedWriter(new FileWriter(playerFile));
 			
@@ -212,7 +374,7 @@ public class DataStore implements TabCompleter
 			//second line is last disconnection date,
 			//note use of the ROOT locale to avoid problems related to regional settings on the server being updated
 			DateFormat dateFormat = DateFormat.getDateTimeInstance(DateFormat.FULL, DateFormat.FULL, Locale.ROOT);			
-			outStream.write(dateFormat.format(data.lastDisconnect));
+			outStream.write(dateFormat.format(new Date(data.lastDisconnect)));
 			outStream.newLine();
 			
 			//third line is login priority
@@ -223,7 +385,7 @@ public class DataStore implements TabCompleter
 		//if any problem, log it
 		catch(Exception e)
 		{
-			PopulationDensity.AddLogEntry("PopulationDensity: Unexpected exception saving data for player \"" + player.getName() + "\": " + e.getMessage());
+			PopulationDensity.AddLogEntry("PopulationDensity: Unexpected exception saving data for player \"" + data.playerName + "\": " + e.getMessage());
 		}		
 		
 		try
@@ -234,6 +396,59 @@ public class DataStore implements TabCompleter
 		catch(IOException exception){}
 	}
 	
+	//called by the background writer after each batch of writes
+	void finishPlayerDataBatch()
+	{
+		if(this.playerDataJournal == null) return;
+		
+		try
+		{
+			this.playerDataJournal.flush();
+			this.playerDataJournal.compactIfNeeded();
+		}
+		catch(IOException e)
+		{
+			PopulationDensity.AddLogEntry("Unable to flush player data journal: " + e.getMessage());
+		}
+	}
+	
+	//writes any player data still waiting in the background queue, then stops the writer
+	void close()
+	{
+		this.playerDataWriteQueue.shutdown();
+		
+		if(this.playerDataJournal != null)
+		{
+			try
+			{
+				this.playerDataJournal.close();
+			}
+			catch(IOException e)
+			{
+				PopulationDensity.AddLogEntry("Unable to close player data journal: " + e.getMessage());
+			}
+		}
+
+		//dirty chunks are only kept where scans will happen soon: the open region and the next few along the spiral
+		ArrayList<RegionCoordinates> scannedSoon = this.getUpcomingRegions(Math.max(1, PopulationDensity.instance.config_preScanRegions));
+		if(this.getOpenRegion() != null) scannedSoon.add(this.getOpenRegion());
+		this.scanCache.forgetDirtyChunksOutside(scannedSoon, this.scanHistory);
+		this.scanCache.close();
+		
+		PopulationDensity.AddLogEntry(this.playerDataWriteQueue.getStatistics());
+		PopulationDensity.AddLogEntry(this.getPlayerDataStatistics());
+	}
+	
+	ScanCache getScanCache()
+	{
+		return this.scanCache;
+	}
+	
+	ScanHistory getScanHistory()
+	{
+		return this.scanHistory;
+	}
+	
 	public PlayerData getPlayerData(OfflinePlayer player)
 	{
 		//first, check the in-memory cache
@@ -241,34 +456,121 @@ public class DataStore implements TabCompleter
 
 		if(data != null) return data;
 		
+		//not preloaded, so this goes to disk (counted so admins can tell how often that happens)
+		synchronized(this)
+		{
+			this.cacheMissLoads++;
+		}
+		
+		data = this.loadPlayerData(player.getUniqueId().toString(), player.getName());
+		if(data != null) return data;
+
+		return new PlayerData();
+	}
+	
+	//called from the async pre-login event, so that by the time the player actually logs in,
+	//getPlayerData() is a memory lookup instead of a file read on the main thread
+	void preloadPlayerData(UUID playerID, String playerName)
+	{
+		if(this.playerNameToPlayerDataMap.containsKey(playerID.toString())) return;
+	    
+		long start = System.nanoTime();
+	    
+		PlayerData data = this.loadPlayerData(playerID.toString(), playerName);
+		boolean newPlayer = false;
+	    
+		//no data anywhere means a new player, so cache defaults to avoid looking again at login
+		if(data == null)
+		{
+			this.playerNameToPlayerDataMap.putIfAbsent(playerID.toString(), new PlayerData());
+			newPlayer = true;
+		}
+	    
+		long elapsed = System.nanoTime() - start;
+		synchronized(this)
+		{
+			this.preLoginLoads++;
+			if(newPlayer) this.preLoginNewPlayers++;
+			this.preLoginLoadNanos += elapsed;
+			if(elapsed > this.preLoginMaxLoadNanos) this.preLoginMaxLoadNanos = elapsed;
+		}
+	}
+	
+	//finds a player's data in the write queue or on disk and caches it, returns null if there isn't any
+	private PlayerData loadPlayerData(String playerID, String playerName)
+	{
+		//a save which hasn't been written yet is newer than whatever is in the file
+		PlayerDataWriteQueue.PendingWrite pendingWrite = this.playerDataWriteQueue.getPendingWrite(playerID);
+		if(pendingWrite != null)
+		{
+			PlayerData data = new PlayerData();
+			data.homeRegion = pendingWrite.homeRegion;
+			data.lastDisconnect = new Date(pendingWrite.lastDisconnect);
+			data.loginPriority = pendingWrite.loginPriority;
+			this.playerNameToPlayerDataMap.putIfAbsent(playerID, data);
+			return this.playerNameToPlayerDataMap.get(playerID);
+		}
+		
 		//if not there, try to load the player from file using UUID		
-		loadPlayerDataFromFile(player.getUniqueId().toString(), player.getUniqueId().toString());
+		loadPlayerDataFromFile(playerID, playerID);
 
 		//check again
-		data = this.playerNameToPlayerDataMap.get(player.getUniqueId().toString());
+		PlayerData data = this.playerNameToPlayerDataMap.get(playerID);
 		
 		if(data != null) return data;
 
 		//if still not there, try player name
-		loadPlayerDataFromFile(player.getName(), player.getUniqueId().toString());
+		if(playerName != null)
+		{
+			loadPlayerDataFromFile(playerName, playerID);
+		}
 		
 		//check again
-        data = this.playerNameToPlayerDataMap.get(player.getUniqueId().toString());
-        
-        if(data != null) return data;
-
-        return new PlayerData();
+		return this.playerNameToPlayerDataMap.get(playerID);
+	}
+	
+	synchronized String getPlayerDataStatistics()
+	{
+		double averageMillis = this.preLoginLoads == 0 ? 0 : this.preLoginLoadNanos / 1000000.0 / this.preLoginLoads;
+		return "Player data pre-login loads: " + this.preLoginLoads + " (" + this.preLoginNewPlayers + " new players), " +
+				String.format("%.2f", averageMillis) + "ms average, " +
+				String.format("%.2f", this.preLoginMaxLoadNanos / 1000000.0) + "ms max.  " +
+				"Loads outside pre-login: " + this.cacheMissLoads + ".";
 	}
 	
 	private void loadPlayerDataFromFile(String source, String dest)
 	{
+		//in journal mode, everything is in the journal (including migrated name-keyed data)
+		if(this.playerDataJournal != null)
+		{
+			try
+			{
+				PlayerData playerData = this.playerDataJournal.read(source);
+				if(playerData != null) this.playerNameToPlayerDataMap.putIfAbsent(dest, playerData);
+			}
+			catch(IOException e)
+			{
+				PopulationDensity.AddLogEntry("Unable to load data for player \"" + source + "\": " + e.getMessage());
+			}
+			return;
+		}
+		
 		//load player data into memory		
 		File playerFile = new File(playerDataFolderPath + File.separator + source);
+		PlayerData playerData = this.readPlayerDataFile(playerFile);
 		
+		//shove into memory for quick access (unless the main thread got there first)
+		if(playerData != null) this.playerNameToPlayerDataMap.putIfAbsent(dest, playerData);
+	}
+	
+	//parses one per-player data file, returns null if it doesn't exist or can't be read
+	private PlayerData readPlayerDataFile(File playerFile)
+	{
+		PlayerData playerData = null;
 		BufferedReader inStream = null;
 		try
 		{					
-			PlayerData playerData = new PlayerData();
+			playerData = new PlayerData();
 			inStream = new BufferedReader(new FileReader(playerFile.getAbsolutePath()));
 						
 			//first line is home region coordinates
@@ -313,28 +615,109 @@ public class DataStore implements TabCompleter
 					playerData.loginPriority = 0;
 				}			
 			}
-			  
-			//shove into memory for quick access
-			this.playerNameToPlayerDataMap.put(dest, playerData);
 		}
 		
 		//if the file isn't found, just don't do anything (probably a new-to-server player)
 		catch(FileNotFoundException e) 
 		{ 
-			return;
+			playerData = null;
 		}
 		
 		//if there's any problem with the file's content, log an error message and skip it		
 		catch(Exception e)
 		{
-			 PopulationDensity.AddLogEntry("Unable to load data for player \"" + source + "\": " + e.getMessage());			 
+			 PopulationDensity.AddLogEntry("Unable to load data for player \"" + playerFile.getName() + "\": " + e.getMessage());
+			 playerData = null;
 		}
 		
 		try
 		{
 			if(inStream != null) inStream.close();
 		}
-		catch(IOException exception){}		
+		catch(IOException exception){}
+		
+		return playerData;
+	}
+	
+	//opens the player data journal, first moving any per-player files into it
+	private void openPlayerDataJournal()
+	{
+		File journalFile = new File(playerDataJournalFilePath);
+		
+		try
+		{
+			this.playerDataJournal = new PlayerDataJournal(journalFile);
+		}
+		catch(IOException e)
+		{
+			PopulationDensity.AddLogEntry("Unable to open player data journal, falling back to per-player files: " + e.getMessage());
+			this.playerDataJournal = null;
+			return;
+		}
+		
+		//the per-player folder is renamed once its files are in the journal, so if it's still here, some of them may need moving
+		//(a migration was interrupted, the folder couldn't be renamed, or the journal was turned off for a while)
+		//the marker file's time says when files were last moved in successfully, and only files written since then are moved again,
+		//since the journal's later records win and an old file copied in again would roll the player's data back
+		File playerDataFolder = new File(playerDataFolderPath);
+		File [] files = playerDataFolder.listFiles();
+		if(files == null) return;
+		
+		File markerFile = new File(playerDataMigratedFilePath);
+		long migratedAt = markerFile.exists() ? markerFile.lastModified() : 0;
+		
+		//copy every per-player file (UUID-named and legacy name-named alike) into the journal
+		//under its file name, so lookups by UUID and by player name keep working exactly as before
+		PopulationDensity.AddLogEntry("Moving " + files.length + " player data files into " + journalFile.getName() + "...");
+		long start = System.currentTimeMillis();
+		int migrated = 0;
+		int skipped = 0;
+		for(File file : files)
+		{
+			if(!file.isFile()) continue;
+			
+			if(file.lastModified() <= migratedAt)
+			{
+				skipped++;
+				continue;
+			}
+			
+			PlayerData playerData = this.readPlayerDataFile(file);
+			if(playerData == null) continue;
+			
+			try
+			{
+				this.playerDataJournal.write(file.getName(), playerData.homeRegion, playerData.lastDisconnect.getTime(), playerData.loginPriority);
+				migrated++;
+			}
+			catch(IOException e)
+			{
+				PopulationDensity.AddLogEntry("Unable to migrate data for player \"" + file.getName() + "\": " + e.getMessage());
+			}
+		}
+		
+		try
+		{
+			this.playerDataJournal.flush();
+			
+			markerFile.createNewFile();
+			markerFile.setLastModified(System.currentTimeMillis());
+		}
+		catch(IOException e)
+		{
+			PopulationDensity.AddLogEntry("Unable to flush player data journal: " + e.getMessage());
+		}
+		
+		//keep the old files around (renamed) in case anything went wrong, admins can delete them later
+		File migratedFolder = new File(playerDataFolderPath + ".migrated");
+		if(migratedFolder.exists()) migratedFolder = new File(playerDataFolderPath + ".migrated." + System.currentTimeMillis());
+		if(!playerDataFolder.renameTo(migratedFolder))
+		{
+			PopulationDensity.AddLogEntry("Unable to rename " + playerDataFolder.getPath() + " to " + migratedFolder.getPath() + ".  Only files changed after now will be moved into the journal at later startups.");
+			return;
+		}
+		
+		PopulationDensity.AddLogEntry("Migrated " + migrated + " player data files (skipped " + skipped + " already in the journal) in " + (System.currentTimeMillis() - start) + "ms.  The old files are in " + migratedFolder.getPath() + ".");
 	}
 	
 	//adds a new region, assigning it a name and updating local variables accordingly
@@ -347,7 +730,7 @@ public class DataStore implements TabCompleter
 		//strategy: use names from the list in rotation, appending a number when a name is already used
 		//(redstone, mountain, valley, redstone1, mountain1, valley1, ...)
 		
-		int newRegionNumber = this.coordsToNameMap.keySet().size() - 1;
+		int newRegionNumber = this.coordsToNameMap.size() - 1;
 		
 		//as long as the generated name is already in use, move up one name on the list
 		do
@@ -371,46 +754,24 @@ public class DataStore implements TabCompleter
 	//names a region, never throws an exception for name content
 	private void privateNameRegion(RegionCoordinates coords, String name)
 	{
-	    //delete any existing data for the region at these coordinates
+		//forget any existing name for the region at these coordinates
         String oldRegionName = this.getRegionName(coords);
         if(oldRegionName != null)
         {
-            File oldRegionCoordinatesFile = new File(regionDataFolderPath + File.separator + coords.toString());
-            oldRegionCoordinatesFile.delete();
-            
-            File oldRegionNameFile = new File(regionDataFolderPath + File.separator + oldRegionName);
-            oldRegionNameFile.delete();
-            this.coordsToNameMap.remove(coords);
             this.nameToCoordsMap.remove(oldRegionName.toLowerCase());
         }
 
-        //"create" the region by saving necessary data to disk
-        BufferedWriter outStream = null;
-        try
-        {
-            //coordinates file contains the region's name
-            File regionCoordinatesFile = new File(regionDataFolderPath + File.separator + coords.toString());
-            regionCoordinatesFile.createNewFile();
-            outStream = new BufferedWriter(new FileWriter(regionCoordinatesFile));
-            outStream.write(name);
-            outStream.close();
-            
-            //cache in memory
-            this.coordsToNameMap.put(coords, name);
-            this.nameToCoordsMap.put(name.toLowerCase(), coords);
-        }
-        
-        //in case of any problem, log the details
-        catch(Exception e)
-        {
-            PopulationDensity.AddLogEntry("Unexpected Exception: " + e.getMessage());
-        }
+		//cache in memory (publishing a new copy of the map, see coordsToNameMap)
+		LongHashMap<String> regions = this.coordsToNameMap.copy();
+		regions.put(coords.toKey(), name);
+		this.coordsToNameMap = regions;
+		RegionCoordinates.growCache(Math.max(Math.abs(coords.x), Math.abs(coords.z)));
+		this.nameToCoordsMap.put(name.toLowerCase(), coords);
+		this.regionPicker.add(coords);
+		this.skipTakenRegions();
         
-        try
-        {
-            if(outStream != null) outStream.close();        
-        }
-        catch(IOException exception){}
+		//"create" the region by saving it to the region index
+		this.saveRegionIndex();
     }
 
     //names or renames a specified region
@@ -435,7 +796,13 @@ public class DataStore implements TabCompleter
 	//goes to disk to get the name of a region, given its coordinates
 	public String getRegionName(RegionCoordinates coordinates)
 	{
-		return this.coordsToNameMap.get(coordinates);
+		return this.coordsToNameMap.get(coordinates.toKey());
+	}
+	
+	//same as above, without needing a RegionCoordinates object
+	public String getRegionName(int regionX, int regionZ)
+	{
+		return this.coordsToNameMap.get(RegionCoordinates.toKey(regionX, regionZ));
 	}
 	
 	//similar to above, goes to disk to get the coordinates that go with a region name
@@ -570,7 +937,7 @@ public class DataStore implements TabCompleter
 		sign.update();
 		
 		//add a sign for the region to the south
-		regionName = this.getRegionName(new RegionCoordinates(region.x + 1, region.z));
+		regionName = this.getRegionName(region.x + 1, region.z);
 		if(regionName == null) regionName = "Wilderness";
 		regionName = PopulationDensity.capitalize(regionName);
 		
@@ -606,7 +973,7 @@ public class DataStore implements TabCompleter
 		}
 		
 		//add a sign for the region to the east
-		regionName = this.getRegionName(new RegionCoordinates(region.x, region.z - 1));
+		regionName = this.getRegionName(region.x, region.z - 1);
 		if(regionName == null) regionName = "Wilderness";
 		regionName = PopulationDensity.capitalize(regionName);
 		
@@ -647,7 +1014,7 @@ public class DataStore implements TabCompleter
 		}
 		
 		//add a sign for the region to the south
-		regionName = this.getRegionName(new RegionCoordinates(region.x, region.z + 1));
+		regionName = this.getRegionName(region.x, region.z + 1);
 		if(regionName == null) regionName = "Wilderness";
 		regionName = PopulationDensity.capitalize(regionName);
 		
@@ -687,7 +1054,7 @@ public class DataStore implements TabCompleter
 		}
 		
 		//add a sign for the region to the north
-		regionName = this.getRegionName(new RegionCoordinates(region.x - 1, region.z));
+		regionName = this.getRegionName(region.x - 1, region.z);
 		if(regionName == null) regionName = "Wilderness";
 		regionName = PopulationDensity.capitalize(regionName);
 		
@@ -822,7 +1189,16 @@ public class DataStore implements TabCompleter
 	
 	public void clearCachedPlayerData(Player player)
 	{
-		this.playerNameToPlayerDataMap.remove(player.getName());		
+		this.playerNameToPlayerDataMap.remove(player.getUniqueId().toString());
+	}
+	
+	//drops data preloaded at pre-login for a player whose login was then refused,
+	//unless that player is already online under the same account
+	void evictPreloadedPlayerData(Player player)
+	{
+		if(PopulationDensity.instance.getServer().getPlayer(player.getUniqueId()) != null) return;
+		
+		this.playerNameToPlayerDataMap.remove(player.getUniqueId().toString());
 	}
 	
 	private void loadMessages() 
@@ -867,13 +1243,26 @@ public class DataStore implements TabCompleter
         this.addDefault(defaults, Messages.LoginPriorityCheck, "{0}'s login priority: {1}.", "0: player name, 1: current priority");
         this.addDefault(defaults, Messages.LoginPriorityUpdate, "Set {0}'s priority to {1}.", "0: target player, 1: new priority");
         this.addDefault(defaults, Messages.ThinningConfirmation, "Thinning running.  Check logs for detailed results.", null);
+		this.addDefault(defaults, Messages.ThinningProgress, "Thinning is {0}% done: {1} of {2} chunks checked, {3} entities removed so far.", "0: percent done, 1: chunks checked, 2: total chunks, 3: entities removed");
         this.addDefault(defaults, Messages.PerformanceScore, "Current server performance score is {0}%.", "0: performance score");
         this.addDefault(defaults, Messages.PerformanceScore_Lag, "  The server is actively working to reduce lag - please be patient while automatic lag reduction takes effect.", null);
         this.addDefault(defaults, Messages.PerformanceScore_NoLag, "The server is running at normal speed.  If you're experiencing lag, check your graphics settings and internet connection.  ", null);
+		this.addDefault(defaults, Messages.PerformanceDetails, "Ticks per second over 10s, 1m, 5m, 15m: {0}, {1}, {2}, {3}.  Milliseconds per tick over 1m: median {4}, 95th percentile {5}, 99th percentile {6}, max {7}.", "0-3: ticks per second over 10 seconds, 1 minute, 5 minutes and 15 minutes, 4-7: milliseconds per tick (median, 95th percentile, 99th percentile, max)");
         this.addDefault(defaults, Messages.PlayerMoved, "Player moved.", null);
         this.addDefault(defaults, Messages.Lag, "lag", null);
         this.addDefault(defaults, Messages.RegionAlreadyNamed, "This region already has a name.  To REname, use /RenameRegion.", null);
         this.addDefault(defaults, Messages.HopperLimitReached, "To prevent server lag, hoppers are limited to {0} per chunk.", "0: maximum hoppers per chunk");
+		this.addDefault(defaults, Messages.ScanAlreadyQueued, "This region is already being scanned.  Use /ScanStatus to check on it.", null);
+		this.addDefault(defaults, Messages.NoScans, "No region scans are running or waiting.", null);
+		this.addDefault(defaults, Messages.ScanStatus, "{0} of region {1}: {2}, {3}% of chunks processed.", "0: kind of scan, 1: region, 2: what the scan is doing, 3: percent done");
+		this.addDefault(defaults, Messages.ScansCancelled, "Cancelled {0} region scan(s).", "0: number of scans cancelled");
+		this.addDefault(defaults, Messages.ScanResultsFromHistory, "Nothing has changed here since this region was scanned {0} ago: resource score {1}, wood {2}, player blocks {3}.  Use /ScanRegion full to scan it again anyway.", "0: how long ago, 1: resource score, 2: wood, 3: player blocks");
+		this.addDefault(defaults, Messages.NoScanHistory, "Region {0} hasn't been scanned yet.", "0: region");
+		this.addDefault(defaults, Messages.ScanHistoryHeader, "Region {0} has been scanned {1} time(s) recently:", "0: region, 1: number of scans remembered");
+		this.addDefault(defaults, Messages.ScanHistoryEntry, "{0} ago: resource score {1}, wood {2}, player blocks {3} ({4}s).", "0: how long ago, 1: resource score, 2: wood, 3: player blocks, 4: how long the scan took");
+		this.addDefault(defaults, Messages.RegionRankingHeader, "Regions by resource score, as of their latest scans:", null);
+		this.addDefault(defaults, Messages.RegionRankingEntry, "{0}. {1}: resource score {2}, wood {3}, player blocks {4} (scanned {5} ago).", "0: rank, 1: region, 2: resource score, 3: wood, 4: player blocks, 5: how long ago");
+		this.addDefault(defaults, Messages.NoRegionsScanned, "No regions have been scanned yet.", null);
         
         //load the config file
         FileConfiguration config = YamlConfiguration.loadConfiguration(new File(messagesFilePath));
@@ -969,8 +1358,12 @@ public class DataStore implements TabCompleter
         
         String arg = builder.toString().trim();
         ArrayList<String> matches = new ArrayList<String>();
-        for (String name : this.coordsToNameMap.values())
+		LongHashMap<String> regions = this.coordsToNameMap;
+		for (int i = 0; i < regions.capacity(); i++)
         {
+			String name = regions.valueAt(i);
+			if (name == null) continue;
+
             if (StringUtil.startsWithIgnoreCase(name, arg))
             {
                 matches.add(name);
@@ -21,7 +21,6 @@ package me.ryanhamshire.PopulationDensity;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.List;
 
 import org.bukkit.Location;
 import org.bukkit.Material;
@@ -83,6 +82,17 @@ public class EntityEventHandler implements Listener
 	    }
 	}
     
+	//reused by inOpenRegion() to read entity locations without allocating (events only fire on the main thread)
+	private final Location scratchLocation = new Location(null, 0, 0, 0);
+    
+	//whether an entity is in the newest region
+	private boolean inOpenRegion(Entity entity)
+	{
+		Location location = entity.getLocation(this.scratchLocation);
+		if(location.getWorld() != PopulationDensity.ManagedWorld) return false;
+		return PopulationDensity.instance.dataStore.getOpenRegion().containsBlock(location.getBlockX(), location.getBlockZ());
+	}
+    
     //when an entity (includes both dynamite and creepers) explodes...
 	@EventHandler(ignoreCancelled = true)
 	public void onEntityExplode(EntityExplodeEvent explodeEvent)
@@ -90,13 +100,15 @@ public class EntityEventHandler implements Listener
 		Location location = explodeEvent.getLocation();
 		
 		//if it's NOT in the managed world, let it splode (or let other plugins worry about it)
-		RegionCoordinates region = RegionCoordinates.fromLocation(location);
-		if(region == null) return;
+		if(!location.getWorld().equals(PopulationDensity.ManagedWorld)) return;
 		
 		//otherwise if it's close to a region post
-		Location regionCenter = PopulationDensity.getRegionCenter(region, false);
-		regionCenter.setY(PopulationDensity.ManagedWorld.getHighestBlockYAt(regionCenter));		
-		if(regionCenter.distanceSquared(location) < 225)  //225 = 15 * 15
+		int postX = RegionCoordinates.centerBlock(RegionCoordinates.fromBlock(location.getBlockX()));
+		int postZ = RegionCoordinates.centerBlock(RegionCoordinates.fromBlock(location.getBlockZ()));
+		double dx = location.getX() - postX;
+		double dy = location.getY() - PopulationDensity.ManagedWorld.getHighestBlockYAt(postX, postZ);
+		double dz = location.getZ() - postZ;
+		if(dx * dx + dy * dy + dz * dz < 225)  //225 = 15 * 15
 		{			
 			explodeEvent.blockList().clear(); //All the noise and terror, none of the destruction (whew!).
 		}
@@ -104,6 +116,19 @@ public class EntityEventHandler implements Listener
 		//NOTE!  Why not distance?  Because distance squared is cheaper and will be good enough for this.
 	}
 	
+	//blocks destroyed by an explosion need to be rescanned
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onEntityExplodeMonitor(EntityExplodeEvent explodeEvent)
+	{
+		if(!explodeEvent.getLocation().getWorld().equals(PopulationDensity.ManagedWorld)) return;
+		
+		ScanCache cache = PopulationDensity.instance.dataStore.getScanCache();
+		for(Block block : explodeEvent.blockList())
+		{
+			cache.markDirty(block);
+		}
+	}
+	
 	//when an item despawns
 	//FEATURE: in the newest region only, regrow trees from fallen saplings
 	@SuppressWarnings("deprecation")
@@ -126,7 +151,7 @@ public class EntityEventHandler implements Listener
 		if(item.getType() != Material.SAPLING) return;
 		
 		//only care about the newest region
-		if(!PopulationDensity.instance.dataStore.getOpenRegion().equals(RegionCoordinates.fromLocation(entity.getLocation()))) return;
+		if(!this.inOpenRegion(entity)) return;
 		
 		//only replace these blocks with saplings
 		Block block = entity.getLocation().getBlock();
@@ -241,18 +266,13 @@ public class EntityEventHandler implements Listener
 		}
 	    
 	    //speed limit on monster grinder spawn rates - only affects grinders that rely on naturally-spawning monsters.
+		//counts the monsters in the spawn's chunk (see ChunkEntityIndex), instead of searching for monsters nearby
 	    if(reason != SpawnReason.SPAWNER_EGG && reason != SpawnReason.SPAWNER && entity instanceof Monster)
 	    {
-	        int monstersNearby = 0;
-	        List<Entity> entities = entity.getNearbyEntities(10,  20,  10);
-	        for(Entity nearbyEntity : entities)
+			if(PopulationDensity.instance.entityIndex.getFreshCount(event.getLocation(), ChunkEntityIndex.MONSTERS) > PopulationDensity.instance.nearbyMonsterSpawnLimit)
 	        {
-	            if(nearbyEntity instanceof Monster) monstersNearby++;
-	            if(monstersNearby > PopulationDensity.instance.nearbyMonsterSpawnLimit)
-	            {
-	                event.setCancelled(true);
-	                return;
-	            }
+				event.setCancelled(true);
+				return;
 	        }
 	    }
 	    
@@ -271,7 +291,7 @@ public class EntityEventHandler implements Listener
     		if(entity instanceof Monster && PopulationDensity.instance.respawnAnimals)
     		{
     			//only do this if the spawn is in the newest region
-    			if(!PopulationDensity.instance.dataStore.getOpenRegion().equals(RegionCoordinates.fromLocation(entity.getLocation()))) return;				
+				if(!this.inOpenRegion(entity)) return;				
     			
     			//if it's on grass, there's a 1/100 chance it will also spawn a group of animals
     			Block underBlock = event.getLocation().getBlock().getRelative(BlockFace.DOWN);
@@ -279,12 +299,8 @@ public class EntityEventHandler implements Listener
     			{
     				this.respawnAnimalCounter = 5;
     				
-    				//check for other nearby animals
-    				List<Entity> entities = entity.getNearbyEntities(30, 30, 30);
-    				for(int i = 0; i < entities.size(); i++)
-    				{
-    					if(entity instanceof Animals) return;
-    				}
+					//check for other animals in the chunk
+					if(PopulationDensity.instance.entityIndex.getFreshCount(event.getLocation(), ChunkEntityIndex.ANIMALS) > 0) return;
     				
     				EntityType animalType = null;
     				
@@ -0,0 +1,117 @@
+package me.ryanhamshire.PopulationDensity;
+
+import org.bukkit.Location;
+import org.bukkit.entity.Creeper;
+import org.bukkit.entity.EnderCrystal;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.Fireball;
+import org.bukkit.entity.TNTPrimed;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.entity.EntityDeathEvent;
+import org.bukkit.event.entity.EntityExplodeEvent;
+import org.bukkit.event.entity.EntityPortalEvent;
+import org.bukkit.event.entity.EntitySpawnEvent;
+import org.bukkit.event.entity.EntityTeleportEvent;
+import org.bukkit.event.entity.ItemDespawnEvent;
+import org.bukkit.event.entity.ItemMergeEvent;
+import org.bukkit.event.player.PlayerPickupItemEvent;
+import org.bukkit.event.vehicle.VehicleDestroyEvent;
+import org.bukkit.event.world.ChunkLoadEvent;
+import org.bukkit.event.world.ChunkUnloadEvent;
+
+//keeps the ChunkEntityIndex up to date
+//everything runs at monitor priority, after any other plugin has had its chance to cancel the event
+public class EntityIndexEventHandler implements Listener
+{
+	private final ChunkEntityIndex index;
+
+	EntityIndexEventHandler(ChunkEntityIndex index)
+	{
+		this.index = index;
+	}
+
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onChunkLoad(ChunkLoadEvent event)
+	{
+		this.index.recount(event.getChunk());
+	}
+
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onChunkUnload(ChunkUnloadEvent event)
+	{
+		this.index.unloaded(event.getChunk());
+	}
+
+	//also covers creature, item and spawner spawns, which are kinds of entity spawn
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onEntitySpawn(EntitySpawnEvent event)
+	{
+		this.index.added(event.getEntity(), event.getLocation());
+	}
+
+	@EventHandler(priority = EventPriority.MONITOR)
+	public void onEntityDeath(EntityDeathEvent event)
+	{
+		Entity entity = event.getEntity();
+		this.index.removed(entity, entity.getLocation());
+	}
+
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onItemDespawn(ItemDespawnEvent event)
+	{
+		this.index.removed(event.getEntity(), event.getLocation());
+	}
+
+	//the merged item goes away, and the target item stays
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onItemMerge(ItemMergeEvent event)
+	{
+		Entity entity = event.getEntity();
+		this.index.removed(entity, entity.getLocation());
+	}
+
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onPlayerPickupItem(PlayerPickupItemEvent event)
+	{
+		if(event.getRemaining() > 0) return;
+
+		Entity entity = event.getItem();
+		this.index.removed(entity, entity.getLocation());
+	}
+
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onVehicleDestroy(VehicleDestroyEvent event)
+	{
+		Entity entity = event.getVehicle();
+		this.index.removed(entity, entity.getLocation());
+	}
+
+	//only entities which blow themselves up go away (a dragon or wither causes explosions and carries on)
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onEntityExplode(EntityExplodeEvent event)
+	{
+		Entity entity = event.getEntity();
+		if(entity instanceof Creeper || entity instanceof TNTPrimed || entity instanceof Fireball || entity instanceof EnderCrystal)
+		{
+			this.index.removed(entity, event.getLocation());
+		}
+	}
+
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onEntityTeleport(EntityTeleportEvent event)
+	{
+		Location to = event.getTo();
+		if(to == null) return;
+
+		this.index.moved(event.getEntity(), event.getFrom(), to);
+	}
+
+	//an entity going through a portal leaves this chunk, and is counted wherever it ends up as a new spawn (or when that chunk is counted again)
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onEntityPortal(EntityPortalEvent event)
+	{
+		this.index.removed(event.getEntity(), event.getFrom());
+	}
+}
@@ -0,0 +1,20 @@
+package me.ryanhamshire.PopulationDensity;
+
+//scans a whole region after a sampled scan couldn't tell whether it's still suitable (see RegionSample)
+class FullScanTask implements Runnable
+{
+	private final RegionCoordinates region;
+	private final boolean openNewRegions;
+
+	FullScanTask(RegionCoordinates region, boolean openNewRegions)
+	{
+		this.region = region;
+		this.openNewRegions = openNewRegions;
+	}
+
+	@Override
+	public void run()
+	{
+		PopulationDensity.instance.scanRegion(this.region, this.openNewRegions);
+	}
+}
@@ -0,0 +1,63 @@
+package me.ryanhamshire.PopulationDensity;
+
+//first-in-first-out queue of primitive ints in a ring buffer, which doubles in size only when it fills up
+//used by the region scanners to hold packed block positions without allocating an object per block
+class IntQueue
+{
+	private int [] elements;
+	private int head = 0;
+	private int size = 0;
+
+	//capacity is rounded up to a power of two
+	IntQueue(int capacity)
+	{
+		this.elements = new int[Integer.highestOneBit(Math.max(2, capacity - 1) << 1)];
+	}
+
+	void add(int value)
+	{
+		if(this.size == this.elements.length) this.grow();
+		this.elements[(this.head + this.size) & (this.elements.length - 1)] = value;
+		this.size++;
+	}
+
+	int remove()
+	{
+		int value = this.elements[this.head];
+		this.head = (this.head + 1) & (this.elements.length - 1);
+		this.size--;
+		return value;
+	}
+
+	//the value remove() would return next, without removing it
+	int peek()
+	{
+		return this.elements[this.head];
+	}
+
+	boolean isEmpty()
+	{
+		return this.size == 0;
+	}
+
+	int size()
+	{
+		return this.size;
+	}
+
+	int capacity()
+	{
+		return this.elements.length;
+	}
+
+	private void grow()
+	{
+		int [] newElements = new int[this.elements.length * 2];
+		for(int i = 0; i < this.size; i++)
+		{
+			newElements[i] = this.elements[(this.head + i) & (this.elements.length - 1)];
+		}
+		this.elements = newElements;
+		this.head = 0;
+	}
+}
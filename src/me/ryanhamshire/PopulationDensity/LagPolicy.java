@@ -0,0 +1,232 @@
+package me.ryanhamshire.PopulationDensity;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.file.FileConfiguration;
+
+//decides how hard the plugin works to reduce lag, see MonitorPerformanceTask.treatLag()
+//lag is sorted into levels from the config, from mildest to most severe, each with its own list of mitigations
+//a level is entered when TPS drops to its entry threshold (or after lagging at the level below it for long enough),
+//and only left once TPS climbs back above its exit threshold, which is higher, and after the minimum time at the level,
+//so a server hovering around one threshold doesn't flip mitigations on and off every minute
+//every change of level is logged, with the numbers behind it, to a file which can be lined up against the server's load
+class LagPolicy
+{
+	enum Mitigation
+	{
+		BootIdlePlayers, StopGrinders, ThinEntities
+	}
+
+	static class Level
+	{
+		final String name;
+		final double enterTPS;
+		final double exitTPS;
+
+		//minutes lagging at the level below before moving up to this one regardless of TPS, or 0 for never
+		final int enterAfterMinutes;
+
+		//in the order they're applied
+		final ArrayList<Mitigation> mitigations;
+
+		Level(String name, double enterTPS, double exitTPS, int enterAfterMinutes, ArrayList<Mitigation> mitigations)
+		{
+			this.name = name;
+			this.enterTPS = enterTPS;
+			this.exitTPS = exitTPS;
+			this.enterAfterMinutes = enterAfterMinutes;
+			this.mitigations = mitigations;
+		}
+	}
+
+	//mildest first, meaning the highest entry threshold first
+	private static class SeverityComparator implements Comparator<Level>
+	{
+		@Override
+		public int compare(Level a, Level b)
+		{
+			return Double.compare(b.enterTPS, a.enterTPS);
+		}
+	}
+
+	private static final String LEVELS_NODE = "PopulationDensity.Lag Response Levels";
+
+	//no lag, no mitigations
+	private static final Level NORMAL = new Level("Normal", 20, 0, 0, new ArrayList<Mitigation>());
+
+	//levels[0] is NORMAL, the rest are from the config
+	private final ArrayList<Level> levels;
+	private final int minimumMinutesAtLevel;
+	private final File logFile;
+
+	private int current = 0;
+	private int minutesAtLevel = 0;
+
+	private LagPolicy(ArrayList<Level> levels, int minimumMinutesAtLevel, File logFile)
+	{
+		this.levels = levels;
+		this.minimumMinutesAtLevel = minimumMinutesAtLevel;
+		this.logFile = logFile;
+	}
+
+	//reads the levels from the config, filling in the defaults (which match the old fixed behavior, plus some hysteresis) if there aren't any
+	static LagPolicy load(FileConfiguration config, FileConfiguration outConfig, File logFile)
+	{
+		int minimumMinutesAtLevel = Math.max(1, config.getInt("PopulationDensity.Lag Response Minimum Minutes At Level", 2));
+		outConfig.set("PopulationDensity.Lag Response Minimum Minutes At Level", minimumMinutesAtLevel);
+
+		ArrayList<Level> levels = new ArrayList<Level>();
+		levels.add(NORMAL);
+
+		ConfigurationSection section = config.getConfigurationSection(LEVELS_NODE);
+		if(section != null)
+		{
+			for(String name : section.getKeys(false))
+			{
+				String node = LEVELS_NODE + "." + name;
+				double enterTPS = config.getDouble(node + ".Enter At Or Below TPS", 0);
+				double exitTPS = config.getDouble(node + ".Exit Above TPS", enterTPS);
+				int enterAfterMinutes = Math.max(0, config.getInt(node + ".Enter After Minutes At Level Below", 0));
+
+				if(exitTPS < enterTPS)
+				{
+					PopulationDensity.AddLogEntry("Lag response level \"" + name + "\" exits below the TPS it's entered at, so it'll exit above " + enterTPS + " TPS instead.");
+					exitTPS = enterTPS;
+				}
+
+				ArrayList<Mitigation> mitigations = new ArrayList<Mitigation>();
+				for(String mitigationName : config.getStringList(node + ".Mitigations"))
+				{
+					try
+					{
+						mitigations.add(Mitigation.valueOf(mitigationName));
+					}
+					catch(IllegalArgumentException e)
+					{
+						PopulationDensity.AddLogEntry("Unknown lag mitigation \"" + mitigationName + "\" in lag response level \"" + name + "\".");
+					}
+				}
+
+				levels.add(new Level(name, enterTPS, exitTPS, enterAfterMinutes, mitigations));
+			}
+		}
+
+		//update() relies on the levels getting more severe, so levels listed out of order are sorted (and saved that way)
+		ArrayList<Level> configLevels = new ArrayList<Level>(levels.subList(1, levels.size()));
+		Collections.sort(configLevels, new SeverityComparator());
+		if(!configLevels.equals(levels.subList(1, levels.size())))
+		{
+			PopulationDensity.AddLogEntry("Lag response levels aren't listed from the highest \"Enter At Or Below TPS\" to the lowest, so they've been put in that order.");
+			levels.subList(1, levels.size()).clear();
+			levels.addAll(configLevels);
+		}
+
+		if(levels.size() == 1)
+		{
+			levels.add(new Level("Lagging", 19, 19.5, 0, mitigations(Mitigation.BootIdlePlayers, Mitigation.StopGrinders)));
+			levels.add(new Level("Severe", 16, 18, 5, mitigations(Mitigation.BootIdlePlayers, Mitigation.StopGrinders, Mitigation.ThinEntities)));
+		}
+
+		for(int i = 1; i < levels.size(); i++)
+		{
+			Level level = levels.get(i);
+			String node = LEVELS_NODE + "." + level.name;
+			ArrayList<String> mitigationNames = new ArrayList<String>();
+			for(Mitigation mitigation : level.mitigations) mitigationNames.add(mitigation.name());
+
+			outConfig.set(node + ".Enter At Or Below TPS", level.enterTPS);
+			outConfig.set(node + ".Exit Above TPS", level.exitTPS);
+			outConfig.set(node + ".Enter After Minutes At Level Below", level.enterAfterMinutes);
+			outConfig.set(node + ".Mitigations", mitigationNames);
+		}
+
+		return new LagPolicy(levels, minimumMinutesAtLevel, logFile);
+	}
+
+	private static ArrayList<Mitigation> mitigations(Mitigation... mitigations)
+	{
+		ArrayList<Mitigation> list = new ArrayList<Mitigation>();
+		for(Mitigation mitigation : mitigations) list.add(mitigation);
+		return list;
+	}
+
+	//called once a minute with the last minute's TPS, returns the level to apply now
+	Level update(float tps)
+	{
+		this.minutesAtLevel++;
+
+		//move up right away, as far as TPS calls for
+		int target = this.current;
+		for(int i = this.current + 1; i < this.levels.size(); i++)
+		{
+			if(tps <= this.levels.get(i).enterTPS) target = i;
+		}
+
+		//or one level up, after lagging long enough at this one without recovering
+		if(target == this.current && this.current > 0 && this.current + 1 < this.levels.size() && tps <= this.levels.get(this.current).exitTPS)
+		{
+			Level next = this.levels.get(this.current + 1);
+			if(next.enterAfterMinutes > 0 && this.minutesAtLevel >= next.enterAfterMinutes) target = this.current + 1;
+		}
+
+		//move down only after the minimum time at this level, and past every level TPS has recovered from
+		if(target == this.current && this.minutesAtLevel >= this.minimumMinutesAtLevel)
+		{
+			while(target > 0 && tps > this.levels.get(target).exitTPS) target--;
+		}
+
+		if(target != this.current)
+		{
+			this.logTransition(this.levels.get(this.current), this.levels.get(target), tps);
+			this.current = target;
+			this.minutesAtLevel = 0;
+		}
+
+		return this.levels.get(this.current);
+	}
+
+	boolean isLagging()
+	{
+		return this.current > 0;
+	}
+
+	private void logTransition(Level from, Level to, float tps)
+	{
+		TickSampler sampler = PopulationDensity.instance.tickSampler;
+		String time = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date());
+		String line = time + ";" + from.name + ";" + to.name + ";" + this.minutesAtLevel + ";" + String.format("%.2f", tps) + ";"
+				+ String.format("%.2f", sampler.getTPS(TickSampler.TEN_SECONDS)) + ";"
+				+ String.format("%.0f", sampler.getMSPTPercentile(TickSampler.ONE_MINUTE, 95)) + ";"
+				+ String.format("%.0f", sampler.getMaxMSPT(TickSampler.ONE_MINUTE));
+
+		PopulationDensity.AddLogEntry("Lag response level changed from " + from.name + " to " + to.name + " after " + this.minutesAtLevel + " minutes, at " + String.format("%.1f", tps) + " TPS.");
+
+		try
+		{
+			boolean isNew = !this.logFile.exists();
+			PrintWriter writer = new PrintWriter(new FileWriter(this.logFile, true));
+			try
+			{
+				if(isNew) writer.println("time;from;to;minutes at old level;tps;tps 10s;mspt p95 1m;mspt max 1m");
+				writer.println(line);
+			}
+			finally
+			{
+				writer.close();
+			}
+		}
+		catch(IOException e)
+		{
+			PopulationDensity.AddLogEntry("Unable to write to " + this.logFile.getName() + ": " + e.getMessage());
+		}
+	}
+}
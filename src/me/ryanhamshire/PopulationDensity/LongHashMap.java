@@ -0,0 +1,183 @@
+package me.ryanhamshire.PopulationDensity;
+
+import java.util.Arrays;
+
+//hash map from primitive long keys to objects, using open addressing (linear probing)
+//lookups never allocate, unlike a HashMap which would box every key into a Long
+//not thread safe; callers which share one across threads publish copies instead of modifying a shared instance
+//iterate with capacity(), keyAt() and valueAt(), skipping slots where valueAt() is null
+class LongHashMap<V>
+{
+	private long [] keys;
+	private Object [] values;
+	private int size = 0;
+	private int mask;
+
+	LongHashMap()
+	{
+		this(16);
+	}
+
+	LongHashMap(int expectedSize)
+	{
+		int capacity = 16;
+		while(capacity < expectedSize * 2) capacity <<= 1;
+		this.keys = new long[capacity];
+		this.values = new Object[capacity];
+		this.mask = capacity - 1;
+	}
+
+	//spreads the key's bits so that neighbouring coordinates don't pile up in neighbouring slots
+	private int slotFor(long key)
+	{
+		long hash = key * 0x9E3779B97F4A7C15L;
+		return (int)(hash ^ (hash >>> 32)) & this.mask;
+	}
+
+	@SuppressWarnings("unchecked")
+	V get(long key)
+	{
+		int slot = this.slotFor(key);
+		Object value;
+		while((value = this.values[slot]) != null)
+		{
+			if(this.keys[slot] == key) return (V)value;
+			slot = (slot + 1) & this.mask;
+		}
+
+		return null;
+	}
+
+	boolean containsKey(long key)
+	{
+		return this.get(key) != null;
+	}
+
+	//values may not be null (a null value marks an empty slot)
+	@SuppressWarnings("unchecked")
+	V put(long key, V value)
+	{
+		if(value == null) throw new IllegalArgumentException("LongHashMap values may not be null.");
+
+		int slot = this.slotFor(key);
+		Object existing;
+		while((existing = this.values[slot]) != null)
+		{
+			if(this.keys[slot] == key)
+			{
+				this.values[slot] = value;
+				return (V)existing;
+			}
+			slot = (slot + 1) & this.mask;
+		}
+
+		this.keys[slot] = key;
+		this.values[slot] = value;
+		if(++this.size * 2 > this.values.length) this.resize(this.values.length * 2);
+		return null;
+	}
+
+	@SuppressWarnings("unchecked")
+	V remove(long key)
+	{
+		int slot = this.slotFor(key);
+		Object existing;
+		while((existing = this.values[slot]) != null)
+		{
+			if(this.keys[slot] == key)
+			{
+				this.values[slot] = null;
+				this.size--;
+				this.closeGap(slot);
+				return (V)existing;
+			}
+			slot = (slot + 1) & this.mask;
+		}
+
+		return null;
+	}
+
+	//after removing from a slot, shifts back any entries whose probe sequence passed through it
+	private void closeGap(int gap)
+	{
+		int slot = (gap + 1) & this.mask;
+		while(this.values[slot] != null)
+		{
+			int home = this.slotFor(this.keys[slot]);
+
+			//move the entry into the gap unless its home slot lies (cyclically) between the gap and its current slot
+			boolean homeBetween = gap <= slot ? (gap < home && home <= slot) : (gap < home || home <= slot);
+			if(!homeBetween)
+			{
+				this.keys[gap] = this.keys[slot];
+				this.values[gap] = this.values[slot];
+				this.values[slot] = null;
+				gap = slot;
+			}
+
+			slot = (slot + 1) & this.mask;
+		}
+	}
+
+	private void resize(int newCapacity)
+	{
+		long [] oldKeys = this.keys;
+		Object [] oldValues = this.values;
+		this.keys = new long[newCapacity];
+		this.values = new Object[newCapacity];
+		this.mask = newCapacity - 1;
+
+		for(int i = 0; i < oldValues.length; i++)
+		{
+			Object value = oldValues[i];
+			if(value == null) continue;
+
+			int slot = this.slotFor(oldKeys[i]);
+			while(this.values[slot] != null) slot = (slot + 1) & this.mask;
+			this.keys[slot] = oldKeys[i];
+			this.values[slot] = value;
+		}
+	}
+
+	int size()
+	{
+		return this.size;
+	}
+
+	boolean isEmpty()
+	{
+		return this.size == 0;
+	}
+
+	void clear()
+	{
+		Arrays.fill(this.values, null);
+		this.size = 0;
+	}
+
+	int capacity()
+	{
+		return this.values.length;
+	}
+
+	long keyAt(int slot)
+	{
+		return this.keys[slot];
+	}
+
+	@SuppressWarnings("unchecked")
+	V valueAt(int slot)
+	{
+		return (V)this.values[slot];
+	}
+
+	LongHashMap<V> copy()
+	{
+		LongHashMap<V> copy = new LongHashMap<V>(0);
+		copy.keys = this.keys.clone();
+		copy.values = this.values.clone();
+		copy.size = this.size;
+		copy.mask = this.mask;
+		return copy;
+	}
+}
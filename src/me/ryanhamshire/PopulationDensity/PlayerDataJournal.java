@@ -0,0 +1,275 @@
+package me.ryanhamshire.PopulationDensity;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+//keeps every player's data in one append-only file instead of one small file per player
+//an in-memory index maps each key (player UUID, or player name for legacy data) to its latest record,
+//so a lookup is one positioned read and a save is one append at the end of the file
+//superseded records are left in place until compaction rewrites the file with only the latest ones
+class PlayerDataJournal
+{
+	private static final int MAGIC = 0x50444A31;  //"PDJ1"
+	private static final int HEADER_SIZE = 4;
+
+	//record layout: [int payload length][int payload crc32][payload]
+	private static final int RECORD_HEADER_SIZE = 8;
+
+	//don't bother compacting small journals, and only compact when at least half the file is dead records
+	private static final long MIN_COMPACTION_SIZE = 1024 * 1024;
+
+	private final File file;
+	private RandomAccessFile randomAccessFile;
+	private FileChannel channel;
+
+	//key -> (offset << 16 | record length), for the latest record per key
+	private HashMap<String, Long> index = new HashMap<String, Long>();
+
+	//bytes used by the records in the index, to decide when compaction is worthwhile
+	private long liveBytes = 0;
+
+	PlayerDataJournal(File file) throws IOException
+	{
+		this.file = file;
+		this.open();
+	}
+
+	//opens the file and rebuilds the index with one sequential pass over it
+	private void open() throws IOException
+	{
+		boolean isNew = !this.file.exists() || this.file.length() == 0;
+		this.randomAccessFile = new RandomAccessFile(this.file, "rw");
+		this.channel = this.randomAccessFile.getChannel();
+		this.index.clear();
+		this.liveBytes = 0;
+
+		if(isNew)
+		{
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putInt(MAGIC).flip();
+			this.channel.write(header, 0);
+			this.channel.position(HEADER_SIZE);
+			return;
+		}
+
+		DataInputStream inStream = new DataInputStream(new BufferedInputStream(new FileInputStream(this.file), 65536));
+		long position = 0;
+		try
+		{
+			if(inStream.readInt() != MAGIC)
+			{
+				throw new IOException("Not a player data journal: " + this.file.getPath());
+			}
+			position = HEADER_SIZE;
+
+			long fileLength = this.file.length();
+			CRC32 crc = new CRC32();
+			while(position + RECORD_HEADER_SIZE <= fileLength)
+			{
+				int length = inStream.readInt();
+				int checksum = inStream.readInt();
+				if(length <= 0 || length > 0xFFFF - RECORD_HEADER_SIZE || position + RECORD_HEADER_SIZE + length > fileLength) break;
+
+				byte [] payload = new byte[length];
+				inStream.readFully(payload);
+				crc.reset();
+				crc.update(payload, 0, length);
+				if((int)crc.getValue() != checksum) break;
+
+				String key = new DataInputStream(new ByteArrayInputStream(payload)).readUTF();
+				this.putIndex(key, position, RECORD_HEADER_SIZE + length);
+				position += RECORD_HEADER_SIZE + length;
+			}
+		}
+		finally
+		{
+			inStream.close();
+		}
+
+		//anything after the last good record is a torn write from a crash, so drop it
+		if(position < this.file.length())
+		{
+			PopulationDensity.AddLogEntry("Discarding " + (this.file.length() - position) + " bytes of incomplete player data at the end of " + this.file.getName() + ".");
+			this.channel.truncate(position);
+		}
+
+		this.channel.position(position);
+	}
+
+	private void putIndex(String key, long offset, int length)
+	{
+		Long old = this.index.put(key, (offset << 16) | length);
+		if(old != null) this.liveBytes -= (old & 0xFFFF);
+		this.liveBytes += length;
+	}
+
+	synchronized boolean contains(String key)
+	{
+		return this.index.containsKey(key);
+	}
+
+	synchronized int size()
+	{
+		return this.index.size();
+	}
+
+	//returns the latest data saved for this key, or null if there isn't any
+	synchronized PlayerData read(String key) throws IOException
+	{
+		Long entry = this.index.get(key);
+		if(entry == null) return null;
+
+		long offset = entry >>> 16;
+		int length = (int)(entry & 0xFFFF);
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		while(buffer.hasRemaining())
+		{
+			if(this.channel.read(buffer, offset + buffer.position()) < 0) throw new IOException("Unexpected end of player data journal.");
+		}
+
+		DataInputStream inStream = new DataInputStream(new ByteArrayInputStream(buffer.array(), RECORD_HEADER_SIZE, length - RECORD_HEADER_SIZE));
+		inStream.readUTF();  //key
+		PlayerData data = new PlayerData();
+		if(inStream.readBoolean())
+		{
+			int x = inStream.readInt();
+			int z = inStream.readInt();
+			data.homeRegion = new RegionCoordinates(x, z);
+		}
+		data.lastDisconnect = new Date(inStream.readLong());
+		data.loginPriority = inStream.readInt();
+		return data;
+	}
+
+	//appends a new record for this key, which replaces any older one
+	synchronized void write(String key, RegionCoordinates homeRegion, long lastDisconnect, int loginPriority) throws IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+		DataOutputStream payload = new DataOutputStream(bytes);
+		payload.writeUTF(key);
+		payload.writeBoolean(homeRegion != null);
+		if(homeRegion != null)
+		{
+			payload.writeInt(homeRegion.x);
+			payload.writeInt(homeRegion.z);
+		}
+		payload.writeLong(lastDisconnect);
+		payload.writeInt(loginPriority);
+		payload.flush();
+
+		byte [] payloadBytes = bytes.toByteArray();
+		if(payloadBytes.length > 0xFFFF - RECORD_HEADER_SIZE) throw new IOException("Player data record too large for key " + key + ".");
+		CRC32 crc = new CRC32();
+		crc.update(payloadBytes, 0, payloadBytes.length);
+
+		ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + payloadBytes.length);
+		record.putInt(payloadBytes.length);
+		record.putInt((int)crc.getValue());
+		record.put(payloadBytes);
+		record.flip();
+
+		long offset = this.channel.position();
+		while(record.hasRemaining())
+		{
+			this.channel.write(record);
+		}
+
+		this.putIndex(key, offset, RECORD_HEADER_SIZE + payloadBytes.length);
+	}
+
+	//pushes appended records to the disk
+	synchronized void flush() throws IOException
+	{
+		this.channel.force(false);
+	}
+
+	//rewrites the journal with only the latest record for each key, if enough of it is dead records
+	synchronized boolean compactIfNeeded() throws IOException
+	{
+		long size = this.channel.size();
+		if(size < MIN_COMPACTION_SIZE || this.liveBytes * 2 > size) return false;
+
+		this.compact();
+		return true;
+	}
+
+	private void compact() throws IOException
+	{
+		long start = System.currentTimeMillis();
+		long oldSize = this.channel.size();
+
+		File tempFile = new File(this.file.getPath() + ".compacting");
+		tempFile.delete();
+		RandomAccessFile tempRandomAccessFile = new RandomAccessFile(tempFile, "rw");
+		FileChannel tempChannel = tempRandomAccessFile.getChannel();
+		HashMap<String, Long> newIndex = new HashMap<String, Long>();
+		try
+		{
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putInt(MAGIC).flip();
+			tempChannel.write(header);
+
+			for(Map.Entry<String, Long> entry : this.index.entrySet())
+			{
+				long offset = entry.getValue() >>> 16;
+				int length = (int)(entry.getValue() & 0xFFFF);
+				long newOffset = tempChannel.position();
+				long copied = 0;
+				while(copied < length)
+				{
+					copied += this.channel.transferTo(offset + copied, length - copied, tempChannel);
+				}
+				newIndex.put(entry.getKey(), (newOffset << 16) | length);
+			}
+
+			tempChannel.force(true);
+		}
+		finally
+		{
+			tempRandomAccessFile.close();
+		}
+
+		//swap in the compacted file
+		this.randomAccessFile.close();
+		try
+		{
+			Files.move(tempFile.toPath(), this.file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch(IOException e)
+		{
+			//couldn't swap, so keep using the old file
+			PopulationDensity.AddLogEntry("Unable to replace " + this.file.getName() + " with its compacted copy: " + e.getMessage());
+			tempFile.delete();
+			this.open();
+			return;
+		}
+
+		this.randomAccessFile = new RandomAccessFile(this.file, "rw");
+		this.channel = this.randomAccessFile.getChannel();
+		this.channel.position(this.channel.size());
+		this.index = newIndex;
+
+		PopulationDensity.AddLogEntry("Compacted player data journal from " + oldSize / 1024 + "KB to " + this.channel.size() / 1024 + "KB in " + (System.currentTimeMillis() - start) + "ms.");
+	}
+
+	synchronized void close() throws IOException
+	{
+		this.channel.force(true);
+		this.randomAccessFile.close();
+	}
+}
@@ -0,0 +1,236 @@
+package me.ryanhamshire.PopulationDensity;
+
+import java.util.LinkedHashMap;
+
+//write-behind queue for player data files
+//the main thread only records WHAT needs to be saved, and this thread does the file work in batches
+//several saves for the same player before a flush collapse into a single write (the last one wins)
+class PlayerDataWriteQueue extends Thread
+{
+	private final DataStore dataStore;
+
+	//maximum number of players which may be waiting for a write at once
+	private final int maxPendingWrites;
+
+	//how long to collect saves before writing them out as a batch
+	private final long flushDelayMillis;
+
+	//writes waiting for the next flush, keyed by player ID (guarded by this)
+	private LinkedHashMap<String, PendingWrite> pendingWrites = new LinkedHashMap<String, PendingWrite>();
+
+	//the batch currently being written to disk, still needed to answer reads until it's done (guarded by this)
+	private LinkedHashMap<String, PendingWrite> flushingWrites = new LinkedHashMap<String, PendingWrite>();
+
+	private boolean stopping = false;
+
+	//statistics
+	private long writesQueued = 0;
+	private long writesCoalesced = 0;
+	private long writesFlushed = 0;
+	private long batchesFlushed = 0;
+	private long queueFullWaits = 0;
+	private int maxQueueDepth = 0;
+	private long lastFlushNanos = 0;
+	private long maxFlushNanos = 0;
+	private long totalFlushNanos = 0;
+
+	//everything needed to write one player's file, copied on the main thread so the writer never touches live PlayerData
+	static class PendingWrite
+	{
+		final String playerID;
+		final String playerName;
+		final RegionCoordinates homeRegion;
+		final long lastDisconnect;
+		final int loginPriority;
+
+		PendingWrite(String playerID, String playerName, PlayerData data)
+		{
+			this.playerID = playerID;
+			this.playerName = playerName;
+			this.homeRegion = data.homeRegion == null ? null : new RegionCoordinates(data.homeRegion.x, data.homeRegion.z);
+			this.lastDisconnect = data.lastDisconnect.getTime();
+			this.loginPriority = data.loginPriority;
+		}
+	}
+
+	PlayerDataWriteQueue(DataStore dataStore, int maxPendingWrites, long flushDelayMillis)
+	{
+		super("PopulationDensity Player Data Writer");
+		this.dataStore = dataStore;
+		this.maxPendingWrites = Math.max(1, maxPendingWrites);
+		this.flushDelayMillis = Math.max(0, flushDelayMillis);
+		this.setDaemon(false);
+	}
+
+	//queues a save for the player, replacing any save for that player which hasn't been written yet
+	void enqueue(String playerID, String playerName, PlayerData data)
+	{
+		PendingWrite write = new PendingWrite(playerID, playerName, data);
+
+		synchronized(this)
+		{
+			//after shutdown, there's no writer thread left, so just write it now
+			if(this.stopping)
+			{
+				this.dataStore.writePlayerDataFile(write);
+				return;
+			}
+
+			this.writesQueued++;
+			if(this.pendingWrites.put(playerID, write) != null)
+			{
+				this.writesCoalesced++;
+				return;
+			}
+
+			int depth = this.pendingWrites.size();
+			if(depth > this.maxQueueDepth) this.maxQueueDepth = depth;
+
+			//backlog is full, so wake the writer and wait for it to take the batch
+			//(the writer swaps out the whole batch at once, so this wait is short)
+			if(depth >= this.maxPendingWrites)
+			{
+				this.queueFullWaits++;
+				this.notifyAll();
+				while(this.pendingWrites.size() >= this.maxPendingWrites && !this.stopping)
+				{
+					try
+					{
+						this.wait(50);
+					}
+					catch(InterruptedException e)
+					{
+						break;
+					}
+				}
+			}
+			else if(depth == 1)
+			{
+				this.notifyAll();
+			}
+		}
+	}
+
+	//returns a save which hasn't reached the disk yet, or null if there isn't one
+	synchronized PendingWrite getPendingWrite(String playerID)
+	{
+		PendingWrite write = this.pendingWrites.get(playerID);
+		if(write == null) write = this.flushingWrites.get(playerID);
+		return write;
+	}
+
+	synchronized int getQueueDepth()
+	{
+		return this.pendingWrites.size() + this.flushingWrites.size();
+	}
+
+	@Override
+	public void run()
+	{
+		while(true)
+		{
+			LinkedHashMap<String, PendingWrite> batch;
+			synchronized(this)
+			{
+				try
+				{
+					//sleep until there's something to write
+					while(this.pendingWrites.isEmpty() && !this.stopping)
+					{
+						this.wait();
+					}
+
+					//then give more saves a chance to arrive, so they're written together
+					long flushAt = System.currentTimeMillis() + this.flushDelayMillis;
+					long now;
+					while(!this.stopping && this.pendingWrites.size() < this.maxPendingWrites && (now = System.currentTimeMillis()) < flushAt)
+					{
+						this.wait(flushAt - now);
+					}
+				}
+				catch(InterruptedException e)
+				{
+					this.stopping = true;
+				}
+
+				if(this.pendingWrites.isEmpty())
+				{
+					if(this.stopping) return;
+					continue;
+				}
+
+				batch = this.pendingWrites;
+				this.pendingWrites = new LinkedHashMap<String, PendingWrite>();
+				this.flushingWrites = batch;
+				this.notifyAll();
+			}
+
+			this.flush(batch);
+		}
+	}
+
+	private void flush(LinkedHashMap<String, PendingWrite> batch)
+	{
+		long start = System.nanoTime();
+		for(PendingWrite write : batch.values())
+		{
+			this.dataStore.writePlayerDataFile(write);
+		}
+		this.dataStore.finishPlayerDataBatch();
+		long elapsed = System.nanoTime() - start;
+
+		synchronized(this)
+		{
+			this.flushingWrites = new LinkedHashMap<String, PendingWrite>();
+			this.writesFlushed += batch.size();
+			this.batchesFlushed++;
+			this.lastFlushNanos = elapsed;
+			this.totalFlushNanos += elapsed;
+			if(elapsed > this.maxFlushNanos) this.maxFlushNanos = elapsed;
+		}
+	}
+
+	//writes everything still queued and stops the writer thread
+	//blocks until all the data is on disk, so it's safe to call from onDisable()
+	void shutdown()
+	{
+		synchronized(this)
+		{
+			this.stopping = true;
+			this.notifyAll();
+		}
+
+		try
+		{
+			this.join();
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+
+		//in case the writer thread died or never started, write anything left over here
+		LinkedHashMap<String, PendingWrite> leftovers;
+		synchronized(this)
+		{
+			leftovers = this.pendingWrites;
+			this.pendingWrites = new LinkedHashMap<String, PendingWrite>();
+		}
+
+		if(!leftovers.isEmpty())
+		{
+			this.flush(leftovers);
+		}
+	}
+
+	synchronized String getStatistics()
+	{
+		double averageFlushMillis = this.batchesFlushed == 0 ? 0 : this.totalFlushNanos / 1000000.0 / this.batchesFlushed;
+		return "Player data writes: " + this.writesQueued + " queued, " + this.writesCoalesced + " coalesced, " +
+				this.writesFlushed + " written in " + this.batchesFlushed + " batches.  " +
+				"Queue depth: " + this.getQueueDepth() + " now, " + this.maxQueueDepth + " max, full " + this.queueFullWaits + " times.  " +
+				"Flush time: " + String.format("%.2f", this.lastFlushNanos / 1000000.0) + "ms last, " +
+				String.format("%.2f", averageFlushMillis) + "ms average, " +
+				String.format("%.2f", this.maxFlushNanos / 1000000.0) + "ms max.";
+	}
+}
@@ -45,6 +45,26 @@ public class PlayerEventHandler implements Listener {
 		this.dataStore = dataStore;
 	}
 
+	// before a player joins, on an async thread, load his data so the login doesn't wait on disk
+	@EventHandler(priority = EventPriority.MONITOR)
+	public void onAsyncPlayerPreLogin(AsyncPlayerPreLoginEvent event)
+	{
+		if (event.getLoginResult() != AsyncPlayerPreLoginEvent.Result.ALLOWED)
+			return;
+
+		this.dataStore.preloadPlayerData(event.getUniqueId(), event.getName());
+	}
+
+	// when a login is refused (by the login queue or anything else), forget the data preloaded for it
+	@EventHandler(priority = EventPriority.MONITOR)
+	public void onPlayerLoginDenied(PlayerLoginEvent event)
+	{
+		if (event.getResult() == Result.ALLOWED)
+			return;
+
+		this.dataStore.evictPreloadedPlayerData(event.getPlayer());
+	}
+
 	// when a player attempts to join the server...
 	@EventHandler(priority = EventPriority.HIGH, ignoreCancelled = true)
 	public void onPlayerLoginEvent(PlayerLoginEvent event)
@@ -25,15 +25,15 @@ import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
 import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
 import org.bukkit.Chunk;
-import org.bukkit.ChunkSnapshot;
 import org.bukkit.GameMode;
 import org.bukkit.Location;
-import org.bukkit.Material;
 import org.bukkit.OfflinePlayer;
 import org.bukkit.Sound;
 import org.bukkit.World;
@@ -64,6 +64,9 @@ public class PopulationDensity extends JavaPlugin
 	//developer configuration, not modifiable by users
 	public static final int REGION_SIZE = 400;
 	
+	//how many past scans /RegionStats shows (and twice that many regions for /RankRegions)
+	private static final int REGION_STATS_LINES = 5;
+	
 	//the world managed by this plugin
 	public static World ManagedWorld;
 	
@@ -74,6 +77,30 @@ public class PopulationDensity extends JavaPlugin
 	//this handles data storage, like player and region data
 	public DataStore dataStore;
 	
+	//worker threads for parallel region scans (see getScanPool())
+	private ForkJoinPool scanPool = null;
+	
+	//scores the next few regions in the spiral ahead of time
+	RegionPreScanner regionPreScanner = new RegionPreScanner();
+	
+	//times every tick, for lag checks and /Lag
+	TickSampler tickSampler = new TickSampler();
+	
+	//picks the lag level and its mitigations (see MonitorPerformanceTask.treatLag())
+	LagPolicy lagPolicy;
+	
+	//entity thinning underway, if any
+	ThinEntitiesTask thinEntitiesTask = null;
+	
+	//entity counts by chunk, for spawn limits and thinning
+	ChunkEntityIndex entityIndex = new ChunkEntityIndex();
+	
+	//queues region scans and runs a few at a time
+	ScanScheduler scanScheduler;
+	
+	//decides when to check on the open region (null when checks just happen every few hours)
+	ScanPlanner scanPlanner = null;
+	
 	//tracks server perforamnce
 	static float serverTicksPerSecond = 20;
 	static int minutesLagging = 0;
@@ -85,6 +112,7 @@ public class PopulationDensity extends JavaPlugin
 	//user configuration, loaded/saved from a config.yml
 	public boolean allowTeleportation;
 	public boolean teleportFromAnywhere;
+	public boolean config_weightedRandomRegions;
 	public boolean newPlayersSpawnInHomeRegion;
 	public boolean respawnInHomeRegion;
 	public String cityWorldName;
@@ -124,6 +152,28 @@ public class PopulationDensity extends JavaPlugin
     public boolean config_bootIdlePlayersWhenLagging;
     public boolean config_disableGrindersWhenLagging;
     public int config_maximumHoppersPerChunk;
+	public int config_playerDataWriteQueueLimit;
+	public int config_playerDataWriteDelayMillis;
+	public boolean config_playerDataJournal;
+	public int config_scanThreads;
+	public boolean config_compareParallelScans;
+	public int config_scanChunksPerTick;
+	public int config_scanMillisecondsPerTick;
+	public int config_thinningMillisecondsPerTick;
+	public boolean config_incrementalScans;
+	public boolean config_sampledScans;
+	public boolean config_streamingScans;
+	public int config_scanBandRows;
+	public int config_concurrentScans;
+	public boolean config_adaptiveScans;
+	public int config_minimumMinutesBetweenScans;
+	public int config_maximumHoursBetweenScans;
+	public int config_preScanLeadHours;
+	public boolean config_skipEmptySections;
+	public int config_preScanRegions;
+	public int config_preScanChunksPerTick;
+	public boolean config_preScanFromRegionFiles;
+	public int config_scanCacheHours;
 	
 	public int minimumRegionPostY;
 	
@@ -184,6 +234,7 @@ public class PopulationDensity extends JavaPlugin
 		//read configuration settings (note defaults)
 		this.allowTeleportation = config.getBoolean("PopulationDensity.AllowTeleportation", true);
 		this.teleportFromAnywhere = config.getBoolean("PopulationDensity.TeleportFromAnywhere", false);
+		this.config_weightedRandomRegions = config.getBoolean("PopulationDensity.Random Region Favors Less Crowded Regions", false);
 		this.newPlayersSpawnInHomeRegion = config.getBoolean("PopulationDensity.NewPlayersSpawnInHomeRegion", true);
 		this.respawnInHomeRegion = config.getBoolean("PopulationDensity.RespawnInHomeRegion", true);
 		this.cityWorldName = config.getString("PopulationDensity.CityWorldName", "");
@@ -202,6 +253,7 @@ public class PopulationDensity extends JavaPlugin
 		this.respawnAnimals = config.getBoolean("PopulationDensity.AnimalsRespawn", true);
 		this.regrowTrees = config.getBoolean("PopulationDensity.TreesRegrow", true);
 		this.config_maximumHoppersPerChunk = config.getInt("PopulationDensity.Maximum Hoppers Per Chunk", 10);
+		this.config_thinningMillisecondsPerTick = Math.max(1, config.getInt("PopulationDensity.Entity Thinning Milliseconds Per Tick", 5));
 		this.thinAnimalAndMonsterCrowds = config.getBoolean("PopulationDensity.ThinOvercrowdedAnimalsAndMonsters", true);
 		this.minimumRegionPostY = config.getInt("PopulationDensity.MinimumRegionPostY", 62);
 		this.preciseWorldSpawn = config.getBoolean("PopulationDensity.PreciseWorldSpawn", false);
@@ -213,6 +265,37 @@ public class PopulationDensity extends JavaPlugin
 		this.config_disableGrindersWhenLagging = config.getBoolean("PopulationDensity.Disable Monster Grinders When Lagging", true);
 		this.config_bootIdlePlayersWhenLagging = config.getBoolean("PopulationDensity.Boot Idle Players When Lagging", true);
 		this.config_captureSpigotTimingsWhenLagging = config.getBoolean("PopulationDensity.Capture Spigot Timings When Lagging", true);
+		this.config_playerDataWriteQueueLimit = config.getInt("PopulationDensity.Player Data Write Queue Limit", 1000);
+		this.config_playerDataWriteDelayMillis = config.getInt("PopulationDensity.Player Data Write Delay Milliseconds", 2000);
+		String playerDataStorage = config.getString("PopulationDensity.Player Data Storage", "Files");
+		this.config_playerDataJournal = playerDataStorage.equalsIgnoreCase("Journal");
+		//streaming band scans are the supported default for full region scans: they summarize chunk by chunk (using
+		//the scan cache when incremental scans are on, and the scan threads when there's more than one) and merge the results.
+		//turning streaming off falls back to an incremental scan, or with incremental scans off too, to the whole-region flood fill
+		//(on the scan threads, or the sequential RegionScanner with its empty section skipping), which are kept for comparison and troubleshooting
+		this.config_scanThreads = config.getInt("PopulationDensity.Region Scan Threads", 1);
+		this.config_compareParallelScans = config.getBoolean("PopulationDensity.Compare Parallel Region Scans With Sequential", false);
+		this.config_scanChunksPerTick = config.getInt("PopulationDensity.Region Scan Chunks Per Tick", 10);
+		this.config_scanMillisecondsPerTick = config.getInt("PopulationDensity.Region Scan Milliseconds Per Tick", 10);
+		this.config_incrementalScans = config.getBoolean("PopulationDensity.Incremental Region Scans", true);
+		this.config_sampledScans = config.getBoolean("PopulationDensity.Sampled Routine Region Scans", true);
+		this.config_streamingScans = config.getBoolean("PopulationDensity.Streaming Region Scans", true);
+		this.config_scanBandRows = Math.max(1, config.getInt("PopulationDensity.Region Scan Band Rows", 4));
+		this.config_concurrentScans = Math.max(1, config.getInt("PopulationDensity.Concurrent Region Scans", 1));
+		this.config_adaptiveScans = config.getBoolean("PopulationDensity.Adaptive Region Scan Scheduling", true);
+		this.config_minimumMinutesBetweenScans = config.getInt("PopulationDensity.Minimum Minutes Between Scans", 30);
+		this.config_maximumHoursBetweenScans = config.getInt("PopulationDensity.Maximum Hours Between Scans", 24);
+		this.config_preScanLeadHours = config.getInt("PopulationDensity.Pre-Scan Lead Hours", 6);
+		//only used by the sequential RegionScanner, see above
+		this.config_skipEmptySections = config.getBoolean("PopulationDensity.Skip Empty Sections In Region Scans", true);
+		this.config_scanCacheHours = config.getInt("PopulationDensity.Region Scan Cache Hours", 24);
+		this.config_preScanRegions = config.getInt("PopulationDensity.Regions To Pre-Scan", 3);
+		this.config_preScanChunksPerTick = config.getInt("PopulationDensity.Region Pre-Scan Chunks Per Tick", 2);
+		this.config_preScanFromRegionFiles = config.getBoolean("PopulationDensity.Pre-Scan From Region Files", true);
+		if(this.config_compareParallelScans && (this.config_streamingScans || this.config_incrementalScans || this.config_scanThreads < 2))
+		{
+			AddLogEntry("Compare Parallel Region Scans With Sequential only applies with streaming and incremental region scans off and more than one scan thread.");
+		}
 		
 		String topper = config.getString("PopulationDensity.PostDesign.TopBlock", "89:0");  //default glowstone
 		String post = config.getString("PopulationDensity.PostDesign.PostBlocks", "89:0");
@@ -360,6 +443,7 @@ public class PopulationDensity extends JavaPlugin
 		outConfig.set("PopulationDensity.CityWorldName", this.cityWorldName);
 		outConfig.set("PopulationDensity.AllowTeleportation", this.allowTeleportation);
 		outConfig.set("PopulationDensity.TeleportFromAnywhere", this.teleportFromAnywhere);
+		outConfig.set("PopulationDensity.Random Region Favors Less Crowded Regions", this.config_weightedRandomRegions);
 		outConfig.set("PopulationDensity.MaxDistanceFromSpawnToUseHomeRegion", this.maxDistanceFromSpawnToUseHomeRegion);
 		outConfig.set("PopulationDensity.ManagedWorldName", this.managedWorldName);
 		outConfig.set("PopulationDensity.DensityRatio", this.densityRatio);
@@ -381,8 +465,30 @@ public class PopulationDensity extends JavaPlugin
 		outConfig.set("PopulationDensity.Remove Wild Skeletal Horses", this.removeWildSkeletalHorses);
 		outConfig.set("PopulationDensity.Disable Monster Grinders When Lagging", this.config_disableGrindersWhenLagging);
 		outConfig.set("PopulationDensity.Maximum Hoppers Per Chunk", this.config_maximumHoppersPerChunk);
+		outConfig.set("PopulationDensity.Entity Thinning Milliseconds Per Tick", this.config_thinningMillisecondsPerTick);
 		outConfig.set("PopulationDensity.Boot Idle Players When Lagging", this.config_bootIdlePlayersWhenLagging);
 		outConfig.set("PopulationDensity.Capture Spigot Timings When Lagging", this.config_captureSpigotTimingsWhenLagging);
+		outConfig.set("PopulationDensity.Player Data Write Queue Limit", this.config_playerDataWriteQueueLimit);
+		outConfig.set("PopulationDensity.Player Data Write Delay Milliseconds", this.config_playerDataWriteDelayMillis);
+		outConfig.set("PopulationDensity.Player Data Storage", this.config_playerDataJournal ? "Journal" : "Files");
+		outConfig.set("PopulationDensity.Region Scan Threads", this.config_scanThreads);
+		outConfig.set("PopulationDensity.Compare Parallel Region Scans With Sequential", this.config_compareParallelScans);
+		outConfig.set("PopulationDensity.Region Scan Chunks Per Tick", this.config_scanChunksPerTick);
+		outConfig.set("PopulationDensity.Region Scan Milliseconds Per Tick", this.config_scanMillisecondsPerTick);
+		outConfig.set("PopulationDensity.Incremental Region Scans", this.config_incrementalScans);
+		outConfig.set("PopulationDensity.Sampled Routine Region Scans", this.config_sampledScans);
+		outConfig.set("PopulationDensity.Streaming Region Scans", this.config_streamingScans);
+		outConfig.set("PopulationDensity.Region Scan Band Rows", this.config_scanBandRows);
+		outConfig.set("PopulationDensity.Concurrent Region Scans", this.config_concurrentScans);
+		outConfig.set("PopulationDensity.Adaptive Region Scan Scheduling", this.config_adaptiveScans);
+		outConfig.set("PopulationDensity.Minimum Minutes Between Scans", this.config_minimumMinutesBetweenScans);
+		outConfig.set("PopulationDensity.Maximum Hours Between Scans", this.config_maximumHoursBetweenScans);
+		outConfig.set("PopulationDensity.Pre-Scan Lead Hours", this.config_preScanLeadHours);
+		outConfig.set("PopulationDensity.Skip Empty Sections In Region Scans", this.config_skipEmptySections);
+		outConfig.set("PopulationDensity.Region Scan Cache Hours", this.config_scanCacheHours);
+		outConfig.set("PopulationDensity.Regions To Pre-Scan", this.config_preScanRegions);
+		outConfig.set("PopulationDensity.Region Pre-Scan Chunks Per Tick", this.config_preScanChunksPerTick);
+		outConfig.set("PopulationDensity.Pre-Scan From Region Files", this.config_preScanFromRegionFiles);
 		outConfig.set("PopulationDensity.MinimumRegionPostY", this.minimumRegionPostY);
 		outConfig.set("PopulationDensity.PreciseWorldSpawn", this.preciseWorldSpawn);
 		outConfig.set("PopulationDensity.MinimumWoodAvailableToPlaceNewPlayers", this.woodMinimum);
@@ -402,6 +508,8 @@ public class PopulationDensity extends JavaPlugin
 		this.eastCustomSignContent = this.initializeSignContentConfig(config, outConfig, "PopulationDensity.CustomSigns.East", new String [] {"", "", "", ""});
 		this.westCustomSignContent = this.initializeSignContentConfig(config, outConfig, "PopulationDensity.CustomSigns.West", new String [] {"", "", "", ""});
 		
+		this.lagPolicy = LagPolicy.load(config, outConfig, new File(DataStore.lagLogFilePath));
+		
 		try
 		{
 			outConfig.save(DataStore.configFilePath);
@@ -427,6 +535,8 @@ public class PopulationDensity extends JavaPlugin
 		//when datastore initializes, it loads player and region data, and posts some stats to the log
 		this.dataStore = new DataStore(this.config_regionNames);
 		
+		this.scanScheduler = new ScanScheduler(this.config_concurrentScans);
+		
 		//register for events
 		PluginManager pluginManager = this.getServer().getPluginManager();
 		
@@ -450,6 +560,10 @@ public class PopulationDensity extends JavaPlugin
 		WorldEventHandler worldEventHandler = new WorldEventHandler();
 		pluginManager.registerEvents(worldEventHandler, this);
 		
+		//more entity and world events, to keep entity counts by chunk up to date
+		EntityIndexEventHandler entityIndexEventHandler = new EntityIndexEventHandler(this.entityIndex);
+		pluginManager.registerEvents(entityIndexEventHandler, this);
+		
 		//make a note of the spawn world.  may be NULL if the configured city world name doesn't match an existing world
 		CityWorld = this.getServer().getWorld(this.cityWorldName);
 		if(!this.cityWorldName.isEmpty() && CityWorld == null)
@@ -459,10 +573,25 @@ public class PopulationDensity extends JavaPlugin
 		
 		//scan the open region for resources and open a new one as necessary
 		//may open and close several regions before finally leaving an "acceptable" region open
-		//this will repeat every six hours
-		this.getServer().getScheduler().scheduleSyncRepeatingTask(this, new ScanOpenRegionTask(), 5L, this.hoursBetweenScans * 60 * 60 * 20L);
+		//this will repeat every six hours, or as often as the ScanPlanner thinks is needed
+		if(this.config_adaptiveScans)
+		{
+			this.scanPlanner = new ScanPlanner();
+			this.getServer().getScheduler().scheduleSyncRepeatingTask(this, this.scanPlanner, 5L, 1200L);
+		}
+		else
+		{
+			this.getServer().getScheduler().scheduleSyncRepeatingTask(this, new ScanOpenRegionTask(), 5L, this.hoursBetweenScans * 60 * 60 * 20L);
+		}
+		
+		//in the background, score the regions which will be opened next, so a poor open region can be replaced right away
+		if(this.config_preScanRegions > 0)
+		{
+			this.getServer().getScheduler().scheduleSyncRepeatingTask(this, this.regionPreScanner, 2400L, 1200L);
+		}
 		
 		//start monitoring performance
+		this.getServer().getScheduler().scheduleSyncRepeatingTask(this, this.tickSampler, 1L, 1L);
 		this.getServer().getScheduler().scheduleSyncRepeatingTask(this, new MonitorPerformanceTask(), 1200L, 1200L);
 		
 		//animals which appear abandoned on chunk load get the grandfather clause treatment
@@ -478,6 +607,9 @@ public class PopulationDensity extends JavaPlugin
                         entity.setTicksLived(1);
                     }
                 }
+                
+				//chunks loaded before the plugin was enabled need counting too
+				this.entityIndex.recount(chunk, entities);
             }
         }
 	}
@@ -879,12 +1011,152 @@ public class PopulationDensity extends JavaPlugin
 		
 		else if(cmd.getName().equalsIgnoreCase("scanregion") && player != null)
 		{			
-		    PopulationDensity.sendMessage(player, TextMode.Success, Messages.ScanStartConfirmation);
-			this.scanRegion(RegionCoordinates.fromLocation(player.getLocation()), false);
+			RegionCoordinates region = RegionCoordinates.fromLocation(player.getLocation());
+			if(region == null)
+			{
+				PopulationDensity.sendMessage(player, TextMode.Warn, Messages.NotInRegion);
+				return true;
+			}
+			
+			//a region which hasn't changed since its last scan doesn't need another one, unless asked for
+			boolean full = args.length > 0 && args[0].equalsIgnoreCase("full");
+			ScanHistory.Record record = full ? null : this.dataStore.getScanHistory().getCurrent(region);
+			if(record != null)
+			{
+				PopulationDensity.sendMessage(player, TextMode.Info, Messages.ScanResultsFromHistory, ScanHistory.describeAge(record.timestamp),
+						String.valueOf(record.results.resourceScore()), String.valueOf(record.results.woodCount), String.valueOf(record.results.playerBlocks));
+				return true;
+			}
+			
+			if(this.scanRegion(region, false, true))
+			{
+				PopulationDensity.sendMessage(player, TextMode.Success, Messages.ScanStartConfirmation);
+			}
+			else
+			{
+				PopulationDensity.sendMessage(player, TextMode.Warn, Messages.ScanAlreadyQueued);
+			}
 			
 			return true;
 		}
 		
+		else if(cmd.getName().equalsIgnoreCase("regionstats"))
+		{
+			//with no parameters, reports on the player's current region
+			RegionCoordinates region;
+			if(args.length > 0)
+			{
+				region = this.dataStore.getRegionCoordinates(args[0]);
+				if(region == null)
+				{
+					PopulationDensity.sendMessage(player, TextMode.Err, Messages.DestinationNotFound, args[0]);
+					return true;
+				}
+			}
+			else if(player != null)
+			{
+				region = RegionCoordinates.fromLocation(player.getLocation());
+				if(region == null)
+				{
+					PopulationDensity.sendMessage(player, TextMode.Warn, Messages.NotInRegion);
+					return true;
+				}
+			}
+			else
+			{
+				return false;
+			}
+		    
+			String regionName = this.describeRegion(region);
+			ArrayList<ScanHistory.Record> records = this.dataStore.getScanHistory().getRecords(region);
+			if(records.isEmpty())
+			{
+				PopulationDensity.sendMessage(player, TextMode.Info, Messages.NoScanHistory, regionName);
+				return true;
+			}
+		    
+			PopulationDensity.sendMessage(player, TextMode.Info, Messages.ScanHistoryHeader, regionName, String.valueOf(records.size()));
+			for(int i = 0; i < Math.min(REGION_STATS_LINES, records.size()); i++)
+			{
+				ScanHistory.Record record = records.get(i);
+				PopulationDensity.sendMessage(player, TextMode.Info, Messages.ScanHistoryEntry, ScanHistory.describeAge(record.timestamp),
+						String.valueOf(record.results.resourceScore()), String.valueOf(record.results.woodCount), String.valueOf(record.results.playerBlocks),
+						String.format("%.1f", record.durationMillis / 1000.0));
+			}
+		    
+			return true;
+		}
+		
+		else if(cmd.getName().equalsIgnoreCase("rankregions"))
+		{
+			int count = REGION_STATS_LINES * 2;
+			if(args.length > 0)
+			{
+				try
+				{
+					count = Integer.parseInt(args[0]);
+				}
+				catch(NumberFormatException e)
+				{
+					return false;
+				}
+			}
+		    
+			ArrayList<ScanHistory.Record> ranking = this.dataStore.getScanHistory().rankByResourceScore();
+			if(ranking.isEmpty())
+			{
+				PopulationDensity.sendMessage(player, TextMode.Info, Messages.NoRegionsScanned);
+				return true;
+			}
+		    
+			PopulationDensity.sendMessage(player, TextMode.Info, Messages.RegionRankingHeader);
+			for(int i = 0; i < Math.min(count, ranking.size()); i++)
+			{
+				ScanHistory.Record record = ranking.get(i);
+				PopulationDensity.sendMessage(player, TextMode.Info, Messages.RegionRankingEntry, String.valueOf(i + 1), this.describeRegion(record.region),
+						String.valueOf(record.results.resourceScore()), String.valueOf(record.results.woodCount), String.valueOf(record.results.playerBlocks),
+						ScanHistory.describeAge(record.timestamp));
+			}
+		    
+			return true;
+		}
+		
+		else if(cmd.getName().equalsIgnoreCase("scanstatus"))
+		{
+			ArrayList<RegionScan> scans = this.scanScheduler.getScans();
+			if(scans.isEmpty())
+			{
+				PopulationDensity.sendMessage(player, TextMode.Info, Messages.NoScans);
+			}
+		    
+			for(RegionScan scan : scans)
+			{
+				PopulationDensity.sendMessage(player, TextMode.Info, Messages.ScanStatus, scan.getKind(), scan.region.toString(), scan.getStateName(), String.valueOf(scan.getPercentDone()));
+			}
+		    
+			return true;
+		}
+		
+		else if(cmd.getName().equalsIgnoreCase("cancelscan"))
+		{
+			//with no parameters, cancels scans of the player's current region
+			RegionCoordinates region = null;
+			if(args.length == 0)
+			{
+				if(player == null) return false;
+				region = RegionCoordinates.fromLocation(player.getLocation());
+			}
+			else if(!args[0].equalsIgnoreCase("all"))
+			{
+				return false;
+			}
+		    
+			int count = this.scanScheduler.cancel(region);
+			PopulationDensity.sendMessage(player, TextMode.Success, Messages.ScansCancelled, String.valueOf(count));
+		    
+			return true;
+		}
+		
 		else if(cmd.getName().equalsIgnoreCase("loginpriority"))
 		{					
 			//requires exactly two parameters, the other player's name and the priority
@@ -961,13 +1233,27 @@ public class PopulationDensity extends JavaPlugin
 		
 		else if(cmd.getName().equalsIgnoreCase("thinentities"))
 		{
-		    if(player != null)
+			//if thinning is already underway, say how far along it is instead of starting over
+			boolean running = this.thinEntitiesTask != null;
+			ThinEntitiesTask task = MonitorPerformanceTask.thinEntities();
+		    
+			if(running)
+			{
+				String progress = this.dataStore.getMessage(Messages.ThinningProgress, String.valueOf(task.getPercentDone()), String.valueOf(task.getProcessedChunks()), String.valueOf(task.getTotalChunks()), String.valueOf(task.getRemoved()));
+				if(player != null)
+				{
+					PopulationDensity.sendMessage(player, TextMode.Info, progress);
+				}
+				else
+				{
+					AddLogEntry(progress);
+				}
+			}
+			else if(player != null)
 		    {
 		        PopulationDensity.sendMessage(player, TextMode.Success, Messages.ThinningConfirmation);
 		    }
 		    
-		    MonitorPerformanceTask.thinEntities();
-		    
 		    return true;
 		}
 		
@@ -997,6 +1283,13 @@ public class PopulationDensity extends JavaPlugin
 		return false;
 	}
 	
+	//a region's name, or its coordinates if it doesn't have one
+	private String describeRegion(RegionCoordinates region)
+	{
+		String name = this.dataStore.getRegionName(region);
+		return name != null ? capitalize(name) : region.toString();
+	}
+	
 	private boolean nameRegion(Player player, String [] args, boolean allowRename)
 	{
 	    RegionCoordinates currentRegion = RegionCoordinates.fromLocation(player.getLocation());
@@ -1049,8 +1342,12 @@ public class PopulationDensity extends JavaPlugin
 
     void reportTPS(Player player)
 	{
-	    String message = PopulationDensity.instance.dataStore.getMessage(Messages.PerformanceScore, String.valueOf(Math.round((serverTicksPerSecond / 20) * 100)));
-        if(serverTicksPerSecond > 19)
+		TickSampler sampler = PopulationDensity.instance.tickSampler;
+		float tps = sampler.getTPS(TickSampler.ONE_MINUTE);
+		String message = PopulationDensity.instance.dataStore.getMessage(Messages.PerformanceScore, String.valueOf(Math.round((tps / 20) * 100)));
+	    
+		//whether lag is being treated is up to the last lag check (see MonitorPerformanceTask.treatLag())
+		if(!PopulationDensity.instance.lagPolicy.isLagging())
         {
             message = PopulationDensity.instance.dataStore.getMessage(Messages.PerformanceScore_NoLag) + message;
         }
@@ -1059,13 +1356,25 @@ public class PopulationDensity extends JavaPlugin
             message += PopulationDensity.instance.dataStore.getMessage(Messages.PerformanceScore_Lag);
         }
         
+		String details = PopulationDensity.instance.dataStore.getMessage(Messages.PerformanceDetails,
+				String.format("%.1f", sampler.getTPS(TickSampler.TEN_SECONDS)),
+				String.format("%.1f", tps),
+				String.format("%.1f", sampler.getTPS(TickSampler.FIVE_MINUTES)),
+				String.format("%.1f", sampler.getTPS(TickSampler.FIFTEEN_MINUTES)),
+				String.format("%.0f", sampler.getMSPTPercentile(TickSampler.ONE_MINUTE, 50)),
+				String.format("%.0f", sampler.getMSPTPercentile(TickSampler.ONE_MINUTE, 95)),
+				String.format("%.0f", sampler.getMSPTPercentile(TickSampler.ONE_MINUTE, 99)),
+				String.format("%.0f", sampler.getMaxMSPT(TickSampler.ONE_MINUTE)));
+        
         if(player != null)
         {
             player.sendMessage(ChatColor.GOLD + message);
+			player.sendMessage(ChatColor.GOLD + details);
         }
         else
         {
             AddLogEntry(message);
+			AddLogEntry(details);
         }
     }
 
@@ -1108,6 +1417,50 @@ public class PopulationDensity extends JavaPlugin
 
     public void onDisable()
 	{
+		//stop any region scans, before the scan cache is closed
+		this.regionPreScanner.shutdown();
+		if(this.scanScheduler != null)
+		{
+			this.scanScheduler.shutdown();
+		}
+		
+		//stop entity thinning, if it's underway
+		if(this.thinEntitiesTask != null)
+		{
+			this.thinEntitiesTask.cancel();
+			this.thinEntitiesTask = null;
+		}
+		
+		//make sure any player data still waiting to be written makes it to disk
+		//last, so nothing above can change the data or the scan cache after they're closed
+		if(this.dataStore != null)
+		{
+			this.dataStore.close();
+		}
+		
+		//stop any parallel region scan workers, once the scans using them have stopped (above)
+		//letting them finish what they're doing, so a scan which is still wrapping up doesn't fail part way through
+		synchronized(this)
+		{
+			if(this.scanPool != null)
+			{
+				this.scanPool.shutdown();
+				try
+				{
+					if(!this.scanPool.awaitTermination(5, TimeUnit.SECONDS))
+					{
+						AddLogEntry("Parallel region scan threads didn't stop within 5 seconds.");
+						this.scanPool.shutdownNow();
+					}
+				}
+				catch(InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+				}
+				this.scanPool = null;
+			}
+		}
+		
 		AddLogEntry("PopulationDensity disabled.");
 	}
 	
@@ -1219,93 +1572,61 @@ public class PopulationDensity extends JavaPlugin
 	
 	//scans the open region for resources and may close the region (and open a new one) if accessible resources are low
 	//may repeat itself if the regions it opens are also not acceptably rich in resources
-	@SuppressWarnings("deprecation")
-    public void scanRegion(RegionCoordinates region, boolean openNewRegions)
+	//chunk snapshots are collected a few per tick by a ScanSnapshotsTask, so this returns right away
+	//scans wait in line in the ScanScheduler, and return false if the region already has a scan waiting or running
+	public boolean scanRegion(RegionCoordinates region, boolean openNewRegions)
+	{
+		return this.scanRegion(region, openNewRegions, false);
+	}
+	
+	//fullScan ignores cached scan results, rescanning every chunk in the region
+	public boolean scanRegion(RegionCoordinates region, boolean openNewRegions, boolean fullScan)
 	{						
-		AddLogEntry("Examining available resources in region \"" + region.toString() + "\"...");						
-		
-		Location regionCenter = getRegionCenter(region, false);
-		int min_x = regionCenter.getBlockX() - REGION_SIZE / 2;
-		int max_x = regionCenter.getBlockX() + REGION_SIZE / 2;			
-		int min_z = regionCenter.getBlockZ() - REGION_SIZE / 2;
-		int max_z = regionCenter.getBlockZ() + REGION_SIZE / 2;
-		
-		Chunk lesserBoundaryChunk = ManagedWorld.getChunkAt(new Location(ManagedWorld, min_x, 1, min_z));
-		Chunk greaterBoundaryChunk = ManagedWorld.getChunkAt(new Location(ManagedWorld, max_x, 1, max_z));
-				
-		ChunkSnapshot [][] snapshots = new ChunkSnapshot[greaterBoundaryChunk.getX() - lesserBoundaryChunk.getX() + 1][greaterBoundaryChunk.getZ() - lesserBoundaryChunk.getZ() + 1];
-		for(int x = 0; x < snapshots.length; x++)
-        {
-            for(int z = 0; z < snapshots[0].length; z++)
-            {
-                snapshots[x][z] = null;
-            }
-        }
+		if(!this.startScan(new RegionScan(region, openNewRegions, fullScan, false, false))) return false;
 		
-		boolean snapshotIncomplete;
-		do
+		AddLogEntry("Examining available resources in region \"" + region.toString() + "\"...");
+		return true;
+	}
+	
+	//estimates a region's resources from a random sample of its chunks, for the routine checks on the open region
+	//if the sample can't tell for sure whether the region is still suitable, the whole region is scanned after all
+	public boolean sampleRegion(RegionCoordinates region, boolean openNewRegions)
+	{
+		if(!this.config_sampledScans)
 		{
-			snapshotIncomplete = false;
+			return this.scanRegion(region, openNewRegions);
+		}
 		
-			for(int x = 0; x < snapshots.length; x++)
-			{
-				for(int z = 0; z < snapshots[0].length; z++)
-				{
-				    //skip chunks that we already have snapshots for
-				    if(snapshots[x][z] != null) continue;
-				    
-					//get the chunk, load it, generate it if necessary
-					Chunk chunk = ManagedWorld.getChunkAt(x + lesserBoundaryChunk.getX(), z + lesserBoundaryChunk.getZ());
-					if(chunk.isLoaded() || chunk.load(true))
-					{
-    					//take a snapshot
-    					ChunkSnapshot snapshot = chunk.getChunkSnapshot();
-    					
-    					//verify the snapshot by finding something that's not air
-    					boolean foundNonAir = false;
-    					for(int y = 0; y < ManagedWorld.getMaxHeight(); y++)
-    					{
-    						//if we find something, save the snapshot to the snapshot array
-    						if(snapshot.getBlockTypeId(0, y, 0) != Material.AIR.getId())
-    						{
-    							foundNonAir = true;
-    							snapshots[x][z] = snapshot;
-    							break;
-    						}
-    					}
-    					
-    					//otherwise, plan to repeat this process again after sleeping a bit
-    					if(!foundNonAir)
-    					{
-    						snapshotIncomplete = true;
-    					}	
-					}
-					else
-					{
-					    snapshotIncomplete = true;
-					}
-				}
-			}
-			
-			//if at least one snapshot was all air, sleep a second to let the chunk loader/generator
-			//catch up, and then try again
-			if(snapshotIncomplete)
-			{
-				try 
-				{
-					Thread.sleep(1000);
-				} 			
-				catch (InterruptedException e) { } 				
-			}
-			
-		}while(snapshotIncomplete);
+		if(!this.startScan(new RegionScan(region, openNewRegions, false, true, false))) return false;
 		
-		//create a new task with this information, which will more completely scan the content of all the snapshots
-		ScanRegionTask task = new ScanRegionTask(snapshots, openNewRegions);
-		task.setPriority(Thread.MIN_PRIORITY);
+		AddLogEntry("Sampling available resources in region \"" + region.toString() + "\"...");
+		return true;
+	}
+	
+	//scans a region which hasn't been added yet, ahead of time and at a slower pace
+	//the results go to the RegionPreScanner instead of the log
+	void preScanRegion(RegionCoordinates region)
+	{
+		this.startScan(new RegionScan(region, false, false, false, true));
+	}
+	
+	private boolean startScan(RegionScan scan)
+	{
+		if(this.scanScheduler.submit(scan)) return true;
 		
-		//run it in a separate thread		
-		task.start();		
+		AddLogEntry("Region \"" + scan.region.toString() + "\" already has a scan waiting or running, so another one wasn't started.");
+		return false;
+	}
+	
+	//worker threads shared by parallel region scans, created the first time they're needed
+	synchronized ForkJoinPool getScanPool()
+	{
+		if(this.scanPool == null)
+		{
+			this.scanPool = new ForkJoinPool(Math.max(2, this.config_scanThreads));
+		}
+	    
+		return this.scanPool;
 	}
 	
 	//ensures a piece of the managed world is loaded into server memory
@@ -0,0 +1,21 @@
+package me.ryanhamshire.PopulationDensity;
+
+//hands the results of a pre-scan back to the RegionPreScanner on the main thread
+//(results are null when a region file pre-scan didn't work out)
+class PreScanResultsTask implements Runnable
+{
+	private RegionCoordinates region;
+	private ScanResults results;
+
+	PreScanResultsTask(RegionCoordinates region, ScanResults results)
+	{
+		this.region = region;
+		this.results = results;
+	}
+
+	@Override
+	public void run()
+	{
+		PopulationDensity.instance.regionPreScanner.finished(this.region, this.results);
+	}
+}
@@ -22,8 +22,9 @@ import org.bukkit.Location;
 
 public class RegionCoordinates 
 {
-	public int x;
-	public int z;
+	//final, since instances are shared (see of())
+	public final int x;
+	public final int z;
 	
 	//basic boring stuff (yawn)
 	public RegionCoordinates(int x, int z)	
@@ -42,13 +43,84 @@ public class RegionCoordinates
 		
 		//keeping all regions the same size and arranging them in a strict grid makes this calculation supa-fast!
 		//that's important because we do it A LOT as players move, build, break blocks, and more
-		int x = location.getBlockX() / PopulationDensity.REGION_SIZE;
-		if(location.getX() < 0) x--;
-		
-		int z = location.getBlockZ() / PopulationDensity.REGION_SIZE;
-		if(location.getZ() < 0) z--;
-		
-		return new RegionCoordinates(x, z);		
+		return RegionCoordinates.of(fromBlock(location.getBlockX()), fromBlock(location.getBlockZ()));
+	}
+	
+	//given a block's X (or Z) coordinate, returns the X (or Z) coordinate of the region containing it
+	//no allocation, so event handlers can call this as often as they like
+	//NOTE: deliberately matches the original fromLocation() math (including its rounding at negative region edges),
+	//so every existing region keeps the exact same boundaries
+	public static int fromBlock(int blockCoordinate)
+	{
+		int region = blockCoordinate / PopulationDensity.REGION_SIZE;
+		if(blockCoordinate < 0) region--;
+		return region;
+	}
+	
+	//opposite of above - the block X (or Z) coordinate of a region's center, where its post is
+	public static int centerBlock(int regionCoordinate)
+	{
+		return regionCoordinate * PopulationDensity.REGION_SIZE + PopulationDensity.REGION_SIZE / 2;
+	}
+	
+	//the range of chunk X (or Z) coordinates a region scan covers, which includes the chunks on the edges of the next regions over
+	public static int lesserChunk(int regionCoordinate)
+	{
+		return (centerBlock(regionCoordinate) - PopulationDensity.REGION_SIZE / 2) >> 4;
+	}
+	
+	public static int greaterChunk(int regionCoordinate)
+	{
+		return (centerBlock(regionCoordinate) + PopulationDensity.REGION_SIZE / 2) >> 4;
+	}
+	
+	//whether a block (in the managed world) is inside this region
+	public boolean containsBlock(int blockX, int blockZ)
+	{
+		return fromBlock(blockX) == this.x && fromBlock(blockZ) == this.z;
+	}
+	
+	//shared instances for every region within some distance of 0,0 (grown as the region spiral grows)
+	//the grid is rebuilt and re-published whenever it grows, so readers never need a lock
+	private static final int MAX_CACHE_RADIUS = 128;
+	private static volatile RegionCoordinates [][] cache = new RegionCoordinates[][] { { new RegionCoordinates(0, 0) } };
+	
+	//returns the shared instance for these coordinates, or a new instance for far away coordinates outside the cache
+	public static RegionCoordinates of(int x, int z)
+	{
+		RegionCoordinates [][] cache = RegionCoordinates.cache;
+		int radius = cache.length / 2;
+		if(x < -radius || x > radius || z < -radius || z > radius) return new RegionCoordinates(x, z);
+	    
+		return cache[x + radius][z + radius];
+	}
+	
+	//makes sure every region within this many regions of 0,0 has a shared instance
+	//called whenever regions are added, so all existing regions are covered (up to MAX_CACHE_RADIUS)
+	static synchronized void growCache(int radius)
+	{
+		RegionCoordinates [][] oldCache = cache;
+		int oldRadius = oldCache.length / 2;
+		radius = Math.min(radius, MAX_CACHE_RADIUS);
+		if(radius <= oldRadius) return;
+	    
+		//leave some room, so the cache doesn't have to be rebuilt for every new region
+		radius = Math.min(Math.max(radius, oldRadius * 2), MAX_CACHE_RADIUS);
+	    
+		RegionCoordinates [][] newCache = new RegionCoordinates[radius * 2 + 1][radius * 2 + 1];
+		for(int x = -radius; x <= radius; x++)
+		{
+			for(int z = -radius; z <= radius; z++)
+			{
+				//keep the existing instances, so anything holding one still has THE instance for that region
+				if(x >= -oldRadius && x <= oldRadius && z >= -oldRadius && z <= oldRadius)
+					newCache[x + radius][z + radius] = oldCache[x + oldRadius][z + oldRadius];
+				else
+					newCache[x + radius][z + radius] = new RegionCoordinates(x, z);
+			}
+		}
+	    
+		cache = newCache;
 	}
 	
 	//converts a string representing region coordinates to a proper region coordinates object
@@ -89,6 +161,28 @@ public class RegionCoordinates
 	@Override
 	public int hashCode()
 	{
-	    return this.toString().hashCode();
+		return 31 * this.x + this.z;
+	}
+	
+	//packs region coordinates into a single long (x in the high 32 bits, z in the low 32 bits)
+	//used as the key for region lookups, so they don't need to allocate anything
+	public static long toKey(int x, int z)
+	{
+		return ((long)x << 32) | (z & 0xFFFFFFFFL);
+	}
+	
+	public long toKey()
+	{
+		return toKey(this.x, this.z);
+	}
+	
+	public static int keyX(long key)
+	{
+		return (int)(key >> 32);
+	}
+	
+	public static int keyZ(long key)
+	{
+		return (int)key;
 	}
 }
@@ -0,0 +1,89 @@
+package me.ryanhamshire.PopulationDensity;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+//all region names and coordinates in one small file, read with a single sequential read at startup
+//replaces the old RegionData folder layout (one file per region), which is now only read once to migrate
+//since version 2, also remembers the spiral index of the next region (see DataStore.findNextRegion())
+class RegionIndexFile
+{
+	private static final int MAGIC = 0x50445249;  //"PDRI"
+	private static final int VERSION = 2;
+
+	private final File file;
+
+	//spiral index saved with the regions read by load(), or -1 if there wasn't one
+	private long spiralIndex = -1;
+
+	RegionIndexFile(File file)
+	{
+		this.file = file;
+	}
+
+	boolean exists()
+	{
+		return this.file.exists();
+	}
+
+	//reads the whole index, as a map from RegionCoordinates.toKey() to region name
+	LongHashMap<String> load() throws IOException
+	{
+		byte [] bytes = Files.readAllBytes(this.file.toPath());
+		DataInputStream inStream = new DataInputStream(new ByteArrayInputStream(bytes));
+
+		if(inStream.readInt() != MAGIC) throw new IOException("Not a region index file: " + this.file.getPath());
+		int version = inStream.readInt();
+		if(version > VERSION) throw new IOException("Region index file version " + version + " is newer than this plugin understands.");
+
+		int count = inStream.readInt();
+		LongHashMap<String> regions = new LongHashMap<String>(count);
+		for(int i = 0; i < count; i++)
+		{
+			int x = inStream.readInt();
+			int z = inStream.readInt();
+			String name = inStream.readUTF();
+			regions.put(RegionCoordinates.toKey(x, z), name);
+		}
+
+		this.spiralIndex = version >= 2 ? inStream.readLong() : -1;
+
+		return regions;
+	}
+
+	long getSpiralIndex()
+	{
+		return this.spiralIndex;
+	}
+
+	//rewrites the whole index
+	//written to a temporary file first and then moved into place, so a crash never leaves a half-written index
+	void save(LongHashMap<String> regions, long spiralIndex) throws IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(24 + regions.size() * 24);
+		DataOutputStream outStream = new DataOutputStream(bytes);
+		outStream.writeInt(MAGIC);
+		outStream.writeInt(VERSION);
+		outStream.writeInt(regions.size());
+		for(int i = 0; i < regions.capacity(); i++)
+		{
+			String name = regions.valueAt(i);
+			if(name == null) continue;
+			outStream.writeInt(RegionCoordinates.keyX(regions.keyAt(i)));
+			outStream.writeInt(RegionCoordinates.keyZ(regions.keyAt(i)));
+			outStream.writeUTF(name);
+		}
+		outStream.writeLong(spiralIndex);
+		outStream.flush();
+
+		File tempFile = new File(this.file.getPath() + ".tmp");
+		Files.write(tempFile.toPath(), bytes.toByteArray());
+		Files.move(tempFile.toPath(), this.file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+}
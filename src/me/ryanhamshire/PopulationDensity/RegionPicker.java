@@ -0,0 +1,146 @@
+package me.ryanhamshire.PopulationDensity;
+
+import java.util.Random;
+
+import org.bukkit.entity.Player;
+
+//picks random regions for /RandomRegion without building a list of every region on each pick
+//keeps every region in one array, plus each region's position in it, so a uniform pick is a single random index
+//the weighted mode favors regions with fewer players in them right now, so random visitors spread out instead of piling in
+//with everyone else.  it uses the alias method (Vose), which also picks in constant time, from a table rebuilt at most once a minute
+//main thread only
+class RegionPicker
+{
+	//how long a weighted table is used before the players are counted again
+	private static final long WEIGHTS_REFRESH_MILLIS = 60 * 1000L;
+
+	//weighted picks which land on the region to avoid are retried this many times before falling back to a uniform pick
+	private static final int MAX_WEIGHTED_TRIES = 8;
+
+	private RegionCoordinates [] regions = new RegionCoordinates[16];
+	private int size = 0;
+
+	//positions in regions by RegionCoordinates.toKey()
+	private final LongHashMap<Integer> positions = new LongHashMap<Integer>();
+
+	private final Random random = new Random();
+
+	//alias table for the weighted mode, covering the first weightedSize regions
+	private double [] probability = new double[0];
+	private int [] alias = new int[0];
+	private int weightedSize = 0;
+	private long weightsTime = 0;
+
+	//adds a region if it isn't already here (renaming a region doesn't change anything)
+	void add(RegionCoordinates region)
+	{
+		if(this.positions.containsKey(region.toKey())) return;
+
+		if(this.size == this.regions.length)
+		{
+			RegionCoordinates [] grown = new RegionCoordinates[this.regions.length * 2];
+			System.arraycopy(this.regions, 0, grown, 0, this.size);
+			this.regions = grown;
+		}
+
+		this.positions.put(region.toKey(), this.size);
+		this.regions[this.size++] = region;
+	}
+
+	int size()
+	{
+		return this.size;
+	}
+
+	//a random region other than regionToAvoid (which may be null), or null if there aren't at least two regions
+	RegionCoordinates pick(RegionCoordinates regionToAvoid, boolean weighted)
+	{
+		if(this.size < 2) return null;
+
+		Integer avoid = regionToAvoid == null ? null : this.positions.get(regionToAvoid.toKey());
+		int avoidPosition = avoid == null ? -1 : avoid;
+
+		if(weighted)
+		{
+			this.refreshWeights();
+			for(int i = 0; i < MAX_WEIGHTED_TRIES; i++)
+			{
+				int position = this.pickWeighted();
+				if(position != avoidPosition) return this.regions[position];
+			}
+		}
+
+		//pick among the other regions by skipping over the avoided one
+		if(avoidPosition < 0) return this.regions[this.random.nextInt(this.size)];
+
+		int position = this.random.nextInt(this.size - 1);
+		if(position >= avoidPosition) position++;
+		return this.regions[position];
+	}
+
+	private int pickWeighted()
+	{
+		int column = this.random.nextInt(this.weightedSize);
+		return this.random.nextDouble() < this.probability[column] ? column : this.alias[column];
+	}
+
+	//rebuilds the alias table if regions were added since it was built, or it's older than WEIGHTS_REFRESH_MILLIS
+	private void refreshWeights()
+	{
+		long now = System.currentTimeMillis();
+		if(this.weightedSize == this.size && now - this.weightsTime < WEIGHTS_REFRESH_MILLIS) return;
+
+		int n = this.size;
+		int [] players = new int[n];
+		for(Player player : PopulationDensity.instance.getServer().getOnlinePlayers())
+		{
+			RegionCoordinates region = RegionCoordinates.fromLocation(player.getLocation());
+			if(region == null) continue;
+			Integer position = this.positions.get(region.toKey());
+			if(position != null) players[position]++;
+		}
+
+		//each region's weight is 1 / (1 + players in it), scaled so the weights average 1
+		double [] scaled = new double[n];
+		double total = 0;
+		for(int i = 0; i < n; i++)
+		{
+			scaled[i] = 1.0 / (1 + players[i]);
+			total += scaled[i];
+		}
+		for(int i = 0; i < n; i++) scaled[i] *= n / total;
+
+		//pair each under-weight column with an over-weight one which fills the rest of it
+		double [] probability = new double[n];
+		int [] alias = new int[n];
+		int [] small = new int[n];
+		int [] large = new int[n];
+		int smallCount = 0;
+		int largeCount = 0;
+		for(int i = 0; i < n; i++)
+		{
+			if(scaled[i] < 1) small[smallCount++] = i;
+			else large[largeCount++] = i;
+		}
+
+		while(smallCount > 0 && largeCount > 0)
+		{
+			int less = small[--smallCount];
+			int more = large[--largeCount];
+			probability[less] = scaled[less];
+			alias[less] = more;
+			scaled[more] = scaled[more] + scaled[less] - 1;
+			if(scaled[more] < 1) small[smallCount++] = more;
+			else large[largeCount++] = more;
+		}
+
+		//whatever's left is (up to rounding) exactly full
+		while(largeCount > 0) probability[large[--largeCount]] = 1;
+		while(smallCount > 0) probability[small[--smallCount]] = 1;
+
+		this.probability = probability;
+		this.alias = alias;
+		this.weightedSize = n;
+		this.weightsTime = now;
+	}
+}
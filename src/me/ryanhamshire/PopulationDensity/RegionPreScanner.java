@@ -0,0 +1,151 @@
+package me.ryanhamshire.PopulationDensity;
+
+import java.util.ArrayList;
+
+//scores the next few regions along the spiral (see DataStore.getUpcomingRegions()) before they're needed
+//runs every minute on the main thread, starting a slow pre-scan of the first candidate without current results
+//so when the open region runs low on resources, ScanResultsTask can skip straight past candidates already known to be poor
+//instead of adding and scanning them one at a time
+//when possible, candidates are read straight from the world's region files (see AnvilRegionScanner) instead of loading their chunks
+class RegionPreScanner implements Runnable
+{
+	//a pre-scan which never reports back (because of an error) stops blocking new ones after this long
+	private static final long MAX_PRE_SCAN_MILLIS = 30 * 60 * 1000L;
+
+	//how long onDisable waits for a region file pre-scan to stop
+	private static final long SHUTDOWN_WAIT_MILLIS = 5000L;
+
+	private static class PreScan
+	{
+		final ScanResults results;
+		final long time;
+
+		PreScan(ScanResults results, long time)
+		{
+			this.results = results;
+			this.time = time;
+		}
+	}
+
+	//results by RegionCoordinates.toKey(), only for regions which are still upcoming
+	private LongHashMap<PreScan> preScans = new LongHashMap<PreScan>();
+
+	//region being pre-scanned right now, if any
+	private RegionCoordinates scanning = null;
+	private long scanStart;
+
+	//the region file pre-scan running right now, if any
+	private AnvilPreScanTask anvilTask = null;
+
+	@Override
+	public void run()
+	{
+		if(this.scanning != null && System.currentTimeMillis() - this.scanStart < MAX_PRE_SCAN_MILLIS) return;
+		this.scanning = null;
+
+		int count = PopulationDensity.instance.config_preScanRegions;
+		if(count <= 0) return;
+
+		//no need to pre-scan while the open region isn't expected to run low any time soon
+		if(PopulationDensity.instance.scanPlanner != null && !PopulationDensity.instance.scanPlanner.isPreScanWanted()) return;
+
+		//keep only results for upcoming regions which are still current, and find the first region which needs a pre-scan
+		ArrayList<RegionCoordinates> upcoming = PopulationDensity.instance.dataStore.getUpcomingRegions(count);
+		LongHashMap<PreScan> current = new LongHashMap<PreScan>(count);
+		RegionCoordinates next = null;
+		for(RegionCoordinates region : upcoming)
+		{
+			PreScan preScan = this.preScans.get(region.toKey());
+			if(preScan != null && this.isCurrent(region, preScan))
+			{
+				current.put(region.toKey(), preScan);
+			}
+			else if(next == null)
+			{
+				next = region;
+			}
+		}
+		this.preScans = current;
+
+		if(next != null)
+		{
+			this.scanning = next;
+			this.scanStart = System.currentTimeMillis();
+
+			//region files don't have changes the server hasn't saved yet, so regions with recent changes are scanned live
+			if(PopulationDensity.instance.config_preScanFromRegionFiles && !PopulationDensity.instance.dataStore.getScanCache().hasDirtyChunks(next))
+			{
+				this.anvilTask = new AnvilPreScanTask(next, PopulationDensity.ManagedWorld.getWorldFolder(), PopulationDensity.ManagedWorld.getMaxHeight(), PopulationDensity.instance.minimumRegionPostY - 20);
+				this.anvilTask.start();
+			}
+			else
+			{
+				PopulationDensity.instance.preScanRegion(next);
+			}
+		}
+	}
+
+	//called by PreScanResultsTask when a pre-scan is done
+	//results are null when a region couldn't be read from region files, in which case it gets a live pre-scan instead
+	void finished(RegionCoordinates region, ScanResults results)
+	{
+		this.anvilTask = null;
+
+		if(results == null)
+		{
+			PopulationDensity.instance.preScanRegion(region);
+			return;
+		}
+
+		this.preScans.put(region.toKey(), new PreScan(results, System.currentTimeMillis()));
+		if(region.equals(this.scanning)) this.scanning = null;
+
+		PopulationDensity.AddLogEntry("Pre-scanned region \"" + region.toString() + "\": resource score " + results.resourceScore() + ", wood " + results.woodCount +
+				", player blocks " + results.playerBlocks + (results.isSuitable() ? " (suitable for new players)." : " (not suitable for new players)."));
+
+		//move on to the next candidate right away
+		this.run();
+	}
+
+	//called from onDisable, live pre-scans are stopped along with the rest of the ScanScheduler
+	//waits a moment for a region file pre-scan to stop, since it may be using the parallel scan threads, which are shut down next
+	void shutdown()
+	{
+		if(this.anvilTask != null)
+		{
+			this.anvilTask.cancel();
+			try
+			{
+				this.anvilTask.join(SHUTDOWN_WAIT_MILLIS);
+			}
+			catch(InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+			this.anvilTask = null;
+		}
+	}
+
+	//called by the ScanScheduler when a live pre-scan is cancelled
+	void cancelled(RegionCoordinates region)
+	{
+		if(region.equals(this.scanning)) this.scanning = null;
+	}
+
+	//returns pre-scan results for a region, or null if it hasn't been pre-scanned or has changed since
+	ScanResults getResults(RegionCoordinates region)
+	{
+		PreScan preScan = this.preScans.get(region.toKey());
+		if(preScan == null || !this.isCurrent(region, preScan)) return null;
+
+		return preScan.results;
+	}
+
+	//results expire like cached chunk results do, and as soon as anything in the region changes
+	private boolean isCurrent(RegionCoordinates region, PreScan preScan)
+	{
+		if(preScan.time < System.currentTimeMillis() - PopulationDensity.instance.config_scanCacheHours * 3600000L) return false;
+
+		return !PopulationDensity.instance.dataStore.getScanCache().hasDirtyChunks(region);
+	}
+}
@@ -0,0 +1,247 @@
+package me.ryanhamshire.PopulationDensity;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+//a sampled region scan looks at a few chunks from every part of the region instead of all of them
+//the region is split into a grid of strata, and a couple of random chunks are picked from each one
+//a chunk on its own can't tell what the rest of the flood fill reaches, so each sampled chunk gives a lower count and an upper count
+//(see ChunkScanSummary.addLocalCounts()), and the region totals are extrapolated from both, widened by a confidence interval
+//based on how much the sampled chunks in each stratum differ.  only clear-cut results are trusted, anything else needs a full scan
+class RegionSample
+{
+	private static final int STRATA_PER_SIDE = 6;
+	private static final int CHUNKS_PER_STRATUM = 2;
+
+	//about 99% confidence
+	private static final double Z = 2.576;
+
+	private final int sizeX;
+	private final int sizeZ;
+
+	//which chunks are in the sample
+	final boolean [][] sampled;
+	private int sampleCount = 0;
+
+	//extrapolated region totals, low end from the lower counts and high end from the upper counts
+	private double resourceLow;
+	private double resourceHigh;
+	private double woodLow;
+	private double woodHigh;
+	private double playerBlocksLow;
+	private double playerBlocksHigh;
+
+	RegionSample(int sizeX, int sizeZ, Random random)
+	{
+		this.sizeX = sizeX;
+		this.sizeZ = sizeZ;
+		this.sampled = new boolean[sizeX][sizeZ];
+
+		for(int stratumX = 0; stratumX < STRATA_PER_SIDE; stratumX++)
+		{
+			for(int stratumZ = 0; stratumZ < STRATA_PER_SIDE; stratumZ++)
+			{
+				int lesserX = this.lesserX(stratumX);
+				int lesserZ = this.lesserZ(stratumZ);
+				int width = this.lesserX(stratumX + 1) - lesserX;
+				int depth = this.lesserZ(stratumZ + 1) - lesserZ;
+
+				//pick distinct chunks by shuffling just the front of the stratum's list of chunks
+				int [] chunks = new int[width * depth];
+				for(int i = 0; i < chunks.length; i++) chunks[i] = i;
+				for(int i = 0; i < Math.min(CHUNKS_PER_STRATUM, chunks.length); i++)
+				{
+					int j = i + random.nextInt(chunks.length - i);
+					int chunk = chunks[j];
+					chunks[j] = chunks[i];
+					chunks[i] = chunk;
+
+					this.sampled[lesserX + chunk / depth][lesserZ + chunk % depth] = true;
+					this.sampleCount++;
+				}
+			}
+		}
+	}
+
+	private int lesserX(int stratumX)
+	{
+		return stratumX * this.sizeX / STRATA_PER_SIDE;
+	}
+
+	private int lesserZ(int stratumZ)
+	{
+		return stratumZ * this.sizeZ / STRATA_PER_SIDE;
+	}
+
+	int getSampleCount()
+	{
+		return this.sampleCount;
+	}
+
+	double getResourceLow()
+	{
+		return this.resourceLow;
+	}
+
+	double getWoodLow()
+	{
+		return this.woodLow;
+	}
+
+	//extrapolates the region's totals, once every sampled chunk has a summary
+	void estimate(ChunkScanSummary [][] summaries)
+	{
+		//sums of the totals' variances, for each count
+		Estimate resource = new Estimate();
+		Estimate wood = new Estimate();
+		Estimate playerBlocks = new Estimate();
+
+		for(int stratumX = 0; stratumX < STRATA_PER_SIDE; stratumX++)
+		{
+			for(int stratumZ = 0; stratumZ < STRATA_PER_SIDE; stratumZ++)
+			{
+				ArrayList<ScanResults> lowers = new ArrayList<ScanResults>();
+				ArrayList<ScanResults> uppers = new ArrayList<ScanResults>();
+				int chunkCount = 0;
+				for(int x = this.lesserX(stratumX); x < this.lesserX(stratumX + 1); x++)
+				{
+					for(int z = this.lesserZ(stratumZ); z < this.lesserZ(stratumZ + 1); z++)
+					{
+						chunkCount++;
+						if(!this.sampled[x][z]) continue;
+
+						ScanResults lower = new ScanResults();
+						ScanResults upper = new ScanResults();
+						summaries[x][z].addLocalCounts(lower, upper);
+						lowers.add(lower);
+						uppers.add(upper);
+					}
+				}
+				if(lowers.isEmpty()) continue;
+
+				double [] values = new double[lowers.size()];
+				for(int i = 0; i < values.length; i++) values[i] = lowers.get(i).resourceScore();
+				resource.addLower(values, chunkCount);
+				for(int i = 0; i < values.length; i++) values[i] = uppers.get(i).resourceScore();
+				resource.addUpper(values, chunkCount);
+
+				for(int i = 0; i < values.length; i++) values[i] = lowers.get(i).woodCount;
+				wood.addLower(values, chunkCount);
+				for(int i = 0; i < values.length; i++) values[i] = uppers.get(i).woodCount;
+				wood.addUpper(values, chunkCount);
+
+				for(int i = 0; i < values.length; i++) values[i] = lowers.get(i).playerBlocks;
+				playerBlocks.addLower(values, chunkCount);
+				for(int i = 0; i < values.length; i++) values[i] = uppers.get(i).playerBlocks;
+				playerBlocks.addUpper(values, chunkCount);
+			}
+		}
+
+		this.resourceLow = resource.low();
+		this.resourceHigh = resource.high();
+		this.woodLow = wood.low();
+		this.woodHigh = wood.high();
+		this.playerBlocksLow = playerBlocks.low();
+		this.playerBlocksHigh = playerBlocks.high();
+	}
+
+	//stratified estimate of one region total: the sum over strata of (chunks in stratum * sample mean),
+	//with variance chunks^2 * (1 - sampled / chunks) * sample variance / sampled
+	private static class Estimate
+	{
+		private double lowerTotal = 0;
+		private double lowerVariance = 0;
+		private double upperTotal = 0;
+		private double upperVariance = 0;
+
+		void addLower(double [] values, int chunkCount)
+		{
+			this.lowerTotal += chunkCount * mean(values);
+			this.lowerVariance += variance(values, chunkCount);
+		}
+
+		void addUpper(double [] values, int chunkCount)
+		{
+			this.upperTotal += chunkCount * mean(values);
+			this.upperVariance += variance(values, chunkCount);
+		}
+
+		double low()
+		{
+			return Math.max(0, this.lowerTotal - Z * Math.sqrt(this.lowerVariance));
+		}
+
+		double high()
+		{
+			return this.upperTotal + Z * Math.sqrt(this.upperVariance);
+		}
+
+		private static double mean(double [] values)
+		{
+			double sum = 0;
+			for(double value : values) sum += value;
+			return sum / values.length;
+		}
+
+		//with a single sampled chunk there's no spread to measure, so assume the worst: anything from 0 to double
+		private static double variance(double [] values, int chunkCount)
+		{
+			int n = values.length;
+			double mean = mean(values);
+			double sampleVariance;
+			if(n < 2)
+			{
+				sampleVariance = mean * mean;
+			}
+			else
+			{
+				double squares = 0;
+				for(double value : values) squares += (value - mean) * (value - mean);
+				sampleVariance = squares / (n - 1);
+			}
+
+			return (double)chunkCount * chunkCount * (1 - n / (double)chunkCount) * sampleVariance / n;
+		}
+	}
+
+	//clearly good enough for new players, even at the pessimistic end of every estimate
+	boolean isSuitable()
+	{
+		return this.resourceLow >= PopulationDensity.instance.resourceMinimum &&
+			   this.woodLow >= PopulationDensity.instance.woodMinimum &&
+			   this.playerBlocksHigh <= 40000 * PopulationDensity.instance.densityRatio;
+	}
+
+	//clearly not good enough, even at the optimistic end of some estimate
+	boolean isUnsuitable()
+	{
+		return this.resourceHigh < PopulationDensity.instance.resourceMinimum ||
+			   this.woodHigh < PopulationDensity.instance.woodMinimum ||
+			   this.playerBlocksLow > 40000 * PopulationDensity.instance.densityRatio;
+	}
+
+	//the report which goes into the log after a sampled scan
+	void addLogEntries(ArrayList<String> logEntries)
+	{
+		logEntries.add("");
+		logEntries.add("Sampled Region Scan Results (" + this.sampleCount + " of " + (this.sizeX * this.sizeZ) + " chunks, 99% confidence) :");
+		logEntries.add("");
+		logEntries.add("          Wood :" + (long)this.woodLow + " to " + (long)this.woodHigh + "  (Minimum: " + PopulationDensity.instance.woodMinimum + ")");
+		logEntries.add("Resource Score :" + (long)this.resourceLow + " to " + (long)this.resourceHigh + "  (Minimum: " + PopulationDensity.instance.resourceMinimum + ")");
+		logEntries.add(" Player Blocks :" + (long)this.playerBlocksLow + " to " + (long)this.playerBlocksHigh + "  (Maximum: " + (PopulationDensity.instance.densityRatio * 40000) + ")");
+		logEntries.add("");
+
+		if(this.isSuitable())
+		{
+			logEntries.add("Summary: Looks good!  This region is suitable for new players.");
+		}
+		else if(this.isUnsuitable())
+		{
+			logEntries.add("Summary: This region clearly isn't suitable for new players any more.");
+		}
+		else
+		{
+			logEntries.add("Summary: Too close to call, so the whole region will be scanned.");
+		}
+	}
+}
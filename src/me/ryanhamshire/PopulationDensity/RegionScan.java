@@ -0,0 +1,59 @@
+package me.ryanhamshire.PopulationDensity;
+
+//one requested scan of a region, from the time it's queued by the ScanScheduler until it's done or cancelled
+//the scan's tasks update its progress as they go, and check whether it's been cancelled
+class RegionScan
+{
+	static final int QUEUED = 0;
+	static final int COLLECTING = 1;
+	static final int SCANNING = 2;
+
+	final RegionCoordinates region;
+	final boolean preScan;
+
+	//requests for a region which is already queued are folded into the queued scan (guarded by the ScanScheduler)
+	boolean openNewRegions;
+	boolean fullScan;
+	boolean sampled;
+
+	volatile int state = QUEUED;
+	volatile boolean cancelled = false;
+
+	//chunks with a snapshot or reused cached results so far, out of the chunks the scan needs
+	volatile int processedChunks = 0;
+	volatile int totalChunks = 0;
+
+	//when the scan started collecting chunks
+	long startTime;
+
+	RegionScan(RegionCoordinates region, boolean openNewRegions, boolean fullScan, boolean sampled, boolean preScan)
+	{
+		this.region = region;
+		this.openNewRegions = openNewRegions;
+		this.fullScan = fullScan;
+		this.sampled = sampled;
+		this.preScan = preScan;
+	}
+
+	int getPercentDone()
+	{
+		int total = this.totalChunks;
+		if(total == 0) return 0;
+		return (int)(this.processedChunks * 100L / total);
+	}
+
+	String getKind()
+	{
+		if(this.preScan) return "Pre-scan";
+		if(this.sampled) return "Sampled scan";
+		if(this.fullScan) return "Full scan";
+		return "Scan";
+	}
+
+	String getStateName()
+	{
+		if(this.state == QUEUED) return "waiting";
+		if(this.state == COLLECTING) return "collecting chunks";
+		return "scanning";
+	}
+}
@@ -0,0 +1,364 @@
+package me.ryanhamshire.PopulationDensity;
+
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.Material;
+
+//flood fills the air (and other pass-through blocks) of a grid of chunk snapshots from the sky downward,
+//counting the resources and player blocks a player could reach without digging
+//visited blocks are tracked in a packed bitmap (one bit per block) and the work queue holds packed ints,
+//so once the scanner is set up, the fill itself doesn't allocate anything
+//with skipEmptySections, the all-air sections at the top of each chunk are never walked block by block:
+//they form connected slabs of sky, so the first time the fill touches one, it jumps straight to the slab's edges
+class RegionScanner
+{
+	static final int CHUNK_SIZE = 16;
+	static final int SECTION_HEIGHT = 16;
+
+	//what each block type ID is to a scan: OPEN for pass-through blocks, otherwise its ScanResults category (maybe NOT_COUNTED)
+	//built once from the material checks below, so scans only need an array lookup per block
+	static final int OPEN = -2;
+	private static final byte [] KINDS = buildKinds();
+
+	private final ChunkSnapshot [][] chunks;
+	private final int sizeX;
+	private final int sizeZ;
+	private final int height;
+
+	//if a player has to brave cavernous depths, those resources aren't "easily attainable"
+	private final int minY;
+
+	//queued positions are packed as x << xShift | z << zShift | y
+	private final int zShift;
+	private final int xShift;
+	private final int zMask;
+	private final int yMask;
+
+	//one bit per block, indexed by (x * sizeZ + z) * height + y
+	private final long [] visited;
+
+	//packed positions waiting to be examined
+	private final IntQueue queue = new IntQueue(1 << 16);
+
+	//by chunk (chunk x * chunk count z + chunk z): lowest y of the sky slab (height if there isn't one),
+	//and which connected group of slabs it's in
+	private final boolean skipEmptySections;
+	private int [] slabBottoms;
+	private int [] slabGroups;
+	private boolean [] slabGroupReached;
+	private int skippedSections = 0;
+
+	RegionScanner(ChunkSnapshot [][] chunks, int height, int minY, boolean skipEmptySections)
+	{
+		this.skipEmptySections = skipEmptySections;
+		this.chunks = chunks;
+		this.sizeX = chunks.length * CHUNK_SIZE;
+		this.sizeZ = chunks.length == 0 ? 0 : chunks[0].length * CHUNK_SIZE;
+		this.height = height;
+		this.minY = minY;
+
+		int yBits = bitsFor(height);
+		int zBits = bitsFor(this.sizeZ);
+		if(yBits + zBits + bitsFor(this.sizeX) > 31) throw new IllegalArgumentException("Scan area too large: " + this.sizeX + "x" + this.sizeZ + "x" + height);
+		this.zShift = yBits;
+		this.xShift = yBits + zBits;
+		this.yMask = (1 << yBits) - 1;
+		this.zMask = (1 << zBits) - 1;
+
+		long blocks = (long)this.sizeX * this.sizeZ * height;
+		this.visited = new long[(int)((blocks + 63) >>> 6)];
+	}
+
+	//number of bits needed to store values from 0 to size - 1
+	static int bitsFor(int size)
+	{
+		return size <= 1 ? 1 : 32 - Integer.numberOfLeadingZeros(size - 1);
+	}
+
+	//approximate memory used by the scanner itself (not counting the snapshots)
+	long getMemoryBytes()
+	{
+		return this.visited.length * 8L + this.queue.capacity() * 4L;
+	}
+
+	//number of empty sections the last scan didn't need to look at
+	int getSkippedSections()
+	{
+		return this.skippedSections;
+	}
+
+	ScanResults scan()
+	{
+		ScanResults results = new ScanResults();
+		if(this.skipEmptySections) this.findSlabs();
+
+		//find a reasonable start position
+		int top = this.height - 1;
+		boolean foundStart = false;
+		for(int x = 0; x < this.sizeX && !foundStart; x++)
+		{
+			for(int z = 0; z < this.sizeZ && !foundStart; z++)
+			{
+				if(getTypeIDAt(this.chunks, x, top, z) == 0)
+				{
+					this.visit(x, top, z);
+					foundStart = true;
+				}
+			}
+		}
+
+		//as long as there are positions in the queue, keep going
+		while(!this.queue.isEmpty())
+		{
+			//dequeue a block
+			int packed = this.queue.remove();
+
+			int x = packed >>> this.xShift;
+			int z = (packed >>> this.zShift) & this.zMask;
+			int y = packed & this.yMask;
+
+			//deep blocks aren't "easily attainable", so they don't count and the fill doesn't spread through them
+			if(y < this.minY) continue;
+
+			//if it's not a pass-through block, count it
+			int kind = kindAt(this.chunks, x, y, z);
+			if(kind != OPEN)
+			{
+				if(kind != ScanResults.NOT_COUNTED) results.add(kind, 1);
+			}
+
+			//otherwise for pass-through blocks, visit the blocks around them
+			else
+			{
+				if(x + 1 < this.sizeX) this.visit(x + 1, y, z);
+				if(x > 0) this.visit(x - 1, y, z);
+				if(z + 1 < this.sizeZ) this.visit(x, y, z + 1);
+				if(z > 0) this.visit(x, y, z - 1);
+				if(y + 1 < this.height) this.visit(x, y + 1, z);
+				if(y > 0) this.visit(x, y - 1, z);
+			}
+		}
+
+		return results;
+	}
+
+	//marks a block as examined and queues it for processing, unless it was already examined
+	private void visit(int x, int y, int z)
+	{
+		if(this.slabBottoms != null)
+		{
+			int chunk = (x / CHUNK_SIZE) * (this.sizeZ / CHUNK_SIZE) + z / CHUNK_SIZE;
+			if(y >= this.slabBottoms[chunk])
+			{
+				this.reachSlabGroup(this.slabGroups[chunk]);
+				return;
+			}
+		}
+
+		long index = ((long)x * this.sizeZ + z) * this.height + y;
+		int word = (int)(index >>> 6);
+		long bit = 1L << index;
+		if((this.visited[word] & bit) != 0) return;
+		this.visited[word] |= bit;
+
+		this.queue.add((x << this.xShift) | (z << this.zShift) | y);
+	}
+
+	//each chunk's sky slab is the empty sections at its top (but nothing below minY, where the fill doesn't spread)
+	//slabs in neighbouring chunks always overlap at the top of the world, so they're grouped by chunk adjacency
+	private void findSlabs()
+	{
+		int chunksX = this.sizeX / CHUNK_SIZE;
+		int chunksZ = this.sizeZ / CHUNK_SIZE;
+		this.slabBottoms = new int[chunksX * chunksZ];
+		this.slabGroups = new int[chunksX * chunksZ];
+		for(int cx = 0; cx < chunksX; cx++)
+		{
+			for(int cz = 0; cz < chunksZ; cz++)
+			{
+				ChunkSnapshot snapshot = this.chunks[cx][cz];
+				int section = this.height / SECTION_HEIGHT - 1;
+				while(section >= 0 && snapshot.isSectionEmpty(section)) section--;
+				int bottom = Math.max((section + 1) * SECTION_HEIGHT, this.minY);
+				this.slabBottoms[cx * chunksZ + cz] = bottom;
+				if(bottom < this.height) this.skippedSections += (this.height - bottom) / SECTION_HEIGHT;
+			}
+		}
+
+		//label the groups (0 for chunks without a slab)
+		int groupCount = 0;
+		IntQueue chunkQueue = new IntQueue(64);
+		for(int start = 0; start < this.slabGroups.length; start++)
+		{
+			if(this.slabBottoms[start] >= this.height || this.slabGroups[start] != 0) continue;
+
+			int group = ++groupCount;
+			this.slabGroups[start] = group;
+			chunkQueue.add(start);
+			while(!chunkQueue.isEmpty())
+			{
+				int chunk = chunkQueue.remove();
+				int cx = chunk / chunksZ;
+				int cz = chunk % chunksZ;
+				if(cx + 1 < chunksX) this.groupSlab(chunk + chunksZ, group, chunkQueue);
+				if(cx > 0) this.groupSlab(chunk - chunksZ, group, chunkQueue);
+				if(cz + 1 < chunksZ) this.groupSlab(chunk + 1, group, chunkQueue);
+				if(cz > 0) this.groupSlab(chunk - 1, group, chunkQueue);
+			}
+		}
+
+		this.slabGroupReached = new boolean[groupCount + 1];
+	}
+
+	private void groupSlab(int chunk, int group, IntQueue chunkQueue)
+	{
+		if(this.slabBottoms[chunk] >= this.height || this.slabGroups[chunk] != 0) return;
+		this.slabGroups[chunk] = group;
+		chunkQueue.add(chunk);
+	}
+
+	//the fill reached a slab, so it reaches every block in that slab's group
+	//instead of walking them, visit the blocks bordering the group: the layer under each slab,
+	//and the sides of neighbouring chunks whose slabs don't reach down as far
+	private void reachSlabGroup(int group)
+	{
+		if(this.slabGroupReached[group]) return;
+		this.slabGroupReached[group] = true;
+
+		int chunksX = this.sizeX / CHUNK_SIZE;
+		int chunksZ = this.sizeZ / CHUNK_SIZE;
+		for(int chunk = 0; chunk < this.slabGroups.length; chunk++)
+		{
+			if(this.slabGroups[chunk] != group) continue;
+
+			int bottom = this.slabBottoms[chunk];
+			int baseX = (chunk / chunksZ) * CHUNK_SIZE;
+			int baseZ = (chunk % chunksZ) * CHUNK_SIZE;
+			if(bottom > 0)
+			{
+				for(int x = baseX; x < baseX + CHUNK_SIZE; x++)
+				{
+					for(int z = baseZ; z < baseZ + CHUNK_SIZE; z++)
+					{
+						this.visit(x, bottom - 1, z);
+					}
+				}
+			}
+
+			for(int i = 0; i < CHUNK_SIZE; i++)
+			{
+				if(baseX + CHUNK_SIZE < this.sizeX) this.visitSide(baseX + CHUNK_SIZE, baseZ + i, bottom, this.slabBottoms[chunk + chunksZ]);
+				if(baseX > 0) this.visitSide(baseX - 1, baseZ + i, bottom, this.slabBottoms[chunk - chunksZ]);
+				if(baseZ + CHUNK_SIZE < this.sizeZ) this.visitSide(baseX + i, baseZ + CHUNK_SIZE, bottom, this.slabBottoms[chunk + 1]);
+				if(baseZ > 0) this.visitSide(baseX + i, baseZ - 1, bottom, this.slabBottoms[chunk - 1]);
+			}
+		}
+	}
+
+	//visits the blocks of a neighbouring chunk's column which are beside a slab but under the neighbour's own slab
+	private void visitSide(int x, int z, int bottom, int neighbourBottom)
+	{
+		for(int y = bottom; y < neighbourBottom && y < this.height; y++)
+		{
+			this.visit(x, y, z);
+		}
+	}
+
+	static int getTypeIDAt(ChunkSnapshot [][] chunks, int x, int y, int z)
+	{
+		return chunks[x / CHUNK_SIZE][z / CHUNK_SIZE].getBlockTypeId(x % CHUNK_SIZE, y, z % CHUNK_SIZE);
+	}
+
+	static int kindAt(ChunkSnapshot [][] chunks, int x, int y, int z)
+	{
+		return kindOf(getTypeIDAt(chunks, x, y, z));
+	}
+
+	//OPEN, or a ScanResults category (unknown block types are NOT_COUNTED, and the fill doesn't spread through them)
+	static int kindOf(int typeID)
+	{
+		if(typeID < 0 || typeID >= KINDS.length) return ScanResults.NOT_COUNTED;
+		return KINDS[typeID];
+	}
+
+	@SuppressWarnings("deprecation")
+	private static byte [] buildKinds()
+	{
+		byte [] kinds = new byte[4096];
+		for(int typeID = 0; typeID < kinds.length; typeID++)
+		{
+			Material material = Material.getMaterial(typeID);
+			if(material == null) kinds[typeID] = ScanResults.NOT_COUNTED;
+			else if(isPassThrough(material)) kinds[typeID] = OPEN;
+			else kinds[typeID] = (byte)category(material);
+		}
+
+		return kinds;
+	}
+
+	//blocks which air (and players) can pass through
+	static boolean isPassThrough(Material material)
+	{
+		return  material == Material.AIR ||
+				material == Material.WOOD_DOOR ||
+				material == Material.WOODEN_DOOR ||
+				material == Material.IRON_DOOR_BLOCK ||
+				material == Material.TRAP_DOOR ||
+				material == Material.LADDER;
+	}
+
+	//what a solid block which borders the open air counts as (see ScanResults)
+	static int category(Material material)
+	{
+		//if it's a valuable resource, count it
+		if      (material == Material.LOG) return ScanResults.WOOD;
+		else if (material == Material.LOG_2) return ScanResults.WOOD;
+		else if (material == Material.COAL_ORE) return ScanResults.COAL;
+		else if (material == Material.IRON_ORE) return ScanResults.IRON;
+		else if (material == Material.GOLD_ORE) return ScanResults.GOLD;
+		else if (material == Material.REDSTONE_ORE) return ScanResults.REDSTONE;
+		else if (material == Material.DIAMOND_ORE) return ScanResults.DIAMOND;
+
+		//if it's a player block, count it
+		else if (
+				material != Material.WATER &&
+				material != Material.STATIONARY_LAVA &&
+				material != Material.STATIONARY_WATER &&
+				material != Material.BROWN_MUSHROOM &&
+				material != Material.CACTUS &&
+				material != Material.DEAD_BUSH &&
+				material != Material.DIRT &&
+				material != Material.GRAVEL &&
+				material != Material.GRASS &&
+				material != Material.HUGE_MUSHROOM_1 &&
+				material != Material.HUGE_MUSHROOM_2 &&
+				material != Material.ICE &&
+				material != Material.LAPIS_ORE &&
+				material != Material.LAVA &&
+				material != Material.OBSIDIAN &&
+				material != Material.RED_MUSHROOM &&
+				material != Material.RED_ROSE &&
+				material != Material.LEAVES &&
+				material != Material.LEAVES_2 &&
+				material != Material.LOG &&
+				material != Material.LOG_2 &&
+				material != Material.LONG_GRASS &&
+				material != Material.SAND &&
+				material != Material.SANDSTONE &&
+				material != Material.SNOW &&
+				material != Material.STONE &&
+				material != Material.VINE &&
+				material != Material.WATER_LILY &&
+				material != Material.YELLOW_FLOWER &&
+				material != Material.MOSSY_COBBLESTONE &&
+				material != Material.CLAY &&
+				material != Material.STAINED_CLAY &&
+				material != Material.SUGAR_CANE_BLOCK &&
+				material != Material.PACKED_ICE &&
+				material != Material.DOUBLE_PLANT)
+		{
+			return ScanResults.PLAYER_BLOCK;
+		}
+
+		return ScanResults.NOT_COUNTED;
+	}
+}
@@ -0,0 +1,106 @@
+package me.ryanhamshire.PopulationDensity;
+
+//walks the grid of regions in the same tight spiral new regions are added in, starting at 0,0:
+//(0 0), (0 1), (-1 1), (-1 0), (-1 -1), (0 -1), (1 -1), (1 0), (1 1), (1 2), ...
+class RegionSpiral
+{
+	//directions, in the order the spiral turns
+	private static final int DOWN = 0;   //+z
+	private static final int LEFT = 1;   //-x
+	private static final int UP = 2;     //-z
+	private static final int RIGHT = 3;  //+x
+
+	//current position
+	int x = 0;
+	int z = 0;
+
+	private int direction = DOWN;
+	private int sideLength = 1;   //maximum number of regions to move in this direction before changing directions
+	private int stepsOnSide = 0;  //regions moved so far in this direction
+	private int side = 0;         //increments each time we change directions.  this tells us when to add length to each side
+
+	//the coordinates at a position in the spiral (0 is 0,0), without walking there
+	//the spiral is made of pairs of sides: pair m has two sides of m + 1 regions each, and starts at index m * (m + 1)
+	//even pairs go down then left, odd pairs go up then right, and each pair starts on the diagonal x == -z
+	static RegionCoordinates at(long index)
+	{
+		long m = (long)((Math.sqrt(4.0 * index + 1) - 1) / 2);
+		while(m * (m + 1) > index) m--;
+		while((m + 1) * (m + 2) <= index) m++;
+
+		long start = (m % 2 == 0) ? m / 2 : -(m + 1) / 2;
+		long step = index - m * (m + 1);
+		long firstSide = Math.min(step, m + 1);
+		long secondSide = step - firstSide;
+
+		long x = start;
+		long z = -start;
+		if(m % 2 == 0)
+		{
+			z += firstSide;
+			x -= secondSide;
+		}
+		else
+		{
+			z -= firstSide;
+			x += secondSide;
+		}
+
+		return RegionCoordinates.of((int)x, (int)z);
+	}
+
+	//the position of a region in the spiral, the inverse of at()
+	static long indexOf(int regionX, int regionZ)
+	{
+		long x = regionX;
+		long z = regionZ;
+
+		//right side of an even pair (going down)
+		if(x >= 0 && z >= -x && z <= x + 1)
+		{
+			long m = 2 * x;
+			return m * (m + 1) + (z + x);
+		}
+
+		//bottom side of an even pair (going left)
+		if(z >= 1 && x >= -z && x <= z - 2)
+		{
+			long k = z - 1;
+			long m = 2 * k;
+			return m * (m + 1) + (m + 1) + (k - x);
+		}
+
+		//left side of an odd pair (going up)
+		if(x < 0 && z >= x && z <= -x)
+		{
+			long k = -x;
+			long m = 2 * k - 1;
+			return m * (m + 1) + (k - z);
+		}
+
+		//top side of an odd pair (going right)
+		long k = -z;
+		long m = 2 * k - 1;
+		return m * (m + 1) + (m + 1) + (x + k);
+	}
+
+	//moves to the next region in the spiral
+	void advance()
+	{
+		if(this.direction == DOWN) this.z++;
+		else if(this.direction == LEFT) this.x--;
+		else if(this.direction == UP) this.z--;
+		else this.x++;
+
+		//after finishing a side, change directions
+		if(++this.stepsOnSide == this.sideLength)
+		{
+			this.stepsOnSide = 0;
+			this.direction = (this.direction + 1) % 4;
+			this.side++;
+
+			//on even-numbered sides starting with side == 2, increase the length of each side
+			if(this.side % 2 == 0) this.sideLength++;
+		}
+	}
+}
@@ -0,0 +1,453 @@
+package me.ryanhamshire.PopulationDensity;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.bukkit.block.Block;
+
+//remembers per-chunk scan results (see ChunkScanSummary) so rescans only need to load and scan chunks which changed
+//summaries are saved in one file per region, and the most recently scanned region's are also kept in memory
+//block changes reported by the event handlers mark chunks dirty, which makes the next scan of their region redo them
+//dirty chunks are kept in cells of 32x32 chunks, so marking one doesn't allocate, and only while their regions might be scanned again soon
+class ScanCache
+{
+	private static final int MAGIC = 0x50445343;  //"PDSC"
+	private static final int VERSION = 1;
+	private static final int DIRTY_MAGIC = 0x50444443;  //"PDDC"
+
+	//a cell is one stamp per chunk, then how many of them are dirty
+	private static final int CELL_SHIFT = 5;
+	private static final int CELL_MASK = (1 << CELL_SHIFT) - 1;
+	private static final int CELL_CHUNKS = 1 << (CELL_SHIFT * 2);
+
+	private final File folder;
+	private final File dirtyChunksFile;
+
+	//cells with chunks changed since they were last scanned, by RegionCoordinates.toKey(cellX, cellZ) (guarded by dirtyCells)
+	//each dirty chunk has a stamp which changes whenever the chunk is marked again, so saving a scan's results only clears the changes that scan saw
+	private final LongHashMap<int []> dirtyCells = new LongHashMap<int []>();
+	private int lastStamp = 0;
+
+	//whether the dirty chunk list was lost at startup, in which case nothing scanned before can be trusted (see DataStore)
+	private boolean cleared = false;
+
+	//the most recently loaded or saved region (guarded by this)
+	private RegionCoordinates memoryRegion = null;
+	private int memoryLesserChunkX;
+	private int memoryLesserChunkZ;
+	private ChunkScanSummary [][] memorySummaries = null;
+
+	ScanCache(File folder)
+	{
+		this.folder = folder;
+		this.folder.mkdirs();
+		this.dirtyChunksFile = new File(folder, "DirtyChunks.dat");
+		this.loadDirtyChunks();
+
+		//scans don't keep the summaries up to date while incremental scans are off, so they can't be trusted if it's turned back on
+		//(the dirty chunks are still tracked, since the scan history and pre-scans go by them)
+		if(!PopulationDensity.instance.config_incrementalScans) this.deleteSummaries("incremental region scans are turned off");
+	}
+
+	void markDirty(int chunkX, int chunkZ)
+	{
+		synchronized(this.dirtyCells)
+		{
+			long key = RegionCoordinates.toKey(chunkX >> CELL_SHIFT, chunkZ >> CELL_SHIFT);
+			int [] cell = this.dirtyCells.get(key);
+			if(cell == null)
+			{
+				cell = new int[CELL_CHUNKS + 1];
+				this.dirtyCells.put(key, cell);
+			}
+
+			int index = cellIndex(chunkX, chunkZ);
+			if(cell[index] == 0) cell[CELL_CHUNKS]++;
+			if(++this.lastStamp == 0) this.lastStamp = 1;
+			cell[index] = this.lastStamp;
+		}
+	}
+
+	private static int cellIndex(int chunkX, int chunkZ)
+	{
+		return ((chunkX & CELL_MASK) << CELL_SHIFT) | (chunkZ & CELL_MASK);
+	}
+
+	void markDirty(Block block)
+	{
+		this.markDirty(block.getX() >> 4, block.getZ() >> 4);
+	}
+
+	boolean isDirty(int chunkX, int chunkZ)
+	{
+		return this.getDirtyStamp(chunkX, chunkZ) != 0;
+	}
+
+	//called when a chunk's snapshot is taken for a scan, returns its stamp (or 0 if it isn't dirty) for save() or clearDirty() to clear
+	//the chunk stays dirty until then, so a scan which is cancelled or fails part way through doesn't lose track of the change
+	int getDirtyStamp(int chunkX, int chunkZ)
+	{
+		synchronized(this.dirtyCells)
+		{
+			int [] cell = this.dirtyCells.get(RegionCoordinates.toKey(chunkX >> CELL_SHIFT, chunkZ >> CELL_SHIFT));
+			return cell == null ? 0 : cell[cellIndex(chunkX, chunkZ)];
+		}
+	}
+
+	boolean hasDirtyChunks(RegionCoordinates region)
+	{
+		int greaterChunkX = RegionCoordinates.greaterChunk(region.x);
+		int greaterChunkZ = RegionCoordinates.greaterChunk(region.z);
+		for(int chunkX = RegionCoordinates.lesserChunk(region.x); chunkX <= greaterChunkX; chunkX++)
+		{
+			for(int chunkZ = RegionCoordinates.lesserChunk(region.z); chunkZ <= greaterChunkZ; chunkZ++)
+			{
+				if(this.isDirty(chunkX, chunkZ)) return true;
+			}
+		}
+
+		return false;
+	}
+
+	private File regionFile(RegionCoordinates region)
+	{
+		return new File(this.folder, region.toString() + ".dat");
+	}
+
+	//returns the cached summaries for a region's chunks, with nulls for chunks which haven't been scanned
+	//(or everything null, if the world height or scan depth changed since they were saved)
+	ChunkScanSummary [][] load(RegionCoordinates region, int lesserChunkX, int lesserChunkZ, int sizeX, int sizeZ, int height, int minY)
+	{
+		ChunkScanSummary [][] summaries = new ChunkScanSummary[sizeX][sizeZ];
+
+		synchronized(this)
+		{
+			if(region.equals(this.memoryRegion) && lesserChunkX == this.memoryLesserChunkX && lesserChunkZ == this.memoryLesserChunkZ &&
+					this.memorySummaries.length == sizeX && this.memorySummaries[0].length == sizeZ)
+			{
+				for(int x = 0; x < sizeX; x++)
+				{
+					summaries[x] = this.memorySummaries[x].clone();
+				}
+				return summaries;
+			}
+		}
+
+		File file = this.regionFile(region);
+		if(!file.exists()) return summaries;
+
+		DataInputStream inStream = null;
+		try
+		{
+			inStream = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file), 65536)));
+			if(inStream.readInt() != MAGIC) throw new IOException("Not a scan cache file.");
+			if(inStream.readInt() != VERSION) return summaries;
+
+			//anything saved with different scan settings is useless
+			if(inStream.readInt() != lesserChunkX || inStream.readInt() != lesserChunkZ ||
+			   inStream.readInt() != sizeX || inStream.readInt() != sizeZ ||
+			   inStream.readInt() != height || inStream.readInt() != minY)
+			{
+				return summaries;
+			}
+
+			for(int x = 0; x < sizeX; x++)
+			{
+				for(int z = 0; z < sizeZ; z++)
+				{
+					if(inStream.readBoolean()) summaries[x][z] = ChunkScanSummary.read(inStream);
+				}
+			}
+		}
+		catch(IOException e)
+		{
+			PopulationDensity.AddLogEntry("Unable to read scan cache " + file.getName() + ", the region will be fully scanned: " + e.getMessage());
+			return new ChunkScanSummary[sizeX][sizeZ];
+		}
+		finally
+		{
+			try
+			{
+				if(inStream != null) inStream.close();
+			}
+			catch(IOException e) { }
+		}
+
+		return summaries;
+	}
+
+	//saves a region's summaries, written to a temporary file first and then moved into place
+	//once they're saved, chunks are no longer dirty, unless they've been marked again since their stamps (from getDirtyStamp()) were taken
+	void save(RegionCoordinates region, int lesserChunkX, int lesserChunkZ, ChunkScanSummary [][] summaries, int [][] dirtyStamps, int height, int minY)
+	{
+		synchronized(this)
+		{
+			this.memoryRegion = region;
+			this.memoryLesserChunkX = lesserChunkX;
+			this.memoryLesserChunkZ = lesserChunkZ;
+			this.memorySummaries = summaries;
+		}
+
+		File file = this.regionFile(region);
+		File tempFile = new File(file.getPath() + ".tmp");
+		try
+		{
+			DataOutputStream outStream = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(tempFile), 65536)));
+			try
+			{
+				outStream.writeInt(MAGIC);
+				outStream.writeInt(VERSION);
+				outStream.writeInt(lesserChunkX);
+				outStream.writeInt(lesserChunkZ);
+				outStream.writeInt(summaries.length);
+				outStream.writeInt(summaries[0].length);
+				outStream.writeInt(height);
+				outStream.writeInt(minY);
+				for(int x = 0; x < summaries.length; x++)
+				{
+					for(int z = 0; z < summaries[0].length; z++)
+					{
+						outStream.writeBoolean(summaries[x][z] != null);
+						if(summaries[x][z] != null) summaries[x][z].write(outStream);
+					}
+				}
+			}
+			finally
+			{
+				outStream.close();
+			}
+
+			Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch(IOException e)
+		{
+			PopulationDensity.AddLogEntry("Unable to write scan cache " + file.getName() + ": " + e.getMessage());
+			tempFile.delete();
+			return;
+		}
+
+		this.clearDirty(lesserChunkX, lesserChunkZ, dirtyStamps);
+	}
+
+	//called once a scan's results are in, for the chunks it took snapshots of (see getDirtyStamp())
+	//chunks which have been marked again since their snapshots were taken stay dirty
+	void clearDirty(int lesserChunkX, int lesserChunkZ, int [][] dirtyStamps)
+	{
+		synchronized(this.dirtyCells)
+		{
+			for(int x = 0; x < dirtyStamps.length; x++)
+			{
+				for(int z = 0; z < dirtyStamps[0].length; z++)
+				{
+					if(dirtyStamps[x][z] == 0) continue;
+
+					int chunkX = lesserChunkX + x;
+					int chunkZ = lesserChunkZ + z;
+					long key = RegionCoordinates.toKey(chunkX >> CELL_SHIFT, chunkZ >> CELL_SHIFT);
+					int [] cell = this.dirtyCells.get(key);
+					int index = cellIndex(chunkX, chunkZ);
+					if(cell == null || cell[index] != dirtyStamps[x][z]) continue;
+
+					cell[index] = 0;
+					if(--cell[CELL_CHUNKS] == 0) this.dirtyCells.remove(key);
+				}
+			}
+		}
+	}
+
+	//forgets the dirty chunks in cells away from the regions which will be scanned again soon (see DataStore.close()),
+	//since building carries on in regions which closed long ago, and the list would otherwise grow for the life of the world
+	//without their dirty chunks, the cached summaries and latest scan results of the regions those chunks are in can't be trusted, so they go too
+	void forgetDirtyChunksOutside(ArrayList<RegionCoordinates> keep, ScanHistory history)
+	{
+		LongHashMap<Boolean> keepCells = new LongHashMap<Boolean>();
+		for(RegionCoordinates region : keep)
+		{
+			for(int cellX = RegionCoordinates.lesserChunk(region.x) >> CELL_SHIFT; cellX <= RegionCoordinates.greaterChunk(region.x) >> CELL_SHIFT; cellX++)
+			{
+				for(int cellZ = RegionCoordinates.lesserChunk(region.z) >> CELL_SHIFT; cellZ <= RegionCoordinates.greaterChunk(region.z) >> CELL_SHIFT; cellZ++)
+				{
+					keepCells.put(RegionCoordinates.toKey(cellX, cellZ), Boolean.TRUE);
+				}
+			}
+		}
+
+		LongHashMap<RegionCoordinates> changed = new LongHashMap<RegionCoordinates>();
+		int forgotten = 0;
+		synchronized(this.dirtyCells)
+		{
+			ArrayList<Long> forget = new ArrayList<Long>();
+			for(int i = 0; i < this.dirtyCells.capacity(); i++)
+			{
+				if(this.dirtyCells.valueAt(i) != null && !keepCells.containsKey(this.dirtyCells.keyAt(i))) forget.add(this.dirtyCells.keyAt(i));
+			}
+
+			for(long key : forget)
+			{
+				int [] cell = this.dirtyCells.remove(key);
+				forgotten += cell[CELL_CHUNKS];
+				for(int index = 0; index < CELL_CHUNKS; index++)
+				{
+					if(cell[index] == 0) continue;
+
+					int chunkX = (RegionCoordinates.keyX(key) << CELL_SHIFT) + (index >> CELL_SHIFT);
+					int chunkZ = (RegionCoordinates.keyZ(key) << CELL_SHIFT) + (index & CELL_MASK);
+					this.addRegionsScanning(chunkX, chunkZ, changed);
+				}
+			}
+		}
+		if(changed.isEmpty()) return;
+
+		ArrayList<RegionCoordinates> regions = new ArrayList<RegionCoordinates>(changed.size());
+		for(int i = 0; i < changed.capacity(); i++)
+		{
+			RegionCoordinates region = changed.valueAt(i);
+			if(region == null) continue;
+			regions.add(region);
+			this.regionFile(region).delete();
+		}
+
+		synchronized(this)
+		{
+			if(this.memoryRegion != null && changed.containsKey(this.memoryRegion.toKey())) this.memoryRegion = null;
+		}
+
+		history.regionsChanged(regions);
+		PopulationDensity.AddLogEntry("Forgot " + forgotten + " dirty chunks away from the regions which will be scanned soon, and the cached scan results of the " + regions.size() + " regions they're in.");
+	}
+
+	//adds the regions whose scans cover a chunk (a region's scan includes the chunks on the edges of the next regions over)
+	private void addRegionsScanning(int chunkX, int chunkZ, LongHashMap<RegionCoordinates> regions)
+	{
+		int regionX = RegionCoordinates.fromBlock(chunkX << 4);
+		int regionZ = RegionCoordinates.fromBlock(chunkZ << 4);
+		for(int x = regionX - 1; x <= regionX + 1; x++)
+		{
+			if(chunkX < RegionCoordinates.lesserChunk(x) || chunkX > RegionCoordinates.greaterChunk(x)) continue;
+			for(int z = regionZ - 1; z <= regionZ + 1; z++)
+			{
+				if(chunkZ < RegionCoordinates.lesserChunk(z) || chunkZ > RegionCoordinates.greaterChunk(z)) continue;
+				if(!regions.containsKey(RegionCoordinates.toKey(x, z))) regions.put(RegionCoordinates.toKey(x, z), RegionCoordinates.of(x, z));
+			}
+		}
+	}
+
+	//the dirty chunk list is saved on shutdown, so changes made before a restart aren't forgotten
+	void close()
+	{
+		try
+		{
+			DataOutputStream outStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(this.dirtyChunksFile)));
+			try
+			{
+				//each cell's key and dirty chunk count, then the dirty chunks' indexes in the cell
+				outStream.writeInt(DIRTY_MAGIC);
+				synchronized(this.dirtyCells)
+				{
+					outStream.writeInt(this.dirtyCells.size());
+					for(int i = 0; i < this.dirtyCells.capacity(); i++)
+					{
+						int [] cell = this.dirtyCells.valueAt(i);
+						if(cell == null) continue;
+
+						outStream.writeLong(this.dirtyCells.keyAt(i));
+						outStream.writeInt(cell[CELL_CHUNKS]);
+						for(int index = 0; index < CELL_CHUNKS; index++)
+						{
+							if(cell[index] != 0) outStream.writeShort(index);
+						}
+					}
+				}
+			}
+			finally
+			{
+				outStream.close();
+			}
+		}
+		catch(IOException e)
+		{
+			PopulationDensity.AddLogEntry("Unable to write " + this.dirtyChunksFile.getName() + ": " + e.getMessage());
+		}
+	}
+
+	//the dirty chunk list is only on disk while the plugin is disabled
+	//if it's missing at startup, the server didn't shut down cleanly and any changes since the last scan are unknown
+	private void loadDirtyChunks()
+	{
+		if(!this.dirtyChunksFile.exists())
+		{
+			this.clear("the server didn't shut down cleanly");
+			return;
+		}
+
+		try
+		{
+			DataInputStream inStream = new DataInputStream(new BufferedInputStream(new FileInputStream(this.dirtyChunksFile)));
+			try
+			{
+				if(inStream.readInt() != DIRTY_MAGIC) throw new IOException("Not a dirty chunk list.");
+				int cellCount = inStream.readInt();
+				for(int i = 0; i < cellCount; i++)
+				{
+					long key = inStream.readLong();
+					int count = inStream.readInt();
+					for(int j = 0; j < count; j++)
+					{
+						int index = inStream.readShort();
+						if(index < 0 || index >= CELL_CHUNKS) throw new IOException("Bad chunk index " + index + ".");
+						this.markDirty((RegionCoordinates.keyX(key) << CELL_SHIFT) + (index >> CELL_SHIFT), (RegionCoordinates.keyZ(key) << CELL_SHIFT) + (index & CELL_MASK));
+					}
+				}
+			}
+			finally
+			{
+				inStream.close();
+			}
+		}
+		catch(IOException e)
+		{
+			this.clear("unable to read " + this.dirtyChunksFile.getName() + ": " + e.getMessage());
+		}
+
+		this.dirtyChunksFile.delete();
+	}
+
+	//forgets all the cached summaries, since there's no telling which chunks changed
+	private void clear(String reason)
+	{
+		this.deleteSummaries(reason);
+		synchronized(this.dirtyCells)
+		{
+			this.dirtyCells.clear();
+		}
+		this.cleared = true;
+	}
+
+	boolean wasCleared()
+	{
+		return this.cleared;
+	}
+
+	private void deleteSummaries(String reason)
+	{
+		File [] files = this.folder.listFiles();
+		if(files == null || files.length == 0) return;
+
+		PopulationDensity.AddLogEntry("Clearing the region scan cache because " + reason + ".");
+		for(int i = 0; i < files.length; i++)
+		{
+			files[i].delete();
+		}
+	}
+}
@@ -0,0 +1,351 @@
+package me.ryanhamshire.PopulationDensity;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+
+//remembers the results of every region scan, so admins can look them up (/RegionStats, /RankRegions) without scanning again
+//results are appended to one file as fixed size records, and the last few for each region are also kept in memory
+//the file is rewritten with just those at startup, once it's grown well past what's kept
+//since version 2, a region changing after its latest scan is also appended, as a record with STALE_MARKER for a duration
+class ScanHistory
+{
+	private static final int MAGIC = 0x50445348;  //"PDSH"
+	private static final int VERSION = 2;
+
+	//x, z, timestamp, duration and seven counts
+	private static final int RECORD_BYTES = 4 + 4 + 8 + 4 + 7 * 4;
+
+	private static final int STALE_MARKER = -1;
+
+	//results kept per region
+	static final int MAX_RECORDS_PER_REGION = 16;
+
+	//one scan's results
+	static class Record
+	{
+		final RegionCoordinates region;
+		final long timestamp;
+		final int durationMillis;
+		final ScanResults results;
+
+		//set when the region has changed since this scan, so it shouldn't stand in for a new scan
+		boolean stale = false;
+
+		Record(RegionCoordinates region, long timestamp, int durationMillis, ScanResults results)
+		{
+			this.region = region;
+			this.timestamp = timestamp;
+			this.durationMillis = durationMillis;
+			this.results = results;
+		}
+	}
+
+	//highest resource score first
+	private static class ScoreComparator implements Comparator<Record>
+	{
+		@Override
+		public int compare(Record a, Record b)
+		{
+			return Integer.compare(b.results.resourceScore(), a.results.resourceScore());
+		}
+	}
+
+	//how long ago something happened, for messages
+	static String describeAge(long timestamp)
+	{
+		long minutes = Math.max(0, System.currentTimeMillis() - timestamp) / 60000;
+		if(minutes < 120) return minutes + " minute" + (minutes == 1 ? "" : "s");
+		long hours = minutes / 60;
+		if(hours < 48) return hours + " hours";
+		return hours / 24 + " days";
+	}
+
+	private final File file;
+
+	//records by RegionCoordinates.toKey(), oldest first (guarded by this)
+	private final LongHashMap<ArrayList<Record>> records = new LongHashMap<ArrayList<Record>>();
+
+	ScanHistory(File file)
+	{
+		this.file = file;
+		this.load();
+	}
+
+	//adds a scan's results, in memory and on disk
+	synchronized void add(RegionCoordinates region, ScanResults results, long durationMillis)
+	{
+		Record record = new Record(region, System.currentTimeMillis(), (int)Math.min(durationMillis, Integer.MAX_VALUE), results);
+		this.remember(record);
+
+		ArrayList<Record> added = new ArrayList<Record>();
+		added.add(record);
+		this.append(added);
+	}
+
+	//appends records (or stale markers, for stale records) to the file
+	private void append(ArrayList<Record> records)
+	{
+		try
+		{
+			boolean isNew = !this.file.exists();
+			DataOutputStream outStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(this.file, true)));
+			try
+			{
+				if(isNew) this.writeHeader(outStream);
+				for(Record record : records)
+				{
+					if(record.stale) this.writeStaleMarker(outStream, record);
+					else this.write(outStream, record);
+				}
+			}
+			finally
+			{
+				outStream.close();
+			}
+		}
+		catch(IOException e)
+		{
+			PopulationDensity.AddLogEntry("Unable to write to " + this.file.getName() + ": " + e.getMessage());
+		}
+	}
+
+	private void remember(Record record)
+	{
+		ArrayList<Record> regionRecords = this.records.get(record.region.toKey());
+		if(regionRecords == null)
+		{
+			regionRecords = new ArrayList<Record>();
+			this.records.put(record.region.toKey(), regionRecords);
+		}
+
+		regionRecords.add(record);
+		if(regionRecords.size() > MAX_RECORDS_PER_REGION) regionRecords.remove(0);
+	}
+
+	//a region's results, newest first
+	synchronized ArrayList<Record> getRecords(RegionCoordinates region)
+	{
+		ArrayList<Record> regionRecords = this.records.get(region.toKey());
+		ArrayList<Record> copy = regionRecords == null ? new ArrayList<Record>() : new ArrayList<Record>(regionRecords);
+		Collections.reverse(copy);
+		return copy;
+	}
+
+	synchronized Record getLatest(RegionCoordinates region)
+	{
+		ArrayList<Record> regionRecords = this.records.get(region.toKey());
+		if(regionRecords == null) return null;
+		return regionRecords.get(regionRecords.size() - 1);
+	}
+
+	//called when a scan finds a region's chunks have changed since they were last scanned
+	//remembered on disk, so the old results aren't taken for current ones after a restart
+	synchronized void regionChanged(RegionCoordinates region)
+	{
+		ArrayList<RegionCoordinates> regions = new ArrayList<RegionCoordinates>();
+		regions.add(region);
+		this.regionsChanged(regions);
+	}
+
+	synchronized void regionsChanged(ArrayList<RegionCoordinates> regions)
+	{
+		ArrayList<Record> changed = new ArrayList<Record>();
+		for(RegionCoordinates region : regions)
+		{
+			Record latest = this.getLatest(region);
+			if(latest == null || latest.stale) continue;
+
+			latest.stale = true;
+			changed.add(latest);
+		}
+
+		if(!changed.isEmpty()) this.append(changed);
+	}
+
+	//called when there's no telling which regions have changed (see ScanCache), so no results are current any more
+	synchronized void allRegionsChanged()
+	{
+		ArrayList<Record> changed = new ArrayList<Record>();
+		for(int i = 0; i < this.records.capacity(); i++)
+		{
+			ArrayList<Record> regionRecords = this.records.valueAt(i);
+			if(regionRecords == null) continue;
+
+			Record latest = regionRecords.get(regionRecords.size() - 1);
+			if(latest.stale) continue;
+			latest.stale = true;
+			changed.add(latest);
+		}
+
+		if(!changed.isEmpty()) this.append(changed);
+	}
+
+	//the latest results for a region, if they're recent and nothing in the region has changed since
+	synchronized Record getCurrent(RegionCoordinates region)
+	{
+		Record latest = this.getLatest(region);
+		if(latest == null || latest.stale) return null;
+		if(latest.timestamp < System.currentTimeMillis() - PopulationDensity.instance.config_scanCacheHours * 3600000L) return null;
+		if(PopulationDensity.instance.dataStore.getScanCache().hasDirtyChunks(region)) return null;
+
+		return latest;
+	}
+
+	//every scanned region's latest results, best resource score first
+	synchronized ArrayList<Record> rankByResourceScore()
+	{
+		ArrayList<Record> latest = new ArrayList<Record>(this.records.size());
+		for(int i = 0; i < this.records.capacity(); i++)
+		{
+			ArrayList<Record> regionRecords = this.records.valueAt(i);
+			if(regionRecords != null) latest.add(regionRecords.get(regionRecords.size() - 1));
+		}
+
+		Collections.sort(latest, new ScoreComparator());
+		return latest;
+	}
+
+	private void load()
+	{
+		if(!this.file.exists()) return;
+
+		int count = 0;
+		int version;
+		boolean truncated;
+		try
+		{
+			byte [] bytes = Files.readAllBytes(this.file.toPath());
+			DataInputStream inStream = new DataInputStream(new ByteArrayInputStream(bytes));
+			if(inStream.readInt() != MAGIC) throw new IOException("Not a scan history file.");
+			version = inStream.readInt();
+			if(version > VERSION) throw new IOException("Scan history file version " + version + " is newer than this plugin understands.");
+
+			//a crash while appending can leave part of a record at the end, which is ignored
+			while(inStream.available() >= RECORD_BYTES)
+			{
+				Record record = this.read(inStream);
+				count++;
+				if(record.durationMillis != STALE_MARKER)
+				{
+					this.remember(record);
+				}
+				else
+				{
+					Record latest = this.getLatest(record.region);
+					if(latest != null) latest.stale = true;
+				}
+			}
+			truncated = inStream.available() > 0;
+		}
+		catch(IOException e)
+		{
+			PopulationDensity.AddLogEntry("Unable to read " + this.file.getName() + ", starting a new scan history: " + e.getMessage());
+			this.file.renameTo(new File(this.file.getPath() + ".bad"));
+			this.records.clear();
+			return;
+		}
+
+		int kept = 0;
+		for(int i = 0; i < this.records.capacity(); i++)
+		{
+			if(this.records.valueAt(i) != null) kept += this.records.valueAt(i).size();
+		}
+
+		//a partial record would throw off everything appended after it, so it has to go
+		//and a file from an older version gets the current version's header
+		if(truncated || count > kept * 2 || version < VERSION) this.compact();
+	}
+
+	//rewrites the file with just the records kept in memory
+	//written to a temporary file first and then moved into place
+	private void compact()
+	{
+		File tempFile = new File(this.file.getPath() + ".tmp");
+		try
+		{
+			DataOutputStream outStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+			try
+			{
+				this.writeHeader(outStream);
+				for(int i = 0; i < this.records.capacity(); i++)
+				{
+					ArrayList<Record> regionRecords = this.records.valueAt(i);
+					if(regionRecords == null) continue;
+					for(Record record : regionRecords)
+					{
+						this.write(outStream, record);
+						if(record.stale) this.writeStaleMarker(outStream, record);
+					}
+				}
+			}
+			finally
+			{
+				outStream.close();
+			}
+
+			Files.move(tempFile.toPath(), this.file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch(IOException e)
+		{
+			PopulationDensity.AddLogEntry("Unable to compact " + this.file.getName() + ": " + e.getMessage());
+			tempFile.delete();
+		}
+	}
+
+	private void writeHeader(DataOutputStream outStream) throws IOException
+	{
+		outStream.writeInt(MAGIC);
+		outStream.writeInt(VERSION);
+	}
+
+	private void write(DataOutputStream outStream, Record record) throws IOException
+	{
+		outStream.writeInt(record.region.x);
+		outStream.writeInt(record.region.z);
+		outStream.writeLong(record.timestamp);
+		outStream.writeInt(record.durationMillis);
+		outStream.writeInt(record.results.woodCount);
+		outStream.writeInt(record.results.coalCount);
+		outStream.writeInt(record.results.ironCount);
+		outStream.writeInt(record.results.goldCount);
+		outStream.writeInt(record.results.redstoneCount);
+		outStream.writeInt(record.results.diamondCount);
+		outStream.writeInt(record.results.playerBlocks);
+	}
+
+	//a record of its own, which marks the region's latest record before it as stale when the file is read
+	private void writeStaleMarker(DataOutputStream outStream, Record record) throws IOException
+	{
+		outStream.writeInt(record.region.x);
+		outStream.writeInt(record.region.z);
+		outStream.writeLong(System.currentTimeMillis());
+		outStream.writeInt(STALE_MARKER);
+		for(int i = 0; i < 7; i++) outStream.writeInt(0);
+	}
+
+	private Record read(DataInputStream inStream) throws IOException
+	{
+		RegionCoordinates region = new RegionCoordinates(inStream.readInt(), inStream.readInt());
+		long timestamp = inStream.readLong();
+		int durationMillis = inStream.readInt();
+		ScanResults results = new ScanResults();
+		results.woodCount = inStream.readInt();
+		results.coalCount = inStream.readInt();
+		results.ironCount = inStream.readInt();
+		results.goldCount = inStream.readInt();
+		results.redstoneCount = inStream.readInt();
+		results.diamondCount = inStream.readInt();
+		results.playerBlocks = inStream.readInt();
+		return new Record(region, timestamp, durationMillis, results);
+	}
+}
@@ -5,7 +5,7 @@ public class ScanOpenRegionTask implements Runnable
 	@Override
 	public void run() 
 	{
-		//start a scan on the currently open region
-		PopulationDensity.instance.scanRegion(PopulationDensity.instance.dataStore.getOpenRegion(), true);		
+		//check on the currently open region, from a sample of its chunks unless that turns out to be too close to call
+		PopulationDensity.instance.sampleRegion(PopulationDensity.instance.dataStore.getOpenRegion(), true);		
 	}	
 }
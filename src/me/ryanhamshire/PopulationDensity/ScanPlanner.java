@@ -0,0 +1,171 @@
+package me.ryanhamshire.PopulationDensity;
+
+import java.util.ArrayList;
+
+//decides when to check on the open region next, based on how fast its resources have been going down
+//every scan of the open region reports what it found, and the planner fits a line through the recent reports
+//to predict when the region will run below the resource or wood minimum.  the next check is scheduled a little before then,
+//and pre-scanning candidates for the next region only happens when that's getting close
+//a quiet region is checked rarely, and a region being stripped by a rush of new players is checked often
+//runs every minute on the main thread, starting a check (see ScanOpenRegionTask) whenever one is due
+class ScanPlanner implements Runnable
+{
+	//reports kept for the fit
+	private static final int MAX_OBSERVATIONS = 8;
+
+	//reports closer together than this don't say much about a rate
+	private static final long MIN_SPAN_MILLIS = 10 * 60 * 1000L;
+
+	//the next check comes after this fraction of the predicted time left
+	private static final double SAFETY_FACTOR = 0.75;
+
+	private static final long UNKNOWN = -1;
+
+	//what one scan found in the open region
+	//sampled checks only report their pessimistic estimates, so they're fit separately from exact scans
+	private static class Observation
+	{
+		final long time;
+		final double resourceScore;
+		final double wood;
+		final boolean exact;
+
+		Observation(long time, double resourceScore, double wood, boolean exact)
+		{
+			this.time = time;
+			this.resourceScore = resourceScore;
+			this.wood = wood;
+			this.exact = exact;
+		}
+	}
+
+	//guarded by this
+	private RegionCoordinates region = null;
+	private final ArrayList<Observation> observations = new ArrayList<Observation>();
+	private long nextScanTime;
+
+	//when the region is predicted to run low, Long.MAX_VALUE if it isn't running low, or UNKNOWN if there's no telling yet
+	private long predictedLowTime = UNKNOWN;
+
+	ScanPlanner()
+	{
+		//the first check happens right away, like it always has
+		this.nextScanTime = System.currentTimeMillis();
+	}
+
+	@Override
+	public void run()
+	{
+		synchronized(this)
+		{
+			long now = System.currentTimeMillis();
+			if(now < this.nextScanTime) return;
+
+			//if the check never reports back (cancelled, or the region was replaced), try again after the usual interval
+			this.nextScanTime = now + PopulationDensity.instance.hoursBetweenScans * 3600000L;
+		}
+
+		PopulationDensity.instance.sampleRegion(PopulationDensity.instance.dataStore.getOpenRegion(), true);
+	}
+
+	//called by ScanRegionTask (on its own thread) after each scan of the open region
+	synchronized void observe(RegionCoordinates region, double resourceScore, double wood, boolean exact)
+	{
+		//a new open region starts a new history
+		if(!region.equals(this.region))
+		{
+			this.region = region;
+			this.observations.clear();
+		}
+
+		long now = System.currentTimeMillis();
+		this.observations.add(new Observation(now, resourceScore, wood, exact));
+		if(this.observations.size() > MAX_OBSERVATIONS) this.observations.remove(0);
+
+		//fit the reports of the same kind as the newest one
+		ArrayList<Observation> series = new ArrayList<Observation>();
+		for(Observation observation : this.observations)
+		{
+			if(observation.exact == exact) series.add(observation);
+		}
+
+		PopulationDensity plugin = PopulationDensity.instance;
+		long minDelay = plugin.config_minimumMinutesBetweenScans * 60000L;
+		long maxDelay = plugin.config_maximumHoursBetweenScans * 3600000L;
+		long delay;
+		String reason;
+		if(series.size() < 2 || now - series.get(0).time < MIN_SPAN_MILLIS)
+		{
+			this.predictedLowTime = UNKNOWN;
+			delay = plugin.hoursBetweenScans * 3600000L;
+			reason = "not enough scans yet to tell how fast its resources are being used";
+		}
+		else
+		{
+			double resourcePerHour = slopePerHour(series, true);
+			double woodPerHour = slopePerHour(series, false);
+			double hoursLeft = Math.min(hoursLeft(resourceScore, plugin.resourceMinimum, resourcePerHour), hoursLeft(wood, plugin.woodMinimum, woodPerHour));
+
+			if(hoursLeft == Double.POSITIVE_INFINITY)
+			{
+				this.predictedLowTime = Long.MAX_VALUE;
+				delay = maxDelay;
+				reason = "its resources aren't going down";
+			}
+			else
+			{
+				this.predictedLowTime = now + (long)(hoursLeft * 3600000L);
+				delay = (long)(hoursLeft * SAFETY_FACTOR * 3600000L);
+				reason = String.format("it's losing %.0f resource score and %.0f wood per hour, so it should run low in %.1f hours", -resourcePerHour, -woodPerHour, hoursLeft);
+			}
+		}
+
+		delay = Math.max(minDelay, Math.min(maxDelay, delay));
+		this.nextScanTime = now + delay;
+
+		PopulationDensity.AddLogEntry("Next check on open region \"" + region.toString() + "\" in " + String.format("%.1f", delay / 3600000.0) + " hours, because " + reason + ".");
+	}
+
+	//whether candidates for the next region should be pre-scanned now (see RegionPreScanner)
+	//when there's no prediction, they always are
+	synchronized boolean isPreScanWanted()
+	{
+		if(this.predictedLowTime == UNKNOWN) return true;
+
+		return this.predictedLowTime - System.currentTimeMillis() <= PopulationDensity.instance.config_preScanLeadHours * 3600000L;
+	}
+
+	//least squares slope of resource score (or wood) over time
+	private static double slopePerHour(ArrayList<Observation> series, boolean resource)
+	{
+		long origin = series.get(0).time;
+		double meanT = 0;
+		double meanV = 0;
+		for(Observation observation : series)
+		{
+			meanT += (observation.time - origin) / 3600000.0;
+			meanV += resource ? observation.resourceScore : observation.wood;
+		}
+		meanT /= series.size();
+		meanV /= series.size();
+
+		double covariance = 0;
+		double variance = 0;
+		for(Observation observation : series)
+		{
+			double t = (observation.time - origin) / 3600000.0 - meanT;
+			double v = (resource ? observation.resourceScore : observation.wood) - meanV;
+			covariance += t * v;
+			variance += t * t;
+		}
+
+		return covariance / variance;
+	}
+
+	//hours until a count going down at a rate reaches the minimum, or infinity if it isn't going down
+	private static double hoursLeft(double current, double minimum, double perHour)
+	{
+		if(perHour >= 0) return Double.POSITIVE_INFINITY;
+		return Math.max(0, (current - minimum) / -perHour);
+	}
+}
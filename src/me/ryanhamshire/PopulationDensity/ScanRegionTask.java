@@ -1,224 +1,187 @@
 package me.ryanhamshire.PopulationDensity;
 
 import java.util.ArrayList;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RecursiveAction;
 
 import org.bukkit.ChunkSnapshot;
-import org.bukkit.Material;
 
-public class ScanRegionTask extends Thread 
+//runs on one of the ScanScheduler's threads
+public class ScanRegionTask implements Runnable 
 {
 	private ChunkSnapshot[][] chunks;
 	private boolean openNewRegions;
 	
-	private final int CHUNK_SIZE = 16;
+	private RegionCoordinates region;
+	
+	//for incremental scans, where per-chunk results come from and go back to
+	//chunks without a snapshot already have a summary, and the dirty stamps of those with one are cleared once their new summaries are saved
+	private int lesserChunkX;
+	private int lesserChunkZ;
+	private ChunkScanSummary[][] summaries;
+	private int[][] dirtyStamps;
+	private ScanCache cache;
+	
+	//pre-scan results go to the RegionPreScanner instead of the log
+	private boolean preScan;
+	
+	//for sampled scans, which chunks have snapshots
+	private RegionSample sample = null;
+	
+	//for streaming scans, which bands of chunk rows are ready to summarize
+	private SnapshotStream stream = null;
+	
+	//progress and cancellation, see ScanScheduler
+	private RegionScan scan = null;
 
-	public ScanRegionTask(ChunkSnapshot chunks[][], boolean openNewRegions)
+	//only started by a ScanSnapshotsTask, for a RegionScan from the ScanScheduler
+	ScanRegionTask(ChunkSnapshot chunks[][], boolean openNewRegions, RegionCoordinates region, int lesserChunkX, int lesserChunkZ, ChunkScanSummary[][] summaries, int[][] dirtyStamps, ScanCache cache, boolean preScan)
 	{
 		this.chunks = chunks;
 		this.openNewRegions = openNewRegions;
+		this.region = region;
+		this.lesserChunkX = lesserChunkX;
+		this.lesserChunkZ = lesserChunkZ;
+		this.summaries = summaries;
+		this.dirtyStamps = dirtyStamps;
+		this.cache = cache;
+		this.preScan = preScan;
 	}
 	
-	private class Position
+	void setSample(RegionSample sample)
 	{
-		public int x;
-		public int y;
-		public int z;
-		
-		public Position(int x, int y, int z)
+		this.sample = sample;
+	}
+	
+	void setStream(SnapshotStream stream)
+	{
+		this.stream = stream;
+	}
+	
+	void setScan(RegionScan scan)
+	{
+		this.scan = scan;
+	}
+	
+	@Override
+	public void run() 
+	{
+		try
 		{
-			this.x = x;
-			this.y = y;
-			this.z = z;
+			this.scanRegion();
 		}
-		
-		public String toString()
+		catch(RuntimeException e)
+		{
+			//a scan cancelled by onDisable may find the parallel scan threads already shut down, which isn't worth reporting
+			if(!this.isCancelled())
+			{
+				Throwable cause = e.getCause() != null ? e.getCause() : e;
+				PopulationDensity.AddLogEntry("Unable to scan region" + (this.region != null ? " \"" + this.region.toString() + "\"" : "") + ": " + cause.toString());
+			}
+		}
+		finally
 		{
-			return this.x + " " + this.y + " " + this.z;					
+			//let the next scan in line start
+			if(this.scan != null) PopulationDensity.instance.scanScheduler.finished(this.scan);
 		}
 	}
 	
-	@Override
-	public void run() 
+	private boolean isCancelled()
+	{
+		return this.scan != null && this.scan.cancelled;
+	}
+	
+	private void scanRegion()
 	{
 		ArrayList<String> logEntries = new ArrayList<String>();
 		
-		//initialize report content
-		int woodCount = 0;
-		int coalCount = 0;
-		int ironCount = 0;
-		int goldCount = 0;
-		int redstoneCount = 0;
-		int diamondCount = 0;
-		int playerBlocks = 0;
-
-		//initialize a new array to track where we've been
-		int maxHeight = PopulationDensity.ManagedWorld.getMaxHeight();
-		int x, y, z;
-		x = y = z = 0;
-		boolean [][][] examined = new boolean [this.chunks.length * CHUNK_SIZE][maxHeight][this.chunks.length * CHUNK_SIZE];
-		for(x = 0; x < examined.length; x++)
-			for(y = 0; y < examined[0].length; y++)
-				for(z = 0; z < examined[0][0].length; z++)
-					examined[x][y][z] = false;
+		//scans which may open new regions are the checks on the open region, which the ScanPlanner wants to hear about
+		boolean openRegionScan = this.openNewRegions && !this.preScan;
 		
-		//find a reasonable start position
-		Position currentPosition = null;
-		for(x = 0; x < examined.length && currentPosition == null; x++)
+		//flood fill the region from the sky down, counting what's easily accessible
+		int maxHeight = PopulationDensity.ManagedWorld.getMaxHeight();
+		int minY = PopulationDensity.instance.minimumRegionPostY - 20;
+		ScanResults results;
+		long start = System.currentTimeMillis();
+		if(this.sample != null)
+		{
+			this.scanSample(maxHeight, minY, logEntries, openRegionScan);
+			return;
+		}
+		else if(this.stream != null)
 		{
-			for(z = 0; z < examined[0][0].length && currentPosition == null; z++)
+			try
 			{
-				Position position = new Position(x, maxHeight - 1, z);
-				if(this.getMaterialAt(position) == Material.AIR)
-				{
-					currentPosition = position;
-				}
+				results = this.scanStreaming(maxHeight, minY, logEntries);
+			}
+			catch(InterruptedException e)
+			{
+				return;
 			}
+		    
+			if(results == null) return;
+		}
+		else if(this.cache != null)
+		{
+			results = this.scanIncrementally(maxHeight, minY, logEntries);
+		}
+		else if(PopulationDensity.instance.config_scanThreads > 1)
+		{
+			//every chunk is summarized on its own, all at once across the threads, then the summaries are stitched together along the chunk borders
+			//(just like an incremental scan with nothing cached), which finds exactly what a flood fill of the whole region does
+			this.summaries = new ChunkScanSummary[this.chunks.length][this.chunks[0].length];
+			int chunkCount = this.summarizeSnapshots(0, this.chunks.length, maxHeight, minY).length;
+			long summarizeMillis = System.currentTimeMillis() - start;
+			results = ChunkScanSummary.merge(this.summaries, maxHeight);
+			long parallelMillis = System.currentTimeMillis() - start;
+			String timing = "Parallel scan took " + parallelMillis + "ms on " + PopulationDensity.instance.config_scanThreads + " threads (" + chunkCount + " chunks summarized in " + summarizeMillis + "ms, combined in " + (parallelMillis - summarizeMillis) + "ms).";
+		    
+			//optionally run the sequential scan too, to compare the time and double check the results
+			if(PopulationDensity.instance.config_compareParallelScans)
+			{
+				start = System.currentTimeMillis();
+				ScanResults sequentialResults = new RegionScanner(this.chunks, maxHeight, minY, PopulationDensity.instance.config_skipEmptySections).scan();
+				long sequentialMillis = System.currentTimeMillis() - start;
+				timing += "  Sequential scan took " + sequentialMillis + "ms";
+				if(parallelMillis > 0) timing += " (" + String.format("%.1f", sequentialMillis / (double)parallelMillis) + "x)";
+				timing += sequentialResults.matches(results) ? ", same results." : ", DIFFERENT results!  Using the sequential scan's results.";
+				results = sequentialResults;
+			}
+		    
+			logEntries.add(timing);
+		}
+		else
+		{
+			RegionScanner scanner = new RegionScanner(this.chunks, maxHeight, minY, PopulationDensity.instance.config_skipEmptySections);
+			results = scanner.scan();
+			logEntries.add("Scanned in " + (System.currentTimeMillis() - start) + "ms using " + scanner.getMemoryBytes() / 1024 / 1024 + "MB, skipping " + scanner.getSkippedSections() + " empty sections.");
 		}
 		
-		//set depth boundary
-		//if a player has to brave cavernous depths, those resources aren't "easily attainable"
-		int min_y = PopulationDensity.instance.minimumRegionPostY - 20;
+		//free the snapshots as soon as possible, since they're a big chunk of memory
+		this.chunks = null;
 		
-		//instantiate empty queue
-		ConcurrentLinkedQueue<Position> unexaminedQueue = new ConcurrentLinkedQueue<Position>();
+		if(this.isCancelled()) return;
 		
-		//mark start position as examined
-		try
+		//without the cache, nothing is saved, so the changes this scan saw are cleared here instead
+		this.clearDirtyWithoutCache();
+		
+		//remember the results, so they can be looked up later without scanning again
+		if(this.region != null)
 		{
-			examined[currentPosition.x][currentPosition.y][currentPosition.z] = true;				
+			long startTime = this.scan != null ? this.scan.startTime : start;
+			PopulationDensity.instance.dataStore.getScanHistory().add(this.region, results, System.currentTimeMillis() - startTime);
 		}
-		catch(ArrayIndexOutOfBoundsException e)
+		
+		if(openRegionScan && PopulationDensity.instance.scanPlanner != null)
 		{
-			logEntries.add("Unexpected Exception: " + e.toString());
+			PopulationDensity.instance.scanPlanner.observe(this.region, results.resourceScore(), results.woodCount, true);
 		}
 		
-		//enqueue that start position
-		unexaminedQueue.add(currentPosition);	
-				
-		//as long as there are positions in the queue, keep going
-		while(!unexaminedQueue.isEmpty())
+		if(this.preScan)
 		{
-			//dequeue a block
-			currentPosition = unexaminedQueue.remove();
-			
-			//get material
-			Material material = this.getMaterialAt(currentPosition);
-			
-			//material == null indicates the data is out of bounds (not in the snapshots)
-			//in that case, just move on to the next item in the queue
-			if(material == null || currentPosition.y < min_y) continue;
-			
-			//if it's not a pass-through block
-			if(		material != Material.AIR && 
-					material != Material.WOOD_DOOR && 
-					material != Material.WOODEN_DOOR &&
-					material != Material.IRON_DOOR_BLOCK && 
-					material != Material.TRAP_DOOR &&
-					material != Material.LADDER
-					)
-			{
-				//if it's a valuable resource, count it
-				if      (material == Material.LOG) woodCount++;
-				else if (material == Material.LOG_2) woodCount++;
-				else if (material == Material.COAL_ORE) coalCount++;
-				else if (material == Material.IRON_ORE) ironCount++;
-				else if (material == Material.GOLD_ORE) goldCount++;
-				else if (material == Material.REDSTONE_ORE) redstoneCount++;
-				else if (material == Material.DIAMOND_ORE) diamondCount++;	
-				
-				//if it's a player block, count it
-				else if (
-						material != Material.WATER && 
-						material != Material.STATIONARY_LAVA &&
-						material != Material.STATIONARY_WATER &&
-						material != Material.BROWN_MUSHROOM && 
-						material != Material.CACTUS &&
-						material != Material.DEAD_BUSH && 
-						material != Material.DIRT &&
-						material != Material.GRAVEL &&
-						material != Material.GRASS &&
-						material != Material.HUGE_MUSHROOM_1 &&
-						material != Material.HUGE_MUSHROOM_2 &&
-						material != Material.ICE &&
-						material != Material.LAPIS_ORE &&
-						material != Material.LAVA &&
-						material != Material.OBSIDIAN &&
-						material != Material.RED_MUSHROOM &&
-						material != Material.RED_ROSE &&
-						material != Material.LEAVES &&
-				        material != Material.LEAVES_2 &&
-		                material != Material.LOG &&
-		                material != Material.LOG_2 &&
-						material != Material.LONG_GRASS &&
-						material != Material.SAND &&
-						material != Material.SANDSTONE &&
-						material != Material.SNOW &&
-						material != Material.STONE &&
-						material != Material.VINE &&
-						material != Material.WATER_LILY &&
-						material != Material.YELLOW_FLOWER &&
-						material != Material.MOSSY_COBBLESTONE && 
-						material != Material.CLAY &&
-						material != Material.STAINED_CLAY &&
-						material != Material.SUGAR_CANE_BLOCK &&
-						material != Material.PACKED_ICE &&
-						material != Material.DOUBLE_PLANT)
-				{
-					playerBlocks++;
-				}
-			}
-			
-			//otherwise for pass-through blocks, enqueue the blocks around them for examination
-			else
-			{
-				//make a list of adjacent blocks
-				ConcurrentLinkedQueue<Position> adjacentPositionQueue = new ConcurrentLinkedQueue<Position>();
-									
-				//x + 1
-				adjacentPositionQueue.add(new Position(currentPosition.x + 1, currentPosition.y, currentPosition.z));
-				
-				//x - 1
-				adjacentPositionQueue.add(new Position(currentPosition.x - 1, currentPosition.y, currentPosition.z));
-				
-				//z + 1
-				adjacentPositionQueue.add(new Position(currentPosition.x, currentPosition.y, currentPosition.z + 1));
-				
-				//z - 1
-				adjacentPositionQueue.add(new Position(currentPosition.x, currentPosition.y, currentPosition.z - 1));
-				
-				//y + 1
-				adjacentPositionQueue.add(new Position(currentPosition.x, currentPosition.y + 1, currentPosition.z));
-				
-				//y - 1
-				adjacentPositionQueue.add(new Position(currentPosition.x, currentPosition.y - 1, currentPosition.z));
-										
-				//for each adjacent block
-				while(!adjacentPositionQueue.isEmpty())
-				{
-					Position adjacentPosition = adjacentPositionQueue.remove();
-					
-					try
-					{
-						//if it hasn't been examined yet
-						if(!examined[adjacentPosition.x][adjacentPosition.y][adjacentPosition.z])
-						{					
-							//mark it as examined
-							examined[adjacentPosition.x][adjacentPosition.y][adjacentPosition.z] = true;
-							
-							//shove it in the queue for processing
-							unexaminedQueue.add(adjacentPosition);
-						}
-					}
-					
-					//ignore any adjacent blocks which are outside the snapshots
-					catch(ArrayIndexOutOfBoundsException e){ }
-				}					
-			}
-		}			
-		
-		//compute a resource score
-		int resourceScore = coalCount * 2 + ironCount * 3 + goldCount * 3 + redstoneCount * 3 + diamondCount * 4;
+			PreScanResultsTask preScanResultsTask = new PreScanResultsTask(this.region, results);
+			PopulationDensity.instance.getServer().getScheduler().scheduleSyncDelayedTask(PopulationDensity.instance, preScanResultsTask, 5L);
+			return;
+		}
 		
 		//due to a race condition, bukkit might say a chunk is loaded when it really isn't.
 		//in that case, bukkit will incorrectly report that all of the blocks in the chunk are air
@@ -226,61 +189,213 @@ public class ScanRegionTask extends Thread
 		//to avoid an infinite loop in a resource-bare region, maximum ONE repetition
 		
 		//deliver report
-		logEntries.add("");								
-		logEntries.add("Region Scan Results :");
-		logEntries.add("");				
-		logEntries.add("         Wood :" + woodCount + "  (Minimum: " + PopulationDensity.instance.woodMinimum + ")");
-		logEntries.add("         Coal :" + coalCount);
-		logEntries.add("         Iron :" + ironCount);
-		logEntries.add("         Gold :" + goldCount);
-		logEntries.add("     Redstone :" + redstoneCount);
-		logEntries.add("      Diamond :" + diamondCount);
-		logEntries.add("Player Blocks :" + playerBlocks + "  (Maximum: " + (PopulationDensity.instance.densityRatio * 40000) + ")");
-		logEntries.add("");
-		logEntries.add(" Resource Score : " + resourceScore + "  (Minimum: " + PopulationDensity.instance.resourceMinimum + ")");
-		logEntries.add("");								
+		results.addLogEntries(logEntries);
+		
+		//if sufficient resources for a good start, no need to open a new region
+		if(results.isSuitable())
+		{
+			openNewRegions = false;
+		}
 		
-		//if NOT sufficient resources for a good start
-		if(resourceScore < PopulationDensity.instance.resourceMinimum || woodCount < PopulationDensity.instance.woodMinimum || playerBlocks > 40000 * PopulationDensity.instance.densityRatio)
-		{					
-			if(resourceScore < PopulationDensity.instance.resourceMinimum || woodCount < PopulationDensity.instance.woodMinimum)
+		//now that we're done, notify the main thread
+		ScanResultsTask resultsTask = new ScanResultsTask(logEntries, openNewRegions);
+		PopulationDensity.instance.getServer().getScheduler().scheduleSyncDelayedTask(PopulationDensity.instance, resultsTask, 5L);
+	}
+	
+	private void clearDirtyWithoutCache()
+	{
+		if(this.cache == null && this.dirtyStamps != null)
+		{
+			PopulationDensity.instance.dataStore.getScanCache().clearDirty(this.lesserChunkX, this.lesserChunkZ, this.dirtyStamps);
+		}
+	}
+	
+	//summarizes each chunk which has a snapshot, then stitches all the chunk summaries together
+	//the results are exactly what a full flood fill of the region finds
+	private ScanResults scanIncrementally(int maxHeight, int minY, ArrayList<String> logEntries)
+	{
+		long start = System.currentTimeMillis();
+		int [] indexes = this.summarizeSnapshots(0, this.chunks.length, maxHeight, minY);
+		long summarizeMillis = System.currentTimeMillis() - start;
+		int threads = PopulationDensity.instance.config_scanThreads;
+		int sizeZ = this.chunks[0].length;
+	    
+		start = System.currentTimeMillis();
+		ScanResults results = ChunkScanSummary.merge(this.summaries, maxHeight);
+		long mergeMillis = System.currentTimeMillis() - start;
+	    
+		this.cache.save(this.region, this.lesserChunkX, this.lesserChunkZ, this.summaries, this.dirtyStamps, maxHeight, minY);
+	    
+		int totalChunks = this.chunks.length * sizeZ;
+		logEntries.add("Scanned " + indexes.length + " changed chunks in " + summarizeMillis + "ms" + (threads > 1 ? " on " + threads + " threads" : "") + 
+				" and reused " + (totalChunks - indexes.length) + " cached chunk results, combined in " + mergeMillis + "ms.");
+	    
+		return results;
+	}
+	
+	//estimates the region's counts from a sample of its chunks, and decides whether that's enough to go on
+	//if the estimates are too close to the thresholds to be sure, the whole region is scanned after all
+	private void scanSample(int maxHeight, int minY, ArrayList<String> logEntries, boolean openRegionScan)
+	{
+		long start = System.currentTimeMillis();
+		int sizeX = this.chunks.length;
+		int sizeZ = this.chunks[0].length;
+		this.summarizeSnapshots(0, sizeX, maxHeight, minY);
+		this.chunks = null;
+	    
+		//the sampled chunks' summaries are just as good for later incremental scans
+		if(this.cache != null) this.cache.save(this.region, this.lesserChunkX, this.lesserChunkZ, this.summaries, this.dirtyStamps, maxHeight, minY);
+	    
+		if(this.isCancelled()) return;
+	    
+		this.clearDirtyWithoutCache();
+	    
+		this.sample.estimate(this.summaries);
+		logEntries.add("Summarized " + this.sample.getSampleCount() + " sampled chunks out of " + (sizeX * sizeZ) + " in " + (System.currentTimeMillis() - start) + "ms.");
+		this.sample.addLogEntries(logEntries);
+	    
+		//the planner goes by the pessimistic estimates
+		if(openRegionScan && PopulationDensity.instance.scanPlanner != null)
+		{
+			PopulationDensity.instance.scanPlanner.observe(this.region, this.sample.getResourceLow(), this.sample.getWoodLow(), false);
+		}
+	    
+		if(this.sample.isSuitable())
+		{
+			this.openNewRegions = false;
+		}
+		else if(!this.sample.isUnsuitable())
+		{
+			FullScanTask fullScanTask = new FullScanTask(this.region, this.openNewRegions);
+			this.openNewRegions = false;
+			PopulationDensity.instance.getServer().getScheduler().scheduleSyncDelayedTask(PopulationDensity.instance, fullScanTask, 5L);
+		}
+	    
+		ScanResultsTask resultsTask = new ScanResultsTask(logEntries, this.openNewRegions);
+		PopulationDensity.instance.getServer().getScheduler().scheduleSyncDelayedTask(PopulationDensity.instance, resultsTask, 5L);
+	}
+	
+	//summarizes bands of chunk rows as they're collected, dropping their snapshots right away, then stitches the summaries together
+	//the summaries' edges are all that's carried from one band to the next, and the results are exactly what a full flood fill finds
+	//returns null if the scan is cancelled part way through
+	private ScanResults scanStreaming(int maxHeight, int minY, ArrayList<String> logEntries) throws InterruptedException
+	{
+		long summarizeNanos = 0;
+		int summarized = 0;
+		for(int i = 0; i < this.stream.getBandCount(); i++)
+		{
+			int band = this.stream.takeBand();
+			if(band < 0 || this.isCancelled()) return null;
+			int fromX = band * this.stream.bandRows;
+			int toX = Math.min(fromX + this.stream.bandRows, this.chunks.length);
+	        
+			long start = System.nanoTime();
+			summarized += this.summarizeSnapshots(fromX, toX, maxHeight, minY).length;
+			summarizeNanos += System.nanoTime() - start;
+	        
+			//let go of the band's snapshots
+			long bytes = 0;
+			for(int x = fromX; x < toX; x++)
 			{
-				logEntries.add("Summary: Insufficient near-surface resources to support new players.");			
+				for(int z = 0; z < this.chunks[x].length; z++)
+				{
+					if(this.chunks[x][z] == null) continue;
+					bytes += SnapshotStream.estimateBytes(this.chunks[x][z], maxHeight);
+					this.chunks[x][z] = null;
+				}
 			}
-			else if(playerBlocks > 40000 * PopulationDensity.instance.densityRatio)
+			this.stream.release(bytes);
+		}
+	    
+		long start = System.currentTimeMillis();
+		ScanResults results = ChunkScanSummary.merge(this.summaries, maxHeight);
+		long mergeMillis = System.currentTimeMillis() - start;
+	    
+		if(this.cache != null) this.cache.save(this.region, this.lesserChunkX, this.lesserChunkZ, this.summaries, this.dirtyStamps, maxHeight, minY);
+	    
+		logEntries.add("Streamed " + summarized + " chunks in " + this.stream.getBandCount() + " bands of " + this.stream.bandRows + " rows, summarized in " + summarizeNanos / 1000000 + "ms" +
+				" and combined in " + mergeMillis + "ms.  Peak snapshot memory was about " + this.stream.getPeakBytes() / 1024 / 1024 + "MB.");
+	    
+		return results;
+	}
+	
+	//summarizes each chunk in a range of rows which has a snapshot, returning their indexes
+	private int [] summarizeSnapshots(int fromX, int toX, int maxHeight, int minY)
+	{
+		//list the chunks which need scanning
+		IntQueue changed = new IntQueue(64);
+		int sizeZ = this.chunks[0].length;
+		for(int x = fromX; x < toX; x++)
+		{
+			for(int z = 0; z < sizeZ; z++)
 			{
-				logEntries.add("Summary: Region seems overcrowded.");			
+				if(this.chunks[x][z] != null) changed.add(x * sizeZ + z);
 			}
 		}
-		
-		//otherwise
+		int [] indexes = new int[changed.size()];
+		for(int i = 0; i < indexes.length; i++)
+		{
+			indexes[i] = changed.remove();
+		}
+	    
+		int threads = PopulationDensity.instance.config_scanThreads;
+		if(threads > 1 && indexes.length > 1)
+		{
+			PopulationDensity.instance.getScanPool().invoke(new SummarizeTask(indexes, 0, indexes.length, Math.max(1, indexes.length / (threads * 4)), maxHeight, minY));
+		}
 		else
 		{
-			logEntries.add("Summary: Looks good!  This region is suitable for new players.");
-			openNewRegions = false;
+			this.summarize(indexes, 0, indexes.length, maxHeight, minY);
 		}
-		
-		//now that we're done, notify the main thread
-		ScanResultsTask resultsTask = new ScanResultsTask(logEntries, openNewRegions);
-		PopulationDensity.instance.getServer().getScheduler().scheduleSyncDelayedTask(PopulationDensity.instance, resultsTask, 5L);
+	    
+		return indexes;
 	}
 	
-	@SuppressWarnings("deprecation")
-    private Material getMaterialAt(Position position)
+	private void summarize(int [] indexes, int from, int to, int maxHeight, int minY)
 	{
-		Material material = null;
-		
-		int chunkx = position.x / 16;
-		int chunkz = position.z / 16;
-		
-		try
+		ChunkScanSummary.Scratch scratch = new ChunkScanSummary.Scratch(maxHeight);
+		int sizeZ = this.chunks[0].length;
+		for(int i = from; i < to; i++)
 		{
-			ChunkSnapshot snapshot = this.chunks[chunkx][chunkz];
-			int materialID = snapshot.getBlockTypeId(position.x % 16, position.y, position.z % 16);
-			material = Material.getMaterial(materialID);
+			int x = indexes[i] / sizeZ;
+			int z = indexes[i] % sizeZ;
+			this.summaries[x][z] = ChunkScanSummary.compute(this.chunks[x][z], maxHeight, minY, scratch);
 		}
-		catch(IndexOutOfBoundsException e) { }
-		
-		return material;
-	}	
+	}
+	
+	//summarizes a range of chunks, splitting it in half until the pieces are small enough
+	private class SummarizeTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+		private final int [] indexes;
+		private final int from;
+		private final int to;
+		private final int piece;
+		private final int maxHeight;
+		private final int minY;
+	    
+		SummarizeTask(int [] indexes, int from, int to, int piece, int maxHeight, int minY)
+		{
+			this.indexes = indexes;
+			this.from = from;
+			this.to = to;
+			this.piece = piece;
+			this.maxHeight = maxHeight;
+			this.minY = minY;
+		}
+	    
+		@Override
+		protected void compute()
+		{
+			if(this.to - this.from <= this.piece)
+			{
+				summarize(this.indexes, this.from, this.to, this.maxHeight, this.minY);
+				return;
+			}
+	        
+			int middle = (this.from + this.to) >>> 1;
+			invokeAll(new SummarizeTask(this.indexes, this.from, middle, this.piece, this.maxHeight, this.minY),
+					new SummarizeTask(this.indexes, middle, this.to, this.piece, this.maxHeight, this.minY));
+		}
+	}
 }
@@ -0,0 +1,117 @@
+package me.ryanhamshire.PopulationDensity;
+
+import java.util.ArrayList;
+
+//counts of easily accessible resources and player blocks found by a region scan
+class ScanResults
+{
+	//categories of counted blocks
+	static final int NOT_COUNTED = -1;
+	static final int WOOD = 0;
+	static final int COAL = 1;
+	static final int IRON = 2;
+	static final int GOLD = 3;
+	static final int REDSTONE = 4;
+	static final int DIAMOND = 5;
+	static final int PLAYER_BLOCK = 6;
+	static final int CATEGORY_COUNT = 7;
+
+	int woodCount = 0;
+	int coalCount = 0;
+	int ironCount = 0;
+	int goldCount = 0;
+	int redstoneCount = 0;
+	int diamondCount = 0;
+	int playerBlocks = 0;
+
+	int resourceScore()
+	{
+		return this.coalCount * 2 + this.ironCount * 3 + this.goldCount * 3 + this.redstoneCount * 3 + this.diamondCount * 4;
+	}
+
+	//adds to the count for one category of blocks
+	void add(int category, int count)
+	{
+		switch(category)
+		{
+			case WOOD: this.woodCount += count; break;
+			case COAL: this.coalCount += count; break;
+			case IRON: this.ironCount += count; break;
+			case GOLD: this.goldCount += count; break;
+			case REDSTONE: this.redstoneCount += count; break;
+			case DIAMOND: this.diamondCount += count; break;
+			case PLAYER_BLOCK: this.playerBlocks += count; break;
+		}
+	}
+
+	//adds another set of counts into this one
+	void add(ScanResults other)
+	{
+		this.woodCount += other.woodCount;
+		this.coalCount += other.coalCount;
+		this.ironCount += other.ironCount;
+		this.goldCount += other.goldCount;
+		this.redstoneCount += other.redstoneCount;
+		this.diamondCount += other.diamondCount;
+		this.playerBlocks += other.playerBlocks;
+	}
+
+	//whether two scans found exactly the same counts
+	boolean matches(ScanResults other)
+	{
+		return this.woodCount == other.woodCount &&
+				this.coalCount == other.coalCount &&
+				this.ironCount == other.ironCount &&
+				this.goldCount == other.goldCount &&
+				this.redstoneCount == other.redstoneCount &&
+				this.diamondCount == other.diamondCount &&
+				this.playerBlocks == other.playerBlocks;
+	}
+
+	boolean hasEnoughResources()
+	{
+		return this.resourceScore() >= PopulationDensity.instance.resourceMinimum && this.woodCount >= PopulationDensity.instance.woodMinimum;
+	}
+
+	boolean isOvercrowded()
+	{
+		return this.playerBlocks > 40000 * PopulationDensity.instance.densityRatio;
+	}
+
+	//whether the region is a good place to put new players
+	boolean isSuitable()
+	{
+		return this.hasEnoughResources() && !this.isOvercrowded();
+	}
+
+	//the report which goes into the log after a scan
+	void addLogEntries(ArrayList<String> logEntries)
+	{
+		logEntries.add("");
+		logEntries.add("Region Scan Results :");
+		logEntries.add("");
+		logEntries.add("         Wood :" + this.woodCount + "  (Minimum: " + PopulationDensity.instance.woodMinimum + ")");
+		logEntries.add("         Coal :" + this.coalCount);
+		logEntries.add("         Iron :" + this.ironCount);
+		logEntries.add("         Gold :" + this.goldCount);
+		logEntries.add("     Redstone :" + this.redstoneCount);
+		logEntries.add("      Diamond :" + this.diamondCount);
+		logEntries.add("Player Blocks :" + this.playerBlocks + "  (Maximum: " + (PopulationDensity.instance.densityRatio * 40000) + ")");
+		logEntries.add("");
+		logEntries.add(" Resource Score : " + this.resourceScore() + "  (Minimum: " + PopulationDensity.instance.resourceMinimum + ")");
+		logEntries.add("");
+
+		if(!this.hasEnoughResources())
+		{
+			logEntries.add("Summary: Insufficient near-surface resources to support new players.");
+		}
+		else if(this.isOvercrowded())
+		{
+			logEntries.add("Summary: Region seems overcrowded.");
+		}
+		else
+		{
+			logEntries.add("Summary: Looks good!  This region is suitable for new players.");
+		}
+	}
+}
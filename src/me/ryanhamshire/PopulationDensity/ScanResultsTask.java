@@ -28,7 +28,23 @@ public class ScanResultsTask implements Runnable
 		if(this.openNewRegion)
 		{
 			RegionCoordinates newRegion = PopulationDensity.instance.dataStore.addRegion();
-			PopulationDensity.instance.scanRegion(newRegion, true);
+			
+			//regions which were pre-scanned don't need to be scanned again, so poor ones can be skipped right away
+			ScanResults preScanResults;
+			while((preScanResults = PopulationDensity.instance.regionPreScanner.getResults(newRegion)) != null && !preScanResults.isSuitable())
+			{
+				PopulationDensity.AddLogEntry("Region \"" + newRegion.toString() + "\" was pre-scanned and isn't suitable for new players, moving on.");
+				newRegion = PopulationDensity.instance.dataStore.addRegion();
+			}
+			
+			if(preScanResults != null)
+			{
+				PopulationDensity.AddLogEntry("Region \"" + newRegion.toString() + "\" was pre-scanned and is suitable for new players.");
+			}
+			else
+			{
+				PopulationDensity.instance.scanRegion(newRegion, true);
+			}
 		}		
 	}
 }
@@ -0,0 +1,236 @@
+package me.ryanhamshire.PopulationDensity;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+//runs region scans (and pre-scans) a limited number at a time, so admin commands and the periodic checks can't pile up scans
+//a request for a region which is already queued or being scanned is folded into that scan instead of starting another one
+//the rest wait in line, with pre-scans after everything else since nobody is waiting on them
+//the scan threads (see ScanRegionTask) come from a fixed pool with one thread per scan allowed to run at once
+class ScanScheduler
+{
+	//how long onDisable waits for scan threads to wrap up
+	private static final long SHUTDOWN_WAIT_SECONDS = 5;
+
+	private final int maxRunning;
+	private final ThreadPoolExecutor executor;
+
+	//guarded by this
+	private final ArrayList<RegionScan> running = new ArrayList<RegionScan>();
+	private final ArrayList<RegionScan> queued = new ArrayList<RegionScan>();
+	private boolean shutDown = false;
+
+	ScanScheduler(int maxRunning)
+	{
+		this.maxRunning = Math.max(1, maxRunning);
+		this.executor = new ThreadPoolExecutor(this.maxRunning, this.maxRunning, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), new ScanThreadFactory());
+	}
+
+	//scan threads run at low priority, and don't keep the server running if they're stuck
+	private static class ScanThreadFactory implements ThreadFactory
+	{
+		private int count = 0;
+
+		@Override
+		public synchronized Thread newThread(Runnable runnable)
+		{
+			Thread thread = new Thread(runnable, "PopulationDensity Region Scan " + ++this.count);
+			thread.setPriority(Thread.MIN_PRIORITY);
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+
+	//queues a scan, returning false if the region already has one of the same kind queued, or running and doing at least as much
+	//a stronger request (a full scan while a sampled one is running, say) waits for the running scan to finish, see startNext()
+	synchronized boolean submit(RegionScan scan)
+	{
+		if(this.shutDown) return false;
+
+		for(RegionScan other : this.running)
+		{
+			if(other.region.equals(scan.region) && other.preScan == scan.preScan && !other.cancelled && covers(other, scan)) return false;
+		}
+
+		for(RegionScan other : this.queued)
+		{
+			if(other.region.equals(scan.region) && other.preScan == scan.preScan)
+			{
+				other.openNewRegions |= scan.openNewRegions;
+				other.fullScan |= scan.fullScan;
+				other.sampled &= scan.sampled;
+				return false;
+			}
+		}
+
+		this.queued.add(scan);
+		this.startNext();
+		return true;
+	}
+
+	//whether a running scan does everything a newly requested one would
+	private static boolean covers(RegionScan running, RegionScan requested)
+	{
+		if(running.sampled && !requested.sampled) return false;
+		if(requested.fullScan && !running.fullScan) return false;
+		if(requested.openNewRegions && !running.openNewRegions) return false;
+		return true;
+	}
+
+	private void startNext()
+	{
+		while(this.running.size() < this.maxRunning)
+		{
+			//pre-scans go last, and a region's scan waits for any of the same kind which is already running
+			int next = -1;
+			for(int i = 0; i < this.queued.size(); i++)
+			{
+				RegionScan candidate = this.queued.get(i);
+				if(this.isRunning(candidate)) continue;
+				if(next == -1) next = i;
+				if(!candidate.preScan)
+				{
+					next = i;
+					break;
+				}
+			}
+			if(next == -1) return;
+
+			RegionScan scan = this.queued.remove(next);
+			this.running.add(scan);
+			this.begin(scan);
+		}
+	}
+
+	private boolean isRunning(RegionScan scan)
+	{
+		for(RegionScan other : this.running)
+		{
+			if(other.region.equals(scan.region) && other.preScan == scan.preScan) return true;
+		}
+
+		return false;
+	}
+
+	private void begin(RegionScan scan)
+	{
+		PopulationDensity plugin = PopulationDensity.instance;
+		RegionCoordinates region = scan.region;
+		int lesserChunkX = RegionCoordinates.lesserChunk(region.x);
+		int lesserChunkZ = RegionCoordinates.lesserChunk(region.z);
+		int greaterChunkX = RegionCoordinates.greaterChunk(region.x);
+		int greaterChunkZ = RegionCoordinates.greaterChunk(region.z);
+		ScanSnapshotsTask task = new ScanSnapshotsTask(region, lesserChunkX, lesserChunkZ, greaterChunkX, greaterChunkZ, scan.openNewRegions,
+				plugin.config_incrementalScans ? plugin.dataStore.getScanCache() : null, scan.fullScan, scan.preScan);
+		task.setScan(scan);
+		if(scan.sampled)
+		{
+			task.setSample(new RegionSample(greaterChunkX - lesserChunkX + 1, greaterChunkZ - lesserChunkZ + 1, new Random()));
+		}
+		else if(plugin.config_streamingScans)
+		{
+			task.setStream(new SnapshotStream(greaterChunkX - lesserChunkX + 1, plugin.config_scanBandRows));
+		}
+
+		scan.state = RegionScan.COLLECTING;
+		scan.startTime = System.currentTimeMillis();
+		task.start();
+	}
+
+	//runs a scan thread's work
+	void execute(ScanRegionTask task)
+	{
+		this.executor.execute(task);
+	}
+
+	//called by a scan's tasks when it's done, whether it finished or was cancelled
+	synchronized void finished(RegionScan scan)
+	{
+		if(!this.running.remove(scan)) return;
+		if(!this.shutDown) this.startNext();
+	}
+
+	//cancels the scans of a region (or all of them, if region is null), returning how many were cancelled
+	//queued scans are dropped right away, and running ones stop at their next check
+	synchronized int cancel(RegionCoordinates region)
+	{
+		int count = 0;
+		for(int i = this.queued.size() - 1; i >= 0; i--)
+		{
+			RegionScan scan = this.queued.get(i);
+			if(region != null && !region.equals(scan.region)) continue;
+
+			this.queued.remove(i);
+			this.cancelled(scan);
+			count++;
+		}
+
+		for(RegionScan scan : this.running)
+		{
+			if(region != null && !region.equals(scan.region)) continue;
+			if(scan.cancelled) continue;
+
+			this.cancelled(scan);
+			count++;
+		}
+
+		return count;
+	}
+
+	private void cancelled(RegionScan scan)
+	{
+		scan.cancelled = true;
+		PopulationDensity.AddLogEntry(scan.getKind() + " of region \"" + scan.region.toString() + "\" cancelled.");
+
+		//let the pre-scanner move on
+		if(scan.preScan && PopulationDensity.instance.regionPreScanner != null)
+		{
+			PopulationDensity.instance.regionPreScanner.cancelled(scan.region);
+		}
+	}
+
+	//running scans first, then queued ones in the order they'll run
+	synchronized ArrayList<RegionScan> getScans()
+	{
+		ArrayList<RegionScan> scans = new ArrayList<RegionScan>(this.running);
+		for(RegionScan scan : this.queued)
+		{
+			if(!scan.preScan) scans.add(scan);
+		}
+		for(RegionScan scan : this.queued)
+		{
+			if(scan.preScan) scans.add(scan);
+		}
+
+		return scans;
+	}
+
+	//called from onDisable, cancels everything and gives the scan threads a moment to stop
+	void shutdown()
+	{
+		synchronized(this)
+		{
+			this.shutDown = true;
+			for(RegionScan scan : this.running) scan.cancelled = true;
+			for(RegionScan scan : this.queued) scan.cancelled = true;
+			this.queued.clear();
+		}
+
+		this.executor.shutdownNow();
+		try
+		{
+			if(!this.executor.awaitTermination(SHUTDOWN_WAIT_SECONDS, TimeUnit.SECONDS))
+			{
+				PopulationDensity.AddLogEntry("Region scan threads didn't stop within " + SHUTDOWN_WAIT_SECONDS + " seconds.");
+			}
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+}
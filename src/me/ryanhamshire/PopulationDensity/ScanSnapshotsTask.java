@@ -0,0 +1,348 @@
+package me.ryanhamshire.PopulationDensity;
+
+import org.bukkit.Chunk;
+import org.bukkit.ChunkSnapshot;
+
+//collects chunk snapshots for a region scan a few chunks per tick, then hands them to a ScanRegionTask
+//loading (or generating) hundreds of chunks at once would freeze the server, so each tick is limited
+//to a number of chunks and a time budget, whichever runs out first
+//runs every tick until it has a snapshot for every chunk in the region
+//with incremental scans, chunks with up to date cached scan results are skipped, and the cache is read in a separate thread first
+//sampled scans (see RegionSample) only collect the sampled chunks
+//streaming scans (see SnapshotStream) start the ScanRegionTask right away, and hand it each band of chunk rows as soon as it's complete
+//started by the ScanScheduler, which it keeps up to date on the scan's progress through a RegionScan
+class ScanSnapshotsTask implements Runnable
+{
+	//how long to wait before trying a suspicious chunk again, and how many times to try before accepting it anyway
+	private static final int RETRY_DELAY_TICKS = 20;
+	private static final int MAX_ATTEMPTS = 10;
+
+	private final RegionCoordinates region;
+	private final int lesserChunkX;
+	private final int lesserChunkZ;
+	private final boolean openNewRegions;
+	private final ScanCache cache;
+	private final boolean fullScan;
+	private final boolean preScan;
+	private final ChunkSnapshot [][] snapshots;
+	private final int sizeZ;
+	private final int totalChunks;
+
+	//next chunk (by index) which hasn't been tried yet
+	private int nextIndex = 0;
+
+	//chunks to try again, and the tick at which to try each one
+	private final IntQueue retryIndexes = new IntQueue(64);
+	private final IntQueue retryTicks = new IntQueue(64);
+	private final byte [] attempts;
+
+	//cached results for chunks which don't need a snapshot (null when not using the cache or sampling)
+	private ChunkScanSummary [][] summaries = null;
+	private int cachedChunks = 0;
+
+	//the dirty stamps of the chunks collected, which the ScanRegionTask clears once their new results are in (see ScanCache.getDirtyStamp())
+	//this happens whether or not the scan uses the cache, since the scan history and pre-scans also go by which chunks are dirty
+	private final int [][] dirtyStamps;
+
+	//chunks to collect for a sampled scan, or null to collect them all
+	private RegionSample sample = null;
+	private int snapshotCount = 0;
+
+	//for streaming scans, where completed bands go and how many snapshots each band still needs
+	private SnapshotStream stream = null;
+	private int [] bandRemaining;
+
+	//rough size of the snapshots collected so far, when not streaming
+	private long snapshotBytes = 0;
+
+	//progress and cancellation
+	private RegionScan scan;
+
+	//whether any chunk was found to have changed since it was last scanned
+	private boolean changed = false;
+
+	private int remaining;
+	private int ticks = 0;
+	private int retries = 0;
+	private long busyNanos = 0;
+	private long maxTickNanos = 0;
+	private int taskID = -1;
+
+	//cache is null when incremental scans are turned off, and fullScan ignores (but still refreshes) cached results
+	//pre-scans (see RegionPreScanner) collect fewer chunks per tick, since nobody is waiting on them
+	ScanSnapshotsTask(RegionCoordinates region, int lesserChunkX, int lesserChunkZ, int greaterChunkX, int greaterChunkZ, boolean openNewRegions, ScanCache cache, boolean fullScan, boolean preScan)
+	{
+		this.region = region;
+		this.lesserChunkX = lesserChunkX;
+		this.lesserChunkZ = lesserChunkZ;
+		this.openNewRegions = openNewRegions;
+		this.cache = cache;
+		this.fullScan = fullScan;
+		this.preScan = preScan;
+		this.snapshots = new ChunkSnapshot[greaterChunkX - lesserChunkX + 1][greaterChunkZ - lesserChunkZ + 1];
+		this.sizeZ = this.snapshots[0].length;
+		this.totalChunks = this.snapshots.length * this.sizeZ;
+		this.attempts = new byte[this.totalChunks];
+		this.dirtyStamps = new int[this.snapshots.length][this.sizeZ];
+	}
+
+	void setSample(RegionSample sample)
+	{
+		this.sample = sample;
+	}
+
+	void setStream(SnapshotStream stream)
+	{
+		this.stream = stream;
+	}
+
+	void setScan(RegionScan scan)
+	{
+		this.scan = scan;
+	}
+
+	void start()
+	{
+		if(this.cache != null || this.sample != null || this.stream != null)
+		{
+			this.summaries = new ChunkScanSummary[this.snapshots.length][this.sizeZ];
+		}
+
+		if(this.cache != null)
+		{
+			if(!this.fullScan)
+			{
+				CacheLoader loader = new CacheLoader();
+				loader.setPriority(Thread.MIN_PRIORITY);
+				loader.start();
+				return;
+			}
+		}
+
+		this.scheduleSnapshots();
+	}
+
+	private void scheduleSnapshots()
+	{
+		for(int x = 0; x < this.snapshots.length; x++)
+		{
+			for(int z = 0; z < this.sizeZ; z++)
+			{
+				if(this.needsSnapshot(x, z)) this.snapshotCount++;
+				else if(this.summaries != null && this.summaries[x][z] != null) this.cachedChunks++;
+			}
+		}
+		this.remaining = this.snapshotCount;
+		this.scan.totalChunks = this.snapshotCount + this.cachedChunks;
+		this.scan.processedChunks = this.cachedChunks;
+
+		if(this.stream != null)
+		{
+			this.bandRemaining = new int[this.stream.getBandCount()];
+			for(int x = 0; x < this.snapshots.length; x++)
+			{
+				for(int z = 0; z < this.sizeZ; z++)
+				{
+					if(this.needsSnapshot(x, z)) this.bandRemaining[x / this.stream.bandRows]++;
+				}
+			}
+
+			for(int band = 0; band < this.bandRemaining.length; band++)
+			{
+				if(this.bandRemaining[band] == 0) this.stream.bandReady(band);
+			}
+
+			this.startScanTask();
+		}
+
+		this.taskID = PopulationDensity.instance.getServer().getScheduler().scheduleSyncRepeatingTask(PopulationDensity.instance, this, 1L, 1L);
+	}
+
+	//whether a chunk is in the sample (if any) and doesn't already have cached results
+	private boolean needsSnapshot(int x, int z)
+	{
+		if(this.sample != null && !this.sample.sampled[x][z]) return false;
+		return this.summaries == null || this.summaries[x][z] == null;
+	}
+
+	@Override
+	public void run()
+	{
+		//a cancelled scan stops collecting, and its streaming scan thread (if any) is told to stop waiting for more
+		if(this.scan.cancelled)
+		{
+			PopulationDensity.instance.getServer().getScheduler().cancelTask(this.taskID);
+			if(this.stream != null)
+			{
+				this.stream.cancel();
+			}
+			else
+			{
+				PopulationDensity.instance.scanScheduler.finished(this.scan);
+			}
+			return;
+		}
+
+		this.ticks++;
+		long start = System.nanoTime();
+		long deadline = start + PopulationDensity.instance.config_scanMillisecondsPerTick * 1000000L;
+		int chunksThisTick = 0;
+		int maxChunksThisTick = this.preScan ? PopulationDensity.instance.config_preScanChunksPerTick : PopulationDensity.instance.config_scanChunksPerTick;
+
+		while(this.remaining > 0 && chunksThisTick < maxChunksThisTick && System.nanoTime() < deadline)
+		{
+			//pick a chunk, first going through all of them once and then any which need another try
+			int index;
+			if(this.nextIndex < this.totalChunks)
+			{
+				index = this.nextIndex++;
+				if(!this.needsSnapshot(index / this.sizeZ, index % this.sizeZ)) continue;
+			}
+			else if(!this.retryIndexes.isEmpty() && this.retryTicks.peek() <= this.ticks)
+			{
+				index = this.retryIndexes.remove();
+				this.retryTicks.remove();
+			}
+			else
+			{
+				break;
+			}
+
+			chunksThisTick++;
+			this.acquire(index);
+		}
+
+		long elapsed = System.nanoTime() - start;
+		this.busyNanos += elapsed;
+		if(elapsed > this.maxTickNanos) this.maxTickNanos = elapsed;
+
+		//once all the snapshots are in, stop running every tick and start the scan in a separate thread
+		if(this.remaining == 0)
+		{
+			PopulationDensity.instance.getServer().getScheduler().cancelTask(this.taskID);
+			this.scan.state = RegionScan.SCANNING;
+
+			PopulationDensity.AddLogEntry("Collected " + this.snapshotCount + " chunk snapshots for " + (this.preScan ? "pre-scan of " : "") + "region \"" + this.region.toString() + "\" over " + this.ticks + " ticks (" + this.retries + " retries, " +
+					String.format("%.1f", this.busyNanos / 1000000.0) + "ms total, " + String.format("%.1f", this.maxTickNanos / 1000000.0) + "ms max per tick" +
+					(this.stream == null ? ", about " + this.snapshotBytes / 1024 / 1024 + "MB of snapshots)" : ")") +
+					(this.cachedChunks > 0 ? ", reusing cached results for " + this.cachedChunks + " unchanged chunks." : "."));
+
+			//a streaming scan is already running
+			if(this.stream == null) this.startScanTask();
+		}
+	}
+
+	private void startScanTask()
+	{
+		ScanRegionTask task = new ScanRegionTask(this.snapshots, this.openNewRegions, this.region, this.lesserChunkX, this.lesserChunkZ, this.summaries, this.dirtyStamps, this.cache, this.preScan);
+		task.setSample(this.sample);
+		task.setStream(this.stream);
+		task.setScan(this.scan);
+		PopulationDensity.instance.scanScheduler.execute(task);
+	}
+
+	//takes a snapshot of one chunk, loading or generating it if necessary
+	@SuppressWarnings("deprecation")
+	private void acquire(int index)
+	{
+		int x = index / this.sizeZ;
+		int z = index % this.sizeZ;
+		if(this.attempts[index] < MAX_ATTEMPTS) this.attempts[index]++;
+
+		Chunk chunk = PopulationDensity.ManagedWorld.getChunkAt(x + this.lesserChunkX, z + this.lesserChunkZ);
+		if(chunk.isLoaded() || chunk.load(true))
+		{
+			ChunkSnapshot snapshot = chunk.getChunkSnapshot();
+
+			//due to a race condition, bukkit might say a chunk is loaded when it really isn't,
+			//and then the snapshot is all air.  so verify the snapshot by finding something that's not air
+			int maxHeight = PopulationDensity.ManagedWorld.getMaxHeight();
+			for(int y = 0; y < maxHeight; y++)
+			{
+				if(snapshot.getBlockTypeId(0, y, 0) != 0)
+				{
+					this.accept(x, z, snapshot);
+					return;
+				}
+			}
+
+			//a chunk which keeps coming back empty probably really is empty
+			if(this.attempts[index] >= MAX_ATTEMPTS)
+			{
+				this.accept(x, z, snapshot);
+				return;
+			}
+		}
+
+		//otherwise try again a little later, giving the chunk loader/generator time to catch up
+		this.retries++;
+		this.retryIndexes.add(index);
+		this.retryTicks.add(this.ticks + RETRY_DELAY_TICKS);
+	}
+
+	private void accept(int x, int z, ChunkSnapshot snapshot)
+	{
+		this.snapshots[x][z] = snapshot;
+		this.remaining--;
+		this.scan.processedChunks++;
+
+		long bytes = SnapshotStream.estimateBytes(snapshot, PopulationDensity.ManagedWorld.getMaxHeight());
+		if(this.stream == null)
+		{
+			this.snapshotBytes += bytes;
+		}
+		else
+		{
+			this.stream.hold(bytes);
+			int band = x / this.stream.bandRows;
+			if(--this.bandRemaining[band] == 0) this.stream.bandReady(band);
+		}
+
+		//the scan will see everything changed up to now, so results in the scan history from before now are out of date
+		int stamp = PopulationDensity.instance.dataStore.getScanCache().getDirtyStamp(x + this.lesserChunkX, z + this.lesserChunkZ);
+		this.dirtyStamps[x][z] = stamp;
+		if(stamp != 0 && !this.changed)
+		{
+			this.changed = true;
+			PopulationDensity.instance.dataStore.getScanHistory().regionChanged(this.region);
+		}
+	}
+
+	//reads the region's cached results, keeping only those for chunks which haven't changed since
+	//and which aren't too old (in case something changed which the event handlers didn't hear about, like another plugin's edits)
+	//then starts collecting snapshots for everything else
+	private class CacheLoader extends Thread
+	{
+		@Override
+		public void run()
+		{
+			int sizeX = snapshots.length;
+			ChunkScanSummary [][] cached = cache.load(region, lesserChunkX, lesserChunkZ, sizeX, sizeZ, PopulationDensity.ManagedWorld.getMaxHeight(), PopulationDensity.instance.minimumRegionPostY - 20);
+			long oldest = System.currentTimeMillis() - PopulationDensity.instance.config_scanCacheHours * 3600000L;
+			for(int x = 0; x < sizeX; x++)
+			{
+				for(int z = 0; z < sizeZ; z++)
+				{
+					ChunkScanSummary summary = cached[x][z];
+					if(summary == null || summary.timestamp < oldest || cache.isDirty(x + lesserChunkX, z + lesserChunkZ)) continue;
+
+					summaries[x][z] = summary;
+				}
+			}
+
+			//the rest happens on the main thread, which the scheduler hands everything written above to
+			//(a plugin which has been disabled in the meantime can't schedule anything, and its scans are cancelled anyway)
+			if(!PopulationDensity.instance.isEnabled()) return;
+			PopulationDensity.instance.getServer().getScheduler().scheduleSyncDelayedTask(PopulationDensity.instance, new ScheduleSnapshotsTask());
+		}
+	}
+
+	private class ScheduleSnapshotsTask implements Runnable
+	{
+		@Override
+		public void run()
+		{
+			scheduleSnapshots();
+		}
+	}
+}
@@ -0,0 +1,82 @@
+package me.ryanhamshire.PopulationDensity;
+
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.bukkit.ChunkSnapshot;
+
+//hands a region's chunk snapshots from a ScanSnapshotsTask to a ScanRegionTask in bands of chunk rows, as each band is completed,
+//so each band can be summarized and dropped while the next one is being collected instead of holding the whole region at once
+//also keeps track of roughly how much memory the snapshots being held take up
+class SnapshotStream
+{
+	//a snapshot keeps block IDs (2 bytes each), block data, sky light and block light (half a byte each) for every non-empty section,
+	//plus a height map and biomes.  empty sections share one array, so they cost nothing
+	private static final int SECTION_BYTES = 4096 * 2 + 2048 * 3;
+	private static final int CHUNK_BYTES = 256 * 4 + 256 * 4;
+
+	final int bandRows;
+	private final int bandCount;
+
+	//bands which have all their snapshots, in the order they were completed
+	private final LinkedBlockingQueue<Integer> readyBands = new LinkedBlockingQueue<Integer>();
+
+	//guarded by this
+	private long heldBytes = 0;
+	private long peakBytes = 0;
+
+	SnapshotStream(int sizeX, int bandRows)
+	{
+		this.bandRows = bandRows;
+		this.bandCount = (sizeX + bandRows - 1) / bandRows;
+	}
+
+	int getBandCount()
+	{
+		return this.bandCount;
+	}
+
+	static long estimateBytes(ChunkSnapshot snapshot, int maxHeight)
+	{
+		long bytes = CHUNK_BYTES;
+		for(int section = 0; section < maxHeight / 16; section++)
+		{
+			if(!snapshot.isSectionEmpty(section)) bytes += SECTION_BYTES;
+		}
+
+		return bytes;
+	}
+
+	synchronized void hold(long bytes)
+	{
+		this.heldBytes += bytes;
+		if(this.heldBytes > this.peakBytes) this.peakBytes = this.heldBytes;
+	}
+
+	synchronized void release(long bytes)
+	{
+		this.heldBytes -= bytes;
+	}
+
+	synchronized long getPeakBytes()
+	{
+		return this.peakBytes;
+	}
+
+	//called on the main thread once every snapshot in a band has been taken (or the band didn't need any)
+	void bandReady(int band)
+	{
+		this.readyBands.add(band);
+	}
+
+	//wakes up the scan thread when the scan is cancelled, see takeBand()
+	void cancel()
+	{
+		this.readyBands.add(-1);
+	}
+
+	//waits for the next completed band, or -1 if the scan was cancelled
+	int takeBand() throws InterruptedException
+	{
+		return this.readyBands.take();
+	}
+}
@@ -0,0 +1,344 @@
+package me.ryanhamshire.PopulationDensity;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.bukkit.Chunk;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockState;
+import org.bukkit.entity.Animals;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.EntityType;
+
+//thins out crowded entities in every loaded chunk, a few chunks at a time (see MonitorPerformanceTask.thinEntities())
+//going through every loaded chunk at once freezes a big server for a second or two, which is the last thing a lagging server needs,
+//so this runs every tick and works through the chunks which were loaded when it started until the tick's time budget is used up, picking up there next tick
+//the main thread only describes the entities in each chunk (see ThinningBatch) and later removes the ones picked for removal,
+//while the thinning rules themselves run on a worker thread, one batch of chunks at a time
+//chunks which unload in the meantime are skipped.  the totals are logged once every chunk has been through
+//when asked to, a second pass then logs what's left in each chunk, for finding out what's still causing lag
+class ThinEntitiesTask implements Runnable
+{
+	//thinnable entity types
+	static final HashSet<EntityType> thinnableAnimals = new HashSet<EntityType>(Arrays.asList
+	(
+		EntityType.COW,
+		EntityType.HORSE,
+		EntityType.CHICKEN,
+		EntityType.SHEEP,
+		EntityType.PIG,
+		EntityType.WOLF,
+		EntityType.OCELOT,
+		EntityType.RABBIT,
+		EntityType.MUSHROOM_COW
+	));
+
+	//more than this many of one kind of item, orb or boat in a chunk are removed
+	static final int MAX_ITEMS = 25;
+	static final int MAX_EXPERIENCE_ORBS = 15;
+	static final int MAX_BOATS = 5;
+
+	//chunks described before a batch is handed to the worker
+	private static final int BATCH_CHUNKS = 32;
+
+	private final boolean reportRemaining;
+
+	//every world's loaded chunks when the pass started, and how far through them it is
+	private final ArrayList<Chunk []> chunks = new ArrayList<Chunk []>();
+	private final int totalChunks;
+	private int worldIndex = 0;
+	private int chunkIndex = 0;
+	private int processedChunks = 0;
+	private boolean reporting = false;
+
+	//the batch being described, batches handed to the worker and not back yet, and batches the worker is done with
+	private ThinningBatch batch = new ThinningBatch();
+	private int batchesOut = 0;
+	private final ConcurrentLinkedQueue<ThinningBatch> decided = new ConcurrentLinkedQueue<ThinningBatch>();
+	private final ExecutorService worker = Executors.newSingleThreadExecutor(new WorkerThreadFactory());
+
+	private int totalEntities = 0;
+	private int totalRemoved = 0;
+	private int skippedChunks = 0;
+
+	private int taskID;
+	private int ticks = 0;
+	private long busyNanos = 0;
+	private long maxTickNanos = 0;
+
+	//the worker doesn't keep the server running
+	private static class WorkerThreadFactory implements ThreadFactory
+	{
+		@Override
+		public Thread newThread(Runnable runnable)
+		{
+			Thread thread = new Thread(runnable, "PopulationDensity Entity Thinning");
+			thread.setPriority(Thread.MIN_PRIORITY);
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+
+	//runs the thinning rules over a batch on the worker thread, then hands it back
+	private class DecideTask implements Runnable
+	{
+		private final ThinningBatch batch;
+
+		DecideTask(ThinningBatch batch)
+		{
+			this.batch = batch;
+		}
+
+		@Override
+		public void run()
+		{
+			try
+			{
+				this.batch.decide();
+			}
+			catch(Exception e)
+			{
+				//a batch which couldn't be decided removes nothing
+				PopulationDensity.AddLogEntry("Unexpected exception deciding which entities to thin: " + e.toString());
+				Arrays.fill(this.batch.actions, ThinningBatch.KEEP);
+			}
+
+			ThinEntitiesTask.this.decided.add(this.batch);
+		}
+	}
+
+	ThinEntitiesTask(boolean reportRemaining)
+	{
+		this.reportRemaining = reportRemaining;
+
+		int total = 0;
+		for(World world : PopulationDensity.instance.getServer().getWorlds())
+		{
+			Chunk [] worldChunks = world.getLoadedChunks();
+			this.chunks.add(worldChunks);
+			total += worldChunks.length;
+		}
+		this.totalChunks = total;
+	}
+
+	void start()
+	{
+		this.taskID = PopulationDensity.instance.getServer().getScheduler().scheduleSyncRepeatingTask(PopulationDensity.instance, this, 1L, 1L);
+	}
+
+	//called from onDisable
+	void cancel()
+	{
+		PopulationDensity.instance.getServer().getScheduler().cancelTask(this.taskID);
+		this.worker.shutdownNow();
+	}
+
+	int getPercentDone()
+	{
+		if(this.totalChunks == 0) return 100;
+		return (int)(this.processedChunks * 100L / this.totalChunks);
+	}
+
+	int getProcessedChunks()
+	{
+		return this.processedChunks;
+	}
+
+	int getTotalChunks()
+	{
+		return this.totalChunks;
+	}
+
+	int getRemoved()
+	{
+		return this.totalRemoved;
+	}
+
+	@Override
+	public void run()
+	{
+		this.ticks++;
+		long start = System.nanoTime();
+		long deadline = start + PopulationDensity.instance.config_thinningMillisecondsPerTick * 1000000L;
+
+		//first carry out whatever the worker has decided
+		ThinningBatch decidedBatch;
+		while((decidedBatch = this.decided.poll()) != null)
+		{
+			this.batchesOut--;
+			this.apply(decidedBatch);
+		}
+
+		//always at least one chunk per tick, so a tiny budget can't stall the pass
+		boolean passDone = false;
+		do
+		{
+			Chunk chunk = this.nextChunk();
+			if(chunk == null)
+			{
+				passDone = true;
+				break;
+			}
+			if(!chunk.isLoaded()) continue;
+
+			if(this.reporting)
+			{
+				this.reportChunk(chunk);
+			}
+			else if(PopulationDensity.instance.entityIndex.mightNeedThinning(chunk))
+			{
+				this.describeChunk(chunk);
+			}
+			else
+			{
+				this.skippedChunks++;
+			}
+		}
+		while(System.nanoTime() < deadline);
+
+		//hand off the batch when it's full, or when there are no more chunks to add to it
+		if(this.batch.chunkCount >= BATCH_CHUNKS || (passDone && this.batch.chunkCount > 0))
+		{
+			this.batchesOut++;
+			this.worker.execute(new DecideTask(this.batch));
+			this.batch = new ThinningBatch();
+		}
+
+		long elapsed = System.nanoTime() - start;
+		this.busyNanos += elapsed;
+		if(elapsed > this.maxTickNanos) this.maxTickNanos = elapsed;
+
+		if(!passDone || this.batchesOut > 0) return;
+
+		if(!this.reporting)
+		{
+			PopulationDensity.AddLogEntry("Removed " + this.totalRemoved + " of " + this.totalEntities + " entities in " + (this.totalChunks - this.skippedChunks) + " chunks (skipped " + this.skippedChunks + " with nothing to thin), over " + this.ticks + " ticks (" +
+					String.format("%.1f", this.busyNanos / 1000000.0) + "ms total on the main thread, " + String.format("%.1f", this.maxTickNanos / 1000000.0) + "ms max per tick).");
+
+			if(this.reportRemaining)
+			{
+				PopulationDensity.AddLogEntry("Still lagging after thinning entities.  Remaining entities by chunk and type:");
+				PopulationDensity.AddLogEntry("world;chunkx;chunkz;type;count");
+				this.reporting = true;
+				this.worldIndex = 0;
+				this.chunkIndex = 0;
+				return;
+			}
+		}
+
+		PopulationDensity.instance.getServer().getScheduler().cancelTask(this.taskID);
+		this.worker.shutdown();
+		PopulationDensity.instance.thinEntitiesTask = null;
+	}
+
+	//the next chunk in the pass, or null when it's done
+	private Chunk nextChunk()
+	{
+		while(this.worldIndex < this.chunks.size())
+		{
+			Chunk [] worldChunks = this.chunks.get(this.worldIndex);
+			if(this.chunkIndex < worldChunks.length)
+			{
+				if(!this.reporting) this.processedChunks++;
+				return worldChunks[this.chunkIndex++];
+			}
+
+			this.worldIndex++;
+			this.chunkIndex = 0;
+		}
+
+		return null;
+	}
+
+	private void describeChunk(Chunk chunk)
+	{
+		Entity [] entities = chunk.getEntities();
+		this.batch.capture(chunk, entities);
+
+		//the chunk's counts are exact again (and stay that way as the removals are carried out, see apply())
+		PopulationDensity.instance.entityIndex.recount(chunk, entities);
+	}
+
+	//removes the entities the worker picked, unless they've gone away (or moved to an unloaded chunk) since they were described
+	@SuppressWarnings("deprecation")
+	private void apply(ThinningBatch batch)
+	{
+		this.totalEntities += batch.livingEntities;
+
+		for(int i = 0; i < batch.entityCount; i++)
+		{
+			byte action = batch.actions[i];
+			if(action == ThinningBatch.KEEP) continue;
+
+			Entity entity = batch.entities[i];
+			if(!entity.isValid()) continue;
+
+			if(action == ThinningBatch.REMOVE)
+			{
+				PopulationDensity.instance.entityIndex.removed(entity, entity.getLocation());
+				entity.remove();
+				this.totalRemoved++;
+			}
+			else
+			{
+				//counted out of the index by its death event
+				((Animals) entity).setHealth(0);
+				this.totalRemoved++;
+
+				if(PopulationDensity.instance.markRemovedEntityLocations)
+				{
+					Block block = entity.getLocation().getBlock();
+					Material blockType = block.getType();
+					if(blockType == Material.LONG_GRASS || blockType == Material.AIR)
+					{
+						block.setTypeIdAndData(31, (byte)0, false);  //dead bush
+					}
+				}
+			}
+		}
+	}
+
+	private void reportChunk(Chunk chunk)
+	{
+		World world = chunk.getWorld();
+		BlockState [] blocks = chunk.getTileEntities();
+		int total = 0;
+		HashMap<String, Integer> entityCounter = new HashMap<String, Integer>();
+		for(BlockState block : blocks)
+		{
+			String typeName = block.getType().name();
+			Integer oldValue = entityCounter.get(typeName);
+			if(oldValue == null) oldValue = 0;
+			entityCounter.put(typeName, oldValue + 1);
+			total++;
+		}
+
+		Entity[] entities = chunk.getEntities();
+		for(Entity entity : entities)
+		{
+			String typeName = entity.getType().name();
+			Integer oldValue = entityCounter.get(typeName);
+			if(oldValue == null) oldValue = 0;
+			entityCounter.put(typeName, oldValue + 1);
+			total++;
+		}
+
+		for(String typeName : entityCounter.keySet())
+		{
+			PopulationDensity.AddLogEntry(";" + world.getName() + ";" + chunk.getX() + ";" + chunk.getZ() + ";" + typeName + ";" + entityCounter.get(typeName));
+		}
+
+		if(total > 10)
+		{
+			PopulationDensity.AddLogEntry(";" + world.getName() + ";" + chunk.getX() + ";" + chunk.getZ() + ";TOTAL;" + total);
+		}
+	}
+}
@@ -0,0 +1,234 @@
+package me.ryanhamshire.PopulationDensity;
+
+import java.util.HashSet;
+
+import org.bukkit.Chunk;
+import org.bukkit.DyeColor;
+import org.bukkit.Material;
+import org.bukkit.World.Environment;
+import org.bukkit.entity.Animals;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.EntityType;
+import org.bukkit.entity.LivingEntity;
+import org.bukkit.entity.Monster;
+import org.bukkit.entity.Rabbit;
+import org.bukkit.entity.Sheep;
+import org.bukkit.entity.Tameable;
+
+//the entities of a few chunks, described with just the numbers entity thinning needs (see ThinEntitiesTask)
+//capture() runs on the main thread, which is the only place entities and blocks may be looked at,
+//then decide() works out which entities to remove on a worker thread, using only the descriptions
+//the main thread removes them a tick or two later, skipping any which have died or unloaded in the meantime
+class ThinningBatch
+{
+	//what decide() wants done with an entity
+	static final byte KEEP = 0;
+	static final byte REMOVE = 1;
+	static final byte KILL = 2;
+
+	private static final byte LIVING = 1;
+	private static final byte TAMED = 2;
+	private static final byte NAMED = 4;
+	private static final byte ANIMAL = 8;
+	private static final byte MONSTER = 16;
+
+	//variants are counted separately (sheep by color, rabbits by type), and there are fewer than this many of each
+	private static final int VARIANTS = 32;
+
+	private static final EntityType [] ENTITY_TYPES = EntityType.values();
+	private static final Material [] MATERIALS = Material.values();
+
+	//thinnable animal types by EntityType ordinal
+	private static final boolean [] thinnableAnimals = new boolean[ENTITY_TYPES.length];
+	static
+	{
+		for(EntityType type : ThinEntitiesTask.thinnableAnimals) thinnableAnimals[type.ordinal()] = true;
+	}
+
+	//chunks, and where each one's entities start (chunkStart[chunkCount] is the end of the last one)
+	Chunk [] chunks = new Chunk[16];
+	private byte [] environments = new byte[16];
+	private int [] chunkStart = new int[17];
+	int chunkCount = 0;
+
+	//one entry per entity.  entities are only touched on the main thread
+	Entity [] entities = new Entity[256];
+	private short [] types = new short[256];
+	private byte [] variants = new byte[256];
+	private byte [] flags = new byte[256];
+	private byte [] light = new byte[256];
+	private short [] under = new short[256];
+	byte [] actions = new byte[256];
+	int entityCount = 0;
+
+	//filled in by decide()
+	int livingEntities = 0;
+
+	//main thread: describes a chunk's entities
+	void capture(Chunk chunk, Entity [] chunkEntities)
+	{
+		if(this.chunkCount == this.chunks.length) this.growChunks();
+		this.chunks[this.chunkCount] = chunk;
+		this.environments[this.chunkCount] = (byte)chunk.getWorld().getEnvironment().ordinal();
+
+		for(Entity entity : chunkEntities)
+		{
+			if(this.entityCount == this.entities.length) this.growEntities();
+			int i = this.entityCount++;
+
+			EntityType type = entity.getType();
+			byte variant = -1;
+			if(type == EntityType.SHEEP)
+			{
+				DyeColor color = ((Sheep)entity).getColor();
+				if(color != null) variant = (byte)color.ordinal();
+			}
+			else if(type == EntityType.RABBIT)
+			{
+				variant = (byte)((Rabbit)entity).getRabbitType().ordinal();
+			}
+
+			byte entityFlags = 0;
+			if(entity instanceof LivingEntity) entityFlags |= LIVING;
+			if(entity instanceof Tameable && ((Tameable)entity).isTamed()) entityFlags |= TAMED;
+			if(entity.getCustomName() != null && entity.getCustomName() != "") entityFlags |= NAMED;
+			if(entity instanceof Animals) entityFlags |= ANIMAL;
+			if(entity instanceof Monster) entityFlags |= MONSTER;
+
+			//the blocks around an entity are only looked up when a rule needs them
+			byte entityLight = 15;
+			short underType = -1;
+			if((entityFlags & (TAMED | NAMED)) == 0)
+			{
+				if((entityFlags & ANIMAL) != 0 && thinnableAnimals[type.ordinal()])
+				{
+					entityLight = entity.getLocation().getBlock().getLightFromBlocks();
+				}
+				else if((entityFlags & MONSTER) != 0)
+				{
+					underType = (short)entity.getLocation().getBlock().getRelative(0, -1, 0).getType().ordinal();
+				}
+			}
+
+			this.entities[i] = entity;
+			this.types[i] = (short)type.ordinal();
+			this.variants[i] = variant;
+			this.flags[i] = entityFlags;
+			this.light[i] = entityLight;
+			this.under[i] = underType;
+			this.actions[i] = KEEP;
+		}
+
+		this.chunkStart[++this.chunkCount] = this.entityCount;
+	}
+
+	private void growChunks()
+	{
+		int size = this.chunks.length * 2;
+		Chunk [] chunks = new Chunk[size];
+		System.arraycopy(this.chunks, 0, chunks, 0, this.chunkCount);
+		this.chunks = chunks;
+		byte [] environments = new byte[size];
+		System.arraycopy(this.environments, 0, environments, 0, this.chunkCount);
+		this.environments = environments;
+		int [] chunkStart = new int[size + 1];
+		System.arraycopy(this.chunkStart, 0, chunkStart, 0, this.chunkCount + 1);
+		this.chunkStart = chunkStart;
+	}
+
+	private void growEntities()
+	{
+		int size = this.entities.length * 2;
+		Entity [] entities = new Entity[size];
+		System.arraycopy(this.entities, 0, entities, 0, this.entityCount);
+		this.entities = entities;
+		short [] types = new short[size];
+		System.arraycopy(this.types, 0, types, 0, this.entityCount);
+		this.types = types;
+		byte [] variants = new byte[size];
+		System.arraycopy(this.variants, 0, variants, 0, this.entityCount);
+		this.variants = variants;
+		byte [] flags = new byte[size];
+		System.arraycopy(this.flags, 0, flags, 0, this.entityCount);
+		this.flags = flags;
+		byte [] light = new byte[size];
+		System.arraycopy(this.light, 0, light, 0, this.entityCount);
+		this.light = light;
+		short [] under = new short[size];
+		System.arraycopy(this.under, 0, under, 0, this.entityCount);
+		this.under = under;
+		byte [] actions = new byte[size];
+		System.arraycopy(this.actions, 0, actions, 0, this.entityCount);
+		this.actions = actions;
+	}
+
+	//worker thread: the thinning rules, chunk by chunk, filling in actions
+	void decide()
+	{
+		Environment [] environments = Environment.values();
+		int [] counts = new int[ENTITY_TYPES.length * VARIANTS];
+		int [] touched = new int[this.entityCount];
+
+		for(int c = 0; c < this.chunkCount; c++)
+		{
+			Environment environment = environments[this.environments[c]];
+			HashSet<Material> allowedSpawnSurfaces = EntityEventHandler.allowedSpawnBlocks.get(environment);
+
+			int touchedCount = 0;
+			int monsterCount = 0;
+			boolean removedAnimalThisPass = false;
+			for(int i = this.chunkStart[c]; i < this.chunkStart[c + 1]; i++)
+			{
+				byte entityFlags = this.flags[i];
+				if((entityFlags & LIVING) != 0) this.livingEntities++;
+
+				//skip any pets, and any entities with nameplates
+				if((entityFlags & (TAMED | NAMED)) != 0) continue;
+
+				//only specific types of animals may be removed
+				boolean isAnimal = (entityFlags & ANIMAL) != 0;
+				EntityType type = ENTITY_TYPES[this.types[i]];
+				if(isAnimal && !thinnableAnimals[this.types[i]]) continue;
+
+				int key = this.types[i] * VARIANTS + this.variants[i] + 1;
+				int count = counts[key];
+				if(count == 0) touched[touchedCount++] = key;
+				counts[key] = count + 1;
+
+				if(type == EntityType.EXPERIENCE_ORB)
+				{
+					if(count > ThinEntitiesTask.MAX_EXPERIENCE_ORBS) this.actions[i] = REMOVE;
+				}
+				else if(type == EntityType.DROPPED_ITEM)
+				{
+					if(count > ThinEntitiesTask.MAX_ITEMS) this.actions[i] = REMOVE;
+				}
+				else if(type == EntityType.BOAT)
+				{
+					if(count > ThinEntitiesTask.MAX_BOATS) this.actions[i] = REMOVE;
+				}
+				else if((entityFlags & MONSTER) != 0)
+				{
+					if(++monsterCount > 2 || !allowedSpawnSurfaces.contains(MATERIALS[this.under[i]]))
+					{
+						this.actions[i] = REMOVE;
+					}
+				}
+				else if(isAnimal)
+				{
+					if(count > 20 || (count > 5 && !removedAnimalThisPass) || this.light[i] < 4)
+					{
+						this.actions[i] = KILL;
+						removedAnimalThisPass = true;
+					}
+				}
+				else if(type == EntityType.PIG_ZOMBIE && environment != Environment.NETHER)
+				{
+					this.actions[i] = REMOVE;
+				}
+			}
+
+			for(int t = 0; t < touchedCount; t++) counts[touched[t]] = 0;
+		}
+	}
+}
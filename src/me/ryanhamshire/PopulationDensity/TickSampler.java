@@ -0,0 +1,112 @@
+package me.ryanhamshire.PopulationDensity;
+
+//measures server speed tick by tick, so a short lag spike shows up instead of being averaged into a minute
+//runs every tick on the main thread and records the time since the last tick in a ring buffer covering 15 minutes at full speed
+//a slow tick makes that time longer than the usual 50ms, so it's the tick's duration (milliseconds per tick, "MSPT") whenever the server is behind
+//queries walk back from the newest tick over the last so many seconds, without allocating anything,
+//so they're cheap enough for /Lag and the once-a-minute lag check (see MonitorPerformanceTask)
+//queries may come from other threads (lag questions in chat arrive on an async chat thread), so everything is synchronized
+class TickSampler implements Runnable
+{
+	static final int TEN_SECONDS = 10;
+	static final int ONE_MINUTE = 60;
+	static final int FIVE_MINUTES = 5 * 60;
+	static final int FIFTEEN_MINUTES = 15 * 60;
+
+	private static final int CAPACITY = FIFTEEN_MINUTES * 20;
+
+	//percentiles come from a histogram with one bucket per millisecond, and everything past the last bucket counts as the last bucket
+	private static final int HISTOGRAM_MILLIS = 1000;
+
+	//tick durations in nanoseconds, newest at next - 1
+	private final long [] durations = new long[CAPACITY];
+	private int next = 0;
+	private int count = 0;
+	private long lastTickNanos = 0;
+
+	//reused by percentile queries
+	private final int [] histogram = new int[HISTOGRAM_MILLIS + 1];
+
+	@Override
+	public synchronized void run()
+	{
+		long now = System.nanoTime();
+		if(this.lastTickNanos != 0)
+		{
+			this.durations[this.next] = now - this.lastTickNanos;
+			this.next = (this.next + 1) % CAPACITY;
+			if(this.count < CAPACITY) this.count++;
+		}
+
+		this.lastTickNanos = now;
+	}
+
+	//how many of the newest ticks fit in the last so many seconds (at least one, if there are any)
+	private int ticksWithin(int seconds)
+	{
+		long limit = seconds * 1000000000L;
+		long total = 0;
+		int ticks = 0;
+		while(ticks < this.count)
+		{
+			total += this.durations[this.indexOf(ticks)];
+			ticks++;
+			if(total >= limit) break;
+		}
+
+		return ticks;
+	}
+
+	//position in the ring buffer of the tick so many ticks before the newest one
+	private int indexOf(int ticksAgo)
+	{
+		return (this.next - 1 - ticksAgo + CAPACITY) % CAPACITY;
+	}
+
+	//ticks per second over the last so many seconds (20 until there's anything to measure)
+	synchronized float getTPS(int seconds)
+	{
+		int ticks = this.ticksWithin(seconds);
+		if(ticks == 0) return 20;
+
+		long total = 0;
+		for(int i = 0; i < ticks; i++) total += this.durations[this.indexOf(i)];
+
+		return Math.min(20, ticks / (total / 1000000000f));
+	}
+
+	//the longest tick in the last so many seconds, in milliseconds
+	synchronized float getMaxMSPT(int seconds)
+	{
+		int ticks = this.ticksWithin(seconds);
+		long max = 0;
+		for(int i = 0; i < ticks; i++) max = Math.max(max, this.durations[this.indexOf(i)]);
+
+		return max / 1000000f;
+	}
+
+	//a percentile (0 - 100) of tick durations over the last so many seconds, in milliseconds, to the nearest millisecond
+	synchronized float getMSPTPercentile(int seconds, double percentile)
+	{
+		int ticks = this.ticksWithin(seconds);
+		if(ticks == 0) return 0;
+
+		for(int i = 0; i < this.histogram.length; i++) this.histogram[i] = 0;
+		for(int i = 0; i < ticks; i++)
+		{
+			long millis = Math.round(this.durations[this.indexOf(i)] / 1000000.0);
+			this.histogram[(int)Math.min(millis, HISTOGRAM_MILLIS)]++;
+		}
+
+		//the smallest duration which at least that percent of the ticks don't go over
+		long rank = Math.max(1, (long)Math.ceil(ticks * percentile / 100));
+		long seen = 0;
+		for(int millis = 0; millis < this.histogram.length; millis++)
+		{
+			seen += this.histogram[millis];
+			if(seen >= rank) return millis;
+		}
+
+		return HISTOGRAM_MILLIS;
+	}
+}
@@ -21,7 +21,6 @@ package me.ryanhamshire.PopulationDensity;
 import java.util.List;
 
 import org.bukkit.Chunk;
-import org.bukkit.Location;
 import org.bukkit.Material;
 import org.bukkit.block.Block;
 import org.bukkit.entity.Animals;
@@ -73,21 +72,23 @@ public class WorldEventHandler implements Listener
 		if(chunk.getWorld() != PopulationDensity.ManagedWorld) return;
 		
 		//find the boundaries of the chunk
-		Location lesserCorner = chunk.getBlock(0, 0, 0).getLocation();
-		Location greaterCorner = chunk.getBlock(15, 0, 15).getLocation();
+		int lesserX = chunk.getX() << 4;
+		int lesserZ = chunk.getZ() << 4;
 		
 		//find the center of this chunk's region
-		RegionCoordinates region = RegionCoordinates.fromLocation(lesserCorner);		
-		Location regionCenter = PopulationDensity.getRegionCenter(region, false);
+		int regionX = RegionCoordinates.fromBlock(lesserX);
+		int regionZ = RegionCoordinates.fromBlock(lesserZ);
+		int centerX = RegionCoordinates.centerBlock(regionX);
+		int centerZ = RegionCoordinates.centerBlock(regionZ);
 		
 		//if the chunk contains the region center
-		if(	regionCenter.getBlockX() >= lesserCorner.getBlockX() && regionCenter.getBlockX() <= greaterCorner.getBlockX() &&
-			regionCenter.getBlockZ() >= lesserCorner.getBlockZ() && regionCenter.getBlockZ() <= greaterCorner.getBlockZ())
+		if(	centerX >= lesserX && centerX <= lesserX + 15 &&
+			centerZ >= lesserZ && centerZ <= lesserZ + 15)
 		{
 			//create a task to build the post after 10 seconds
 			try
 			{
-			    PopulationDensity.instance.dataStore.AddRegionPost(region);
+				PopulationDensity.instance.dataStore.AddRegionPost(RegionCoordinates.of(regionX, regionZ));
 			}
 			catch(ChunkLoadException e){}  //this should never happen, because the chunk is loaded (why else would onChunkLoad() be invoked?)
 		}
@@ -181,18 +182,19 @@ public class WorldEventHandler implements Listener
         //don't allow the new player spawn point chunk to unload
         
         //find the boundaries of the chunk
-        Location lesserCorner = chunk.getBlock(0, 0, 0).getLocation();
-        Location greaterCorner = chunk.getBlock(15, 0, 15).getLocation();
+		int lesserX = chunk.getX() << 4;
+		int lesserZ = chunk.getZ() << 4;
         
         //if the region is the new player region
-        RegionCoordinates region = RegionCoordinates.fromLocation(lesserCorner);
-        if(region.equals(PopulationDensity.instance.dataStore.getOpenRegion()))
+		RegionCoordinates openRegion = PopulationDensity.instance.dataStore.getOpenRegion();
+		if(openRegion.containsBlock(lesserX, lesserZ))
         {
-            Location regionCenter = PopulationDensity.getRegionCenter(region, false);
+			int centerX = RegionCoordinates.centerBlock(openRegion.x);
+			int centerZ = RegionCoordinates.centerBlock(openRegion.z);
         
             //if the chunk contains the region center
-            if( regionCenter.getBlockX() >= lesserCorner.getBlockX() && regionCenter.getBlockX() <= greaterCorner.getBlockX() &&
-                    regionCenter.getBlockZ() >= lesserCorner.getBlockZ() && regionCenter.getBlockZ() <= greaterCorner.getBlockZ())
+			if( centerX >= lesserX && centerX <= lesserX + 15 &&
+					centerZ >= lesserZ && centerZ <= lesserZ + 15)
             {
                 //don't unload the chunk
                 event.setCancelled(true);